@@ -1,13 +1,21 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.time.LocalDateTime;
-import java.util.regex.Pattern;
 
 class Packet {
     String sourceIP;
     String destIP;
     String protocol;
     int port;
+    // Application bytes, if any, between position and limit; a view, never a copy
+    ByteBuffer payload;
+    // Signature named by the payload rule that decided this packet
+    String signature;
 
     Packet(String sourceIP, String destIP, String protocol, int port) {
         this.sourceIP = sourceIP;
@@ -16,6 +24,11 @@ class Packet {
         this.port = port;
     }
 
+    Packet(String sourceIP, String destIP, String protocol, int port, ByteBuffer payload) {
+        this(sourceIP, destIP, protocol, port);
+        this.payload = payload;
+    }
+
     @Override
     public String toString() {
         return protocol + ":" + port + " | " + sourceIP + " → " + destIP;
@@ -40,66 +53,249 @@ class FirewallRule {
 }
 
 class Firewall {
-    private List<FirewallRule> rules = new ArrayList<>();
-    private File logFile = new File("firewall_log1.txt");
+    // Compiled and immutable; edits build a new index and swap it in
+    private volatile RuleIndex rules = RuleIndex.empty();
+    private LogWriter logWriter;
     private Map<String, Integer> threatCount = new HashMap<>();
+    static final int THREAT_THRESHOLD = 3;
+    // Repeat offenders skip rule evaluation and logging until their ban expires
+    final BanList bans = new BanList(100_000, 5 * 60_000);
+    // Identical events within a second share one log record; alerts are rate-limited the same way
+    final EventCoalescer coalescer = new EventCoalescer(1000, this::appendLog);
+    // Candidate rule set compared against live verdicts off the hot path, if any
+    volatile ShadowEvaluator shadow;
+    // Chain policy, compiled; while one is installed it decides instead of the flat rules
+    private volatile ChainPolicy chains;
+    // Shares threat counts and bans with other nodes when running as part of a cluster
+    volatile ClusterNode cluster;
+    // Signature conditions for packets that carry a payload; they decide before rules and chains
+    private volatile PayloadRules payloadRules = PayloadRules.empty(SignatureMatcher.defaults());
 
     Firewall() {
+        this(Paths.get("firewall_log1.txt"));
+    }
+
+    Firewall(Path logFile) {
         try {
-            if (!logFile.exists()) logFile.createNewFile();
+            logWriter = new LogWriter(logFile);
         } catch (IOException e) {
             System.out.println("Error creating log file.");
         }
     }
 
-    void addRule(FirewallRule rule) {
-        rules.add(rule);
-        System.out.println("✅ Rule added: " + rule);
+    synchronized void addRule(FirewallRule rule) {
+        try {
+            set(rules.toBuilder().add(rule.protocol, rule.port, rule.allow).build());
+            System.out.println("✅ Rule added: " + rule);
+        } catch (IllegalArgumentException e) {
+            System.out.println("⚠️ Rule rejected: " + e.getMessage());
+        }
     }
 
-    void removeRule(String protocol, int port) {
-        boolean removed = rules.removeIf(r -> r.protocol.equalsIgnoreCase(protocol) && r.port == port);
+    synchronized void removeRule(String protocol, int port) {
+        RuleIndex.Builder builder = rules.toBuilder();
+        boolean removed = builder.remove(protocol, port) > 0;
+        if (removed) set(builder.build());
         if (removed) System.out.println("🗑️ Rule for " + protocol + " port " + port + " removed.");
         else System.out.println("⚠️ No such rule found.");
     }
 
+    // Bulk edits: a whole batch of rules costs one rebuild. Rules shadowed by an earlier
+    // rule for the same protocol and port never match, so additions skip them.
+    synchronized int addRules(RuleIndex.Builder batch) {
+        RuleIndex.Builder builder = rules.toBuilder();
+        int added = builder.addAbsent(batch);
+        if (added > 0) set(builder.build());
+        return added;
+    }
+
+    synchronized int removeRules(RuleIndex.Builder batch) {
+        RuleIndex.Builder builder = rules.toBuilder();
+        int removed = builder.removeAll(batch);
+        if (removed > 0) set(builder.build());
+        return removed;
+    }
+
+    // Changes the action of existing rules in place and appends the rest; returns how many changed
+    synchronized int replaceRules(RuleIndex.Builder batch) {
+        RuleIndex.Builder builder = rules.toBuilder();
+        int changed = builder.replaceAll(batch);
+        set(builder.build());
+        return changed;
+    }
+
+    RuleIndex rules() {
+        return rules;
+    }
+
+    synchronized void install(RuleIndex compiled) {
+        set(compiled);
+    }
+
+    // Every local edit ends here, so a cluster can hand it to the other nodes
+    private void set(RuleIndex next) {
+        rules = next;
+        ClusterNode c = cluster;
+        if (c != null) c.publish(next);
+    }
+
+    // A rule set that arrived from another node
+    synchronized void adopt(RuleIndex replicated) {
+        rules = replicated;
+    }
+
+    // null goes back to the flat rule list
+    void installChains(ChainPolicy policy) {
+        chains = policy;
+    }
+
+    ChainPolicy chains() {
+        return chains;
+    }
+
+    PayloadRules payloadRules() {
+        return payloadRules;
+    }
+
+    void installPayloadRules(PayloadRules rules) {
+        payloadRules = rules;
+    }
+
     void viewRules() {
-        if (rules.isEmpty()) {
+        ChainPolicy policy = chains;
+        if (policy != null) {
+            System.out.print("\n" + policy.describe());
+            System.out.println("   (the " + rules.size() + " flat rules apply again once a flat rules file is loaded)");
+            return;
+        }
+        RuleIndex current = rules;
+        if (current.size() == 0) {
             System.out.println("🚫 No firewall rules set.");
             return;
         }
         System.out.println("\n🔒 Current Firewall Rules:");
-        for (FirewallRule r : rules)
-            System.out.println("   ➤ " + r);
+        for (int i = 0; i < current.size(); i++)
+            System.out.println("   ➤ " + new FirewallRule(current.protocol(i), current.port(i), current.allows(i)));
     }
 
     boolean isAllowed(Packet packet) {
-        for (FirewallRule rule : rules) {
-            if (rule.protocol.equalsIgnoreCase(packet.protocol) && rule.port == packet.port) {
-                log(packet, rule.allow);
-                detectThreat(packet, rule.allow);
-                return rule.allow;
+        if (bans.isBanned(packet.sourceIP)) return false;
+        boolean allowed = evaluate(packet);
+        log(packet, allowed);
+        detectThreat(packet, allowed);
+        return allowed;
+    }
+
+    // Rule verdict only: no logging, no threat bookkeeping. Safe to call from any thread.
+    // A running shadow evaluation gets a (sampled) copy of the packet and the verdict.
+    boolean evaluate(Packet packet) {
+        PayloadRules dpi = payloadRules;
+        if (packet.payload != null && dpi.inspects(packet.protocol, packet.port)) {
+            // payload verdicts are not offered to a shadow evaluation, which compares rule sets only
+            long[] seen = dpi.scratch();
+            int rule = dpi.match(packet.protocol, packet.port, packet.payload, seen);
+            if (rule != PayloadRules.NO_MATCH) {
+                packet.signature = dpi.matchedSignature(rule, seen);
+                return dpi.allows(rule);
             }
         }
-        log(packet, true);
-        return true; // default allow
+        ChainPolicy policy = chains;
+        if (policy != null) {
+            int direction = ChainPolicy.direction(packet);
+            boolean allowed = policy.allows(direction, packet.protocol, packet.port);
+            ShadowEvaluator s = shadow;
+            if (s != null) s.offer(packet, policy.label(direction), allowed);
+            return allowed;
+        }
+        RuleIndex current = rules;
+        int rule = current.match(packet.protocol, packet.port);
+        boolean allowed = rule == RuleIndex.NO_MATCH || current.allows(rule); // default allow
+        ShadowEvaluator s = shadow;
+        if (s != null) s.offer(packet, current, allowed);
+        return allowed;
     }
 
+    // Cluster counters are keyed by IPv4 address; IPv6 sources are counted and banned here alone
     void detectThreat(Packet packet, boolean allowed) {
-        if (!allowed) {
-            String key = packet.sourceIP;
-            threatCount.put(key, threatCount.getOrDefault(key, 0) + 1);
-            if (threatCount.get(key) >= 3) {
-                System.out.println("🚨 ALERT: Repeated blocked attempts detected from " + key);
-            }
+        ClusterNode c = cluster;
+        if (c != null && IPv4.parse(packet.sourceIP) != IPv4.INVALID) {
+            if (!allowed && c.recordBlocked(packet.sourceIP)) ban(packet.sourceIP);
+            return;
+        }
+        if (recordThreat(threatCount, packet, allowed)) ban(packet.sourceIP);
+    }
+
+    // Returns true when this packet raised an alert; the source's count starts over
+    static boolean recordThreat(Map<String, Integer> counts, Packet packet, boolean allowed) {
+        if (allowed) return false;
+        String key = packet.sourceIP;
+        int n = counts.merge(key, 1, Integer::sum);
+        if (n >= THREAT_THRESHOLD) {
+            counts.remove(key);
+            return true;
+        }
+        return false;
+    }
+
+    void ban(String source) {
+        ban(source, true);
+    }
+
+    // share = false for bans a cluster node decides from merged counts, which every node decides alike
+    void ban(String source, boolean share) {
+        BanList.Entry entry = bans.ban(source, THREAT_THRESHOLD + " blocked attempts");
+        ClusterNode c = cluster;
+        if (c != null && share) c.recordBan(source, entry.expiresAt);
+        if (coalescer.alert(source)) {
+            System.out.println("🚨 ALERT: Repeated blocked attempts detected from " + source);
+            System.out.println("🚫 Auto-banned " + source + " for " + bans.defaultTtlMillis() / 1000 + "s");
         }
     }
 
+    // Lifts a ban here and, in a cluster, on every node
+    boolean unban(String source) {
+        ClusterNode c = cluster;
+        if (c != null) c.recordUnban(source);
+        return bans.unban(source);
+    }
+
     void log(Packet packet, boolean allowed) {
+        if (!coalescer.add(packet, allowed)) appendLog(logEntry(packet, allowed) + "\n");
+    }
+
+    static String logEntry(Packet packet, boolean allowed) {
         String status = allowed ? "ALLOWED" : "BLOCKED";
-        String entry = LocalDateTime.now() + " | " + packet + " | " + status;
-        try (FileWriter fw = new FileWriter(logFile, true)) {
-            fw.write(entry + "\n");
+        return LocalDateTime.now() + " | " + packet + " | " + status;
+    }
+
+    // Appends one or more complete lines with a single write; the log index follows along
+    void appendLog(CharSequence lines) {
+        if (logWriter == null) return;
+        try {
+            logWriter.append(lines);
+        } catch (IOException e) {
+            System.out.println("Logging error: " + e.getMessage());
+        }
+    }
+
+    // Writes lines preformatted by the zero-allocation pipeline, then empties the buffer
+    void appendLog(LogBuffer lines) {
+        if (logWriter != null && !lines.isEmpty()) {
+            try {
+                logWriter.append(lines);
+            } catch (IOException e) {
+                System.out.println("Logging error: " + e.getMessage());
+            }
+        }
+        lines.clear();
+    }
+
+    // Writes out coalesced records still pending and the index entry for the last, partly filled log block
+    void closeLog() {
+        coalescer.close();
+        if (logWriter == null) return;
+        try {
+            logWriter.close();
         } catch (IOException e) {
             System.out.println("Logging error: " + e.getMessage());
         }
@@ -109,12 +305,33 @@ class Firewall {
 class Router {
     Firewall firewall;
     Map<String, String> routingTable = new HashMap<>();
+    volatile IpBlocklist blocklist = IpBlocklist.EMPTY;
+
+    // IPv6 routes by longest prefix; values index ROUTE_NAMES
+    static final String[] ROUTE_NAMES = {"LAN", "Internal Network", "Internet Gateway"};
+    final IPv6Trie routes6 = new IPv6Trie();
+    // Egress queues per route, in ROUTE_NAMES order; the console drives them from the wall clock
+    final EgressScheduler[] egress;
 
     Router(Firewall firewall) {
+        this(firewall, System.nanoTime());
+    }
+
+    // Egress clock starting at now, for simulations that keep their own time
+    Router(Firewall firewall, long now) {
         this.firewall = firewall;
+        egress = EgressScheduler.forRoutes(ROUTE_NAMES, now);
         routingTable.put("192.168.1.0/24", "LAN");
         routingTable.put("10.0.0.0/8", "Internal Network");
         routingTable.put("0.0.0.0/0", "Internet Gateway");
+        routingTable.put("fd00:1::/64", "LAN");
+        routingTable.put("fd00::/8", "Internal Network");
+        routingTable.put("::/0", "Internet Gateway");
+        long[] network = new long[2];
+        routingTable.forEach((prefix, name) -> {
+            int length = IPv6.parsePrefix(prefix, 0, prefix.length(), network);
+            if (length >= 0) routes6.put(network[0], network[1], length, Arrays.asList(ROUTE_NAMES).indexOf(name));
+        });
     }
 
     void showRoutingTable() {
@@ -122,38 +339,72 @@ class Router {
         routingTable.forEach((k, v) -> System.out.println("   " + k + " → " + v));
     }
 
+    static final int INVALID = 0, LISTED = 1, ALLOWED = 2, BLOCKED = 3, DROPPED = 4;
+
     void forwardPacket(Packet packet) {
         System.out.print("📦 Packet [" + packet + "] -> ");
-        if (!isValidIP(packet.sourceIP) || !isValidIP(packet.destIP)) {
-            System.out.println("\u001B[31mInvalid IP Address!\u001B[0m");
-            return;
+        switch (forward(packet, System.nanoTime())) {
+            case INVALID -> System.out.println("\u001B[31mInvalid IP Address!\u001B[0m");
+            case LISTED -> System.out.println("\u001B[31m⛔ Source on IP blocklist\u001B[0m");
+            case ALLOWED -> System.out.println("\u001B[32m✅ Allowed and Routed via "
+                    + getRoute(packet.destIP) + "\u001B[0m");
+            case DROPPED -> System.out.println("\u001B[33m🚦 Allowed, but dropped at the " + getRoute(packet.destIP) + " egress: "
+                    + EgressScheduler.CLASSES[EgressScheduler.classify(packet.protocol, packet.port)] + " queue full\u001B[0m");
+            default -> System.out.println(packet.signature != null
+                    ? "\u001B[31m❌ Blocked: payload matches signature '" + packet.signature + "'\u001B[0m"
+                    : "\u001B[31m❌ Blocked by Firewall\u001B[0m");
         }
+    }
 
-        if (firewall.isAllowed(packet)) {
-            System.out.println("\u001B[32m✅ Allowed and Routed via "
-                    + getRoute(packet.destIP) + "\u001B[0m");
-        } else {
-            System.out.println("\u001B[31m❌ Blocked by Firewall\u001B[0m");
+    // decide, then the egress queue of the packet's route at time now
+    int forward(Packet packet, long now) {
+        int verdict = decide(packet);
+        if (verdict != ALLOWED) return verdict;
+        return egress[routeIndex(packet.destIP)].offer(packet, now) ? ALLOWED : DROPPED;
+    }
+
+    // forwardPacket without the console output or egress: validation, blocklist, then the firewall
+    int decide(Packet packet) {
+        if (!isValidIP(packet.sourceIP) || !isValidIP(packet.destIP)) return INVALID;
+        if (blocklist.contains(packet.sourceIP)) {
+            firewall.log(packet, false);
+            return LISTED;
         }
+        return firewall.isAllowed(packet) ? ALLOWED : BLOCKED;
     }
 
     String getRoute(String destIP) {
-        if (destIP.startsWith("192.168")) return "LAN";
-        else if (destIP.startsWith("10.")) return "Internal Network";
-        else return "Internet Gateway";
+        return ROUTE_NAMES[routeIndex(destIP)];
     }
 
+    int routeIndex(String destIP) {
+        if (destIP.indexOf(':') >= 0) {
+            int route = routes6.lookup(destIP);
+            return route == IPv6Trie.NOT_FOUND ? ROUTE_NAMES.length - 1 : route;
+        }
+        if (destIP.startsWith("192.168")) return 0;
+        else if (destIP.startsWith("10.")) return 1;
+        else return 2;
+    }
+
+    // Per-route, per-class egress statistics up to now
+    String egressReport(long now) {
+        StringBuilder sb = new StringBuilder();
+        for (EgressScheduler e : egress) sb.append(e.report(now));
+        return sb.toString();
+    }
+
+    // Dotted-quad IPv4 or any IPv6 text form, checked without allocating
     boolean isValidIP(String ip) {
-        return Pattern.matches(
-                "^(25[0-5]|2[0-4]\\d|[01]?\\d\\d?)\\."
-                        + "(25[0-5]|2[0-4]\\d|[01]?\\d\\d?)\\."
-                        + "(25[0-5]|2[0-4]\\d|[01]?\\d\\d?)\\."
-                        + "(25[0-5]|2[0-4]\\d|[01]?\\d\\d?)$", ip);
+        return IPv4.parse(ip) != IPv4.INVALID || IPv6.isValid(ip);
     }
 }
 
 public class Advance_SimulatedNetworkFirewall {
     static Scanner sc = new Scanner(System.in);
+    static final String SNAPSHOT_FILE = "firewall_rules.bin";
+    static final String RULES_FILE = "firewall_rules.txt";
+    static RuleFileWatcher watcher;
 
     public static void main(String[] args) {
         Firewall firewall = new Firewall();
@@ -162,6 +413,37 @@ public class Advance_SimulatedNetworkFirewall {
         System.out.println("========== ADVANCED NETWORK FIREWALL SIMULATOR ==========");
         System.out.println("             (Developed by Amruta Kajuluri)\n");
 
+        for (String name : new String[]{SNAPSHOT_FILE, RULES_FILE}) {
+            if (Files.exists(Paths.get(name))) {
+                loadRules(firewall, Paths.get(name));
+                break;
+            }
+        }
+        String script = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--script") && i + 1 < args.length) {
+                script = args[++i];
+            } else if (args[i].equals("--cluster") && i + 2 < args.length) {
+                // --cluster ID PORT [HOST:PORT ...]
+                int id = Integer.parseInt(args[++i]), port = Integer.parseInt(args[++i]);
+                List<String> peers = new ArrayList<>();
+                while (i + 1 < args.length && !args[i + 1].startsWith("--")) peers.add(args[++i]);
+                joinCluster(firewall, id, port, peers);
+            } else {
+                System.out.println("Usage: java Advance_SimulatedNetworkFirewall [--script FILE|-] [--cluster ID PORT [HOST:PORT ...]]");
+                return;
+            }
+        }
+        if (script != null) {
+            boolean ok = runScript(router, script);
+            if (firewall.cluster != null) {
+                System.out.println(firewall.cluster.stats());
+                firewall.cluster.close();
+            }
+            System.exit(ok ? 0 : 1);
+        }
+        if (watcher == null) watchRules(firewall, Paths.get(RULES_FILE));
+
         boolean running = true;
         while (running) {
             System.out.println("\nMenu:");
@@ -170,7 +452,15 @@ public class Advance_SimulatedNetworkFirewall {
             System.out.println("3. View Firewall Rules");
             System.out.println("4. View Routing Table");
             System.out.println("5. Send Packet");
-            System.out.println("6. Exit");
+            System.out.println("6. Replay Capture File (pcap/pcapng)");
+            System.out.println("7. Save Rules to File");
+            System.out.println("8. Load Rules from File");
+            System.out.println("9. Load IP Blocklist");
+            System.out.println("10. View/Manage Banned Sources");
+            System.out.println("11. Shadow-Evaluate Candidate Rules");
+            System.out.println("12. Payload Inspection (DPI)");
+            System.out.println("13. Egress QoS (queue stats, congestion simulation)");
+            System.out.println("14. Exit");
             System.out.print("Choose an option: ");
             int choice = sc.nextInt();
             sc.nextLine();
@@ -181,7 +471,26 @@ public class Advance_SimulatedNetworkFirewall {
                 case 3 -> firewall.viewRules();
                 case 4 -> router.showRoutingTable();
                 case 5 -> sendPacket(router);
-                case 6 -> {
+                case 6 -> replayCapture(router);
+                case 7 -> saveRules(firewall);
+                case 8 -> loadRules(firewall);
+                case 9 -> loadBlocklist(router);
+                case 10 -> manageBans(firewall);
+                case 11 -> manageShadow(firewall);
+                case 12 -> managePayloadRules(firewall);
+                case 13 -> manageQos(router);
+                case 14 -> {
+                    if (watcher != null) watcher.close();
+                    if (firewall.cluster != null) {
+                        System.out.println(firewall.cluster.stats());
+                        firewall.cluster.close();
+                    }
+                    if (firewall.shadow != null) {
+                        System.out.print(firewall.shadow.report(10));
+                        firewall.shadow.close();
+                    }
+                    firewall.closeLog();
+                    System.out.println(firewall.coalescer.report());
                     System.out.println("\n📁 Logs saved in 'firewall_log1.txt'");
                     System.out.println("🚪 Exiting... Goodbye!");
                     running = false;
@@ -191,6 +500,35 @@ public class Advance_SimulatedNetworkFirewall {
         }
     }
 
+    static void joinCluster(Firewall firewall, int id, int port, List<String> peers) {
+        try {
+            firewall.cluster = new ClusterNode(firewall, id, port, peers, 100);
+            System.out.println("🌐 Cluster node " + id + " listening on port " + port + ", peers: "
+                    + (peers.isEmpty() ? "none" : String.join(", ", peers)));
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Cluster error: " + e.getMessage());
+        }
+    }
+
+    // Runs a command script without prompts, then closes the log
+    static boolean runScript(Router router, String path) {
+        CommandScript script = new CommandScript(router, path);
+        long start = System.nanoTime();
+        boolean ok;
+        try (BufferedReader in = path.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            ok = script.run(in);
+        } catch (IOException e) {
+            System.out.println("Script error: " + e.getMessage());
+            ok = false;
+        }
+        router.firewall.closeLog();
+        System.out.printf("📜 %d commands from '%s' in %.1f ms%s%n", script.commands, path,
+                (System.nanoTime() - start) / 1e6, ok ? "" : " (stopped)");
+        return ok;
+    }
+
     static void addRule(Firewall firewall) {
         System.out.print("Enter protocol (e.g. HTTP, FTP, SSH): ");
         String proto = sc.nextLine();
@@ -222,8 +560,328 @@ public class Advance_SimulatedNetworkFirewall {
         System.out.print("Enter port number: ");
         int port = sc.nextInt();
         sc.nextLine();
+        System.out.print("Enter payload (optional, |hex| allowed, blank for none): ");
+        String payload = sc.nextLine();
 
         Packet packet = new Packet(src, dest, proto, port);
+        if (!payload.isEmpty()) {
+            try {
+                packet.payload = ByteBuffer.wrap(SignatureMatcher.content(payload));
+            } catch (IllegalArgumentException e) {
+                System.out.println("⚠️ " + e.getMessage());
+                return;
+            }
+        }
         router.forwardPacket(packet);
     }
+
+    static void replayCapture(Router router) {
+        Firewall firewall = router.firewall;
+        System.out.print("Enter capture file path: ");
+        String path = sc.nextLine().trim();
+        System.out.println("Pipeline: 1 = inline, 2 = source-IP shards, 3 = staged (parse → filter → route → log), 4 = bounded ingest queue, 5 = zero-allocation");
+        System.out.print("Choose pipeline: ");
+        int mode = sc.nextInt();
+        int workers = 1, shardCount = 0, queueSize = 0;
+        StagedPipeline.WaitStrategy wait = StagedPipeline.WaitStrategy.YIELD;
+        IngestQueue.Policy policy = IngestQueue.Policy.DROP;
+        if (mode == 4) {
+            System.out.print("Overload policy (1 = drop, fail closed, 2 = bypass, fail open, 3 = keep established flows): ");
+            int p = sc.nextInt();
+            policy = IngestQueue.Policy.values()[Math.max(1, Math.min(3, p)) - 1];
+            System.out.print("Queue capacity: ");
+            queueSize = Math.max(1, sc.nextInt());
+        } else if (mode == 3) {
+            System.out.print("Wait strategy (1 = busy spin, 2 = yield, 3 = sleep): ");
+            int w = sc.nextInt();
+            wait = StagedPipeline.WaitStrategy.values()[Math.max(1, Math.min(3, w)) - 1];
+        } else if (mode != 5) {
+            System.out.print("Parallel reader workers (1 = sequential): ");
+            workers = Math.max(1, sc.nextInt());
+            if (mode == 2) {
+                System.out.print("Number of shards: ");
+                shardCount = Math.max(1, sc.nextInt());
+            }
+        }
+        sc.nextLine();
+
+        LongAdder allowed = new LongAdder(), blocked = new LongAdder();
+        ShardedPipeline sharded = mode == 2 ? new ShardedPipeline(firewall, shardCount, workers, 4096) : null;
+        StagedPipeline staged = mode == 3 ? new StagedPipeline(router, 8192, 512, wait) : null;
+        IngestQueue ingest = mode == 4 ? new IngestQueue(router, policy, queueSize) : null;
+        ZeroAllocPipeline zeroAlloc = mode == 5 ? new ZeroAllocPipeline(router) : null;
+        AtomicInteger producerIds = new AtomicInteger();
+        ThreadLocal<Integer> producer = ThreadLocal.withInitial(producerIds::getAndIncrement);
+        long start = System.nanoTime();
+        try (PcapReader reader = new PcapReader(Paths.get(path))) {
+            if (zeroAlloc != null) reader.replayFrames(zeroAlloc::process);
+            else reader.replay(packet -> {
+                if (sharded != null) {
+                    sharded.submit(producer.get(), packet);
+                    return;
+                }
+                if (staged != null) {
+                    staged.publish(packet);
+                    return;
+                }
+                if (ingest != null) {
+                    ingest.submit(packet);
+                    return;
+                }
+                boolean ok;
+                synchronized (firewall) {
+                    ok = firewall.isAllowed(packet);
+                }
+                (ok ? allowed : blocked).increment();
+            }, workers);
+            if (sharded != null) sharded.drain();
+            if (staged != null) staged.drain();
+            if (ingest != null) ingest.drain();
+            if (zeroAlloc != null) zeroAlloc.flush();
+            double secs = (System.nanoTime() - start) / 1e9;
+            System.out.println("\n📼 Replayed " + (reader.isPcapng() ? "pcapng" : "pcap") + " capture: " + path);
+            System.out.println("   Frames:    " + reader.stats.frames.sum()
+                    + " (" + reader.stats.skipped.sum() + " not IPv4 TCP/UDP/ICMP)");
+            if (sharded != null) {
+                printPipelineStats(sharded.stats());
+            } else if (staged != null) {
+                long valid = staged.processed() - staged.invalid();
+                System.out.println("   Allowed:   " + staged.allowed());
+                System.out.println("   Blocked:   " + (valid - staged.allowed()));
+                System.out.print(staged.metrics());
+            } else if (ingest != null) {
+                System.out.print(ingest.stats());
+            } else if (zeroAlloc != null) {
+                System.out.print(zeroAlloc.stats());
+            } else {
+                System.out.println("   Allowed:   " + allowed.sum());
+                System.out.println("   Blocked:   " + blocked.sum());
+            }
+            if (reader.stats.truncated.sum() > 0) System.out.println("   ⚠️ Capture ends with a truncated record");
+            System.out.println("   " + router.firewall.coalescer.report());
+            if (firewall.shadow != null) System.out.println("   " + firewall.shadow.summary());
+            if (firewall.cluster != null) System.out.println("   " + firewall.cluster.stats());
+            System.out.printf("   Took %.2fs (%.0f packets/s)%n", secs, reader.stats.frames.sum() / Math.max(secs, 1e-9));
+        } catch (IOException e) {
+            System.out.println("Replay error: " + e.getMessage());
+        } finally {
+            if (sharded != null) sharded.close();
+            if (staged != null) staged.close();
+            if (ingest != null) ingest.close();
+            if (zeroAlloc != null) zeroAlloc.close();
+        }
+    }
+
+    static void printPipelineStats(ShardedPipeline.Stats stats) {
+        System.out.println("   Allowed:   " + stats.allowed);
+        System.out.println("   Blocked:   " + stats.blocked);
+        System.out.println("   Flows:     ~" + stats.flows + " | Alerts: " + stats.alerts + " | Dropped by bans: " + stats.banned);
+        System.out.println("   Per shard: " + Arrays.toString(stats.perShard));
+        for (BanList.Entry e : stats.topBans(5))
+            System.out.println("   🚫 " + e.source + " banned (" + e.reason + "), " + e.dropped.get() + " packets dropped since");
+    }
+
+    static void loadBlocklist(Router router) {
+        System.out.print("Enter blocklist file (IPs, CIDRs or ranges, one per line): ");
+        String path = sc.nextLine().trim();
+        long start = System.nanoTime();
+        try {
+            IpBlocklist list = IpBlocklist.load(Paths.get(path));
+            router.blocklist = list;
+            System.out.printf("⛔ Blocklist loaded in %.1f ms: %d ranges covering %d addresses, %d IPv6 prefixes, %.1f MB%n",
+                    (System.nanoTime() - start) / 1e6, list.intervals(), list.addresses(), list.prefixes6(),
+                    list.memoryBytes() / (1024.0 * 1024.0));
+        } catch (IOException e) {
+            System.out.println("Blocklist error: " + e.getMessage());
+        }
+    }
+
+    static void manageBans(Firewall firewall) {
+        firewall.bans.sweep();
+        List<BanList.Entry> entries = firewall.bans.entries();
+        if (entries.isEmpty()) {
+            System.out.println("✅ No banned sources.");
+            return;
+        }
+        long now = System.currentTimeMillis();
+        System.out.println("\n🚫 Banned Sources (" + entries.size() + "/" + firewall.bans.capacity() + "):");
+        for (BanList.Entry e : entries)
+            System.out.println("   ➤ " + e.source + " | " + e.reason + " | expires in "
+                    + e.remainingMillis(now) / 1000 + "s | " + e.dropped.get() + " packets dropped");
+        System.out.print("Enter IP to unban (blank to go back): ");
+        String ip = sc.nextLine().trim();
+        if (ip.isEmpty()) return;
+        if (firewall.unban(ip)) System.out.println("✅ " + ip + " unbanned"
+                + (firewall.cluster != null && IPv4.parse(ip) == IPv4.INVALID ? " on this node only." : "."));
+        else System.out.println("⚠️ " + ip + " is not banned.");
+    }
+
+    // Starts a shadow run of a candidate rules file, or reports on and stops the current one
+    static void manageShadow(Firewall firewall) {
+        ShadowEvaluator current = firewall.shadow;
+        if (current != null) {
+            System.out.print(current.report(10));
+            System.out.print("1 = keep running, 2 = stop, 3 = stop and install the candidate as live rules: ");
+            int choice = sc.nextInt();
+            sc.nextLine();
+            if (choice == 1) return;
+            firewall.shadow = null;
+            current.close();
+            System.out.println("🛑 Shadow evaluation of '" + current.name() + "' stopped");
+            if (choice == 3) loadRules(firewall, Paths.get(current.name()));
+            return;
+        }
+        System.out.print("Enter candidate rules file (text or snapshot): ");
+        String path = sc.nextLine().trim();
+        try {
+            RuleIndex candidate = RuleText.load(Paths.get(path));
+            firewall.shadow = new ShadowEvaluator(candidate, path, 65_536, 20_000);
+            System.out.println("🕵️ Shadow-evaluating " + candidate.size() + " rules from '" + path
+                    + "' against live traffic (live verdicts are unchanged)");
+        } catch (IOException e) {
+            System.out.println("Load error: " + e.getMessage());
+        }
+    }
+
+    static void manageQos(Router router) {
+        System.out.print("\n🚦 Egress queues (weights: interactive " + EgressScheduler.WEIGHTS[0] + ", web "
+                + EgressScheduler.WEIGHTS[1] + ", bulk " + EgressScheduler.WEIGHTS[2] + "):\n"
+                + router.egressReport(System.nanoTime()));
+        System.out.print("1 = simulate congestion, 2 = back: ");
+        int choice = sc.nextInt();
+        sc.nextLine();
+        if (choice != 1) return;
+        System.out.print("Attack (" + String.join(", ", QosSimulation.ATTACKS) + "): ");
+        String attack = sc.nextLine().trim().toLowerCase();
+        if (!Arrays.asList(QosSimulation.ATTACKS).contains(attack)) {
+            System.out.println("⚠️ Unknown attack '" + attack + "'");
+            return;
+        }
+        System.out.print("Simulated seconds per phase (e.g. 4): ");
+        double seconds = sc.nextDouble();
+        sc.nextLine();
+        if (seconds <= 0 || seconds > 60) {
+            System.out.println("⚠️ Seconds must be between 0 and 60");
+            return;
+        }
+        try {
+            QosSimulation.run(router.firewall, router.blocklist, attack, seconds);
+        } catch (IOException e) {
+            System.out.println("Simulation error: " + e.getMessage());
+        }
+    }
+
+    static void managePayloadRules(Firewall firewall) {
+        PayloadRules dpi = firewall.payloadRules();
+        SignatureMatcher signatures = dpi.signatures();
+        System.out.printf("%n🧬 %d signatures (%d automaton states, %d byte classes, %.1f KB of tables)%n",
+                signatures.size(), signatures.states(), signatures.classes(), signatures.tableBytes() / 1024.0);
+        if (dpi.size() == 0) System.out.println("   No payload rules: payloads are not inspected");
+        for (int i = 0; i < dpi.size(); i++) {
+            System.out.printf("   %d. %s  (%d hits)%n", i + 1, dpi.describe(i), dpi.hits(i));
+        }
+        System.out.print("1 = add payload rule, 2 = remove payload rule, 3 = load signatures file, 4 = list signatures, 5 = back: ");
+        int choice = sc.nextInt();
+        sc.nextLine();
+        try {
+            switch (choice) {
+                case 1 -> {
+                    System.out.print("Enter ACTION PROTOCOL|ANY PORT|ANY SIGNATURE|ANY (e.g. BLOCK HTTP 8080 sql-union): ");
+                    String[] parts = sc.nextLine().trim().split("\\s+");
+                    if (parts.length != 4) throw new IllegalArgumentException("expected four fields");
+                    firewall.installPayloadRules(dpi.add(parts[0], parts[1], parts[2], parts[3]));
+                    System.out.println("✅ Payload rule added: " + firewall.payloadRules().describe(dpi.size()));
+                }
+                case 2 -> {
+                    System.out.print("Enter payload rule number: ");
+                    int n = sc.nextInt();
+                    sc.nextLine();
+                    firewall.installPayloadRules(dpi.remove(n - 1));
+                    System.out.println("🗑️ Payload rule " + n + " removed.");
+                }
+                case 3 -> {
+                    System.out.print("Enter signatures file (name: content per line): ");
+                    Path path = Paths.get(sc.nextLine().trim());
+                    long start = System.nanoTime();
+                    SignatureMatcher loaded = SignatureMatcher.load(path);
+                    firewall.installPayloadRules(dpi.withSignatures(loaded));
+                    System.out.printf("📂 Compiled %d signatures from '%s' into %d states in %.1f ms%n",
+                            loaded.size(), path, loaded.states(), (System.nanoTime() - start) / 1e6);
+                }
+                case 4 -> {
+                    for (int i = 0; i < signatures.size(); i++) System.out.println("   " + signatures.name(i));
+                }
+                default -> {
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("⚠️ " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("Load error: " + e.getMessage());
+        }
+    }
+
+    static void saveRules(Firewall firewall) {
+        System.out.print("Save as (1 = text " + RULES_FILE + ", 2 = compiled snapshot " + SNAPSHOT_FILE + "): ");
+        int format = sc.nextInt();
+        sc.nextLine();
+        String name = format == 2 ? SNAPSHOT_FILE : RULES_FILE;
+        long start = System.nanoTime();
+        try {
+            if (format == 2) firewall.rules().save(Paths.get(name));
+            else RuleText.write(firewall.rules(), Paths.get(name));
+            System.out.printf("💾 Saved %d rules to '%s' in %.1f ms%n",
+                    firewall.rules().size(), name, (System.nanoTime() - start) / 1e6);
+        } catch (IOException e) {
+            System.out.println("Save error: " + e.getMessage());
+        }
+    }
+
+    static void loadRules(Firewall firewall) {
+        System.out.print("Enter rules file (text or snapshot): ");
+        loadRules(firewall, Paths.get(sc.nextLine().trim()));
+    }
+
+    static void loadRules(Firewall firewall, Path path) {
+        long start = System.nanoTime();
+        try {
+            if (ChainPolicy.isChainFile(path)) {
+                ChainPolicy policy = ChainPolicy.load(path);
+                firewall.installChains(policy);
+                System.out.printf("⛓️ Loaded %d chains with %d rules from '%s', compiled to %d plan entries in %.1f ms%n",
+                        policy.chains(), policy.rules(), path, policy.planEntries(), (System.nanoTime() - start) / 1e6);
+                return;
+            }
+            RuleIndex loaded = RuleText.load(path);
+            firewall.install(loaded);
+            firewall.installChains(null);
+            System.out.printf("📂 Loaded %d rules from '%s' in %.1f ms%n",
+                    loaded.size(), path, (System.nanoTime() - start) / 1e6);
+            watchRules(firewall, path);
+        } catch (IOException e) {
+            System.out.println("Load error: " + e.getMessage());
+        }
+    }
+
+    // Keeps the running firewall in sync with the last loaded rules file
+    static void watchRules(Firewall firewall, Path path) {
+        if (watcher != null) watcher.close();
+        try {
+            watcher = new RuleFileWatcher(path, firewall::install, new RuleFileWatcher.Listener() {
+                public void reloaded(Path file, RuleIndex rules, long nanos) {
+                    System.out.printf("%n🔄 Reloaded %d rules from '%s' in %.1f ms%n",
+                            rules.size(), file.getFileName(), nanos / 1e6);
+                }
+
+                public void rejected(Path file, String reason) {
+                    System.out.println("\n⚠️ Rejected change to '" + file.getFileName() + "': " + reason
+                            + " (keeping " + firewall.rules().size() + " rules)");
+                }
+            });
+            System.out.println("👀 Watching '" + path + "' for changes");
+        } catch (IOException e) {
+            watcher = null;
+            System.out.println("Cannot watch " + path + ": " + e.getMessage());
+        }
+    }
 }
@@ -0,0 +1,132 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Fast-path deny set for sources that tripped threat detection. It is checked
+// before rule evaluation. Each entry carries its own expiry. Expired entries are
+// dropped lazily when looked up and in bulk by sweep(). The set is capped; when
+// it is full the entry closest to expiry makes room. Lookups read the concurrent
+// map without locking; changes take the lock and keep an expiry-ordered index next
+// to it, so sweeping and eviction only touch entries at its head: O(log n) each.
+final class BanList {
+    static final class Entry {
+        final String source;
+        final String reason;
+        final long bannedAt;
+        final long expiresAt;
+        final AtomicLong dropped = new AtomicLong();
+
+        Entry(String source, String reason, long bannedAt, long expiresAt) {
+            this.source = source;
+            this.reason = reason;
+            this.bannedAt = bannedAt;
+            this.expiresAt = expiresAt;
+        }
+
+        long remainingMillis(long now) {
+            return Math.max(0, expiresAt - now);
+        }
+    }
+
+    private final Map<String, Entry> bans = new ConcurrentHashMap<>();
+    // The same entries, soonest to expire first; guarded by this
+    private final TreeSet<Entry> byExpiry = new TreeSet<>(
+            Comparator.comparingLong((Entry e) -> e.expiresAt).thenComparing(e -> e.source));
+    private final int maxEntries;
+    private volatile long defaultTtlMillis;
+
+    BanList(int maxEntries, long defaultTtlMillis) {
+        this.maxEntries = maxEntries;
+        this.defaultTtlMillis = defaultTtlMillis;
+    }
+
+    // Hot path: one hash lookup, nothing at all while the set is empty
+    boolean isBanned(String source) {
+        if (bans.isEmpty()) return false;
+        Entry e = bans.get(source);
+        if (e == null) return false;
+        if (e.expiresAt <= System.currentTimeMillis()) {
+            remove(e);
+            return false;
+        }
+        e.dropped.incrementAndGet();
+        return true;
+    }
+
+    Entry ban(String source, String reason) {
+        return ban(source, reason, defaultTtlMillis);
+    }
+
+    // The size check and the insert happen under one lock, so concurrent bans cannot overshoot the cap
+    synchronized Entry ban(String source, String reason, long ttlMillis) {
+        long now = System.currentTimeMillis();
+        Entry old = bans.get(source);
+        if (old != null) {
+            byExpiry.remove(old);
+        } else if (bans.size() >= maxEntries) {
+            sweep();
+            if (bans.size() >= maxEntries) {
+                Entry soonest = byExpiry.pollFirst();
+                bans.remove(soonest.source, soonest);
+            }
+        }
+        Entry e = new Entry(source, reason, now, now + ttlMillis);
+        bans.put(source, e);
+        byExpiry.add(e);
+        return e;
+    }
+
+    synchronized boolean unban(String source) {
+        Entry e = bans.remove(source);
+        if (e == null) return false;
+        byExpiry.remove(e);
+        return true;
+    }
+
+    synchronized void clear() {
+        bans.clear();
+        byExpiry.clear();
+    }
+
+    // Drops every expired entry; returns how many went
+    synchronized int sweep() {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        while (!byExpiry.isEmpty() && byExpiry.first().expiresAt <= now) {
+            Entry e = byExpiry.pollFirst();
+            bans.remove(e.source, e);
+            removed++;
+        }
+        return removed;
+    }
+
+    private synchronized void remove(Entry e) {
+        if (bans.remove(e.source, e)) byExpiry.remove(e);
+    }
+
+    int size() {
+        return bans.size();
+    }
+
+    int capacity() {
+        return maxEntries;
+    }
+
+    long defaultTtlMillis() {
+        return defaultTtlMillis;
+    }
+
+    void setDefaultTtlMillis(long ttlMillis) {
+        defaultTtlMillis = ttlMillis;
+    }
+
+    // Live entries, soonest to expire first
+    synchronized List<Entry> entries() {
+        long now = System.currentTimeMillis();
+        List<Entry> list = new ArrayList<>();
+        for (Entry e : byExpiry) {
+            if (e.expiresAt > now) list.add(e);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,289 @@
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+// Micro-benchmarks for the lookup structures on the packet path: java Benchmarks
+public class Benchmarks {
+    static volatile long sink;
+
+    public static void main(String[] args) {
+        System.out.println("========== LOOKUP BENCHMARKS ==========");
+        benchBlocklist(1_000_000);
+        benchIPv6Parse(1 << 16);
+        benchIPv6Trie(100_000);
+        benchRuleIndex(100_000);
+        benchSignatures(new int[]{10, 100, 1_000, 5_000}, 16 << 20);
+        benchChains(200, 40);
+    }
+
+    static void benchBlocklist(int entries) {
+        Random rand = new Random(42);
+        IpBlocklist.Builder builder = new IpBlocklist.Builder();
+        for (int i = 0; i < entries; i++) {
+            long ip = rand.nextInt() & 0xffffffffL;
+            int bits = 24 + rand.nextInt(9);
+            long size = 1L << (32 - bits);
+            long start = ip & ~(size - 1);
+            builder.add(start, start + size - 1);
+        }
+        long t0 = System.nanoTime();
+        IpBlocklist list = builder.build();
+        double buildMs = (System.nanoTime() - t0) / 1e6;
+
+        int[] probes = new int[1 << 20];
+        for (int i = 0; i < probes.length; i++) probes[i] = rand.nextInt();
+        double ns = 0;
+        long hits = 0;
+        for (int round = 0; round < 10; round++) {
+            hits = 0;
+            long start = System.nanoTime();
+            for (int ip : probes) if (list.contains(ip)) hits++;
+            ns = (System.nanoTime() - start) / (double) probes.length;
+        }
+        sink = hits;
+        System.out.printf("IPv4 blocklist: %d entries -> %d ranges, %.1f MB, built in %.0f ms%n",
+                entries, list.intervals(), list.memoryBytes() / (1024.0 * 1024.0), buildMs);
+        System.out.printf("   contains(int):    %.1f ns/lookup (%.2f%% hits)%n", ns, hits * 100.0 / probes.length);
+    }
+
+    // Text forms as they appear in logs and feeds; the allocation counter of this thread
+    // must not move while they are parsed
+    static void benchIPv6Parse(int count) {
+        String[][] vectors = {
+                {"2001:db8::1", "2001:db8::1"}, {"::", "::"}, {"::1", "::1"}, {"fe80::", "fe80::"},
+                {"2001:DB8:0:0:8:800:200C:417A", "2001:db8::8:800:200c:417a"}, {"2001:db8:0:1:1:1:1:1", "2001:db8:0:1:1:1:1:1"},
+                {"1:0:0:2:0:0:0:3", "1:0:0:2::3"}, {"1:2:3:4:5:6:7::", "1:2:3:4:5:6:7:0"}, {"::ffff:192.0.2.1", "::ffff:192.0.2.1"},
+                {"64:ff9b::10.0.0.1", "64:ff9b::a00:1"}, {"1::2:3:4:5:6:7", "1:0:2:3:4:5:6:7"}
+        };
+        String[] invalid = {"", ":", ":::", "1:::2", "1::2::3", "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:7", "12345::", "::g",
+                "1:", ":1", "1:2:3:4:5:6:7:1.2.3.4", "::1.2.3", "::256.0.0.1", "1.2.3.4", "2001:db8::/32"};
+        long[] a = new long[2];
+        int bad = 0;
+        for (String[] v : vectors) if (!IPv6.parse(v[0], a) || !IPv6.format(a[0], a[1]).equals(v[1])) bad++;
+        for (String v : invalid) if (IPv6.isValid(v)) bad++;
+
+        Random rand = new Random(6);
+        String[] texts = new String[count];
+        for (int i = 0; i < count; i++) {
+            long hi = 0x20010db8L << 32 | rand.nextInt(1 << 16) << 16, lo = rand.nextInt(4) == 0 ? rand.nextInt(256) : rand.nextLong();
+            texts[i] = IPv6.format(hi, lo);
+            if (!IPv6.parse(texts[i], a) || a[0] != hi || a[1] != lo) bad++;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        double ns = 0;
+        long bytes = 0, sum = 0;
+        for (int round = 0; round < 10; round++) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            for (String t : texts) if (IPv6.parse(t, a)) sum += a[1];
+            ns = (System.nanoTime() - start) / (double) count;
+            bytes = threads.getThreadAllocatedBytes(thread) - before;
+        }
+        sink = sum;
+        System.out.printf("IPv6 parse: %d vectors, %d round trips%s%n   parse(text):      %.1f ns/address, %d bytes allocated per %d%n",
+                vectors.length + invalid.length, count, bad == 0 ? "  ✅" : "  ❌ " + bad + " wrong", ns, bytes, count);
+    }
+
+    // A routing-table-like prefix set: /32 allocations with /36../48 more-specifics under
+    // them; a sample of lookups is checked against a linear scan for the longest prefix
+    static void benchIPv6Trie(int prefixes) {
+        Random rand = new Random(66);
+        int allocations = prefixes / 25;
+        long[] blocks = new long[allocations];
+        for (int i = 0; i < allocations; i++) blocks[i] = (0x2001L + rand.nextInt(0x0a00)) << 48 | (rand.nextInt() & 0xffffL) << 32;
+        long[] his = new long[prefixes];
+        int[] lengths = new int[prefixes];
+        int[] bits = {32, 36, 40, 44, 48, 48, 48, 48};
+        for (int i = 0; i < prefixes; i++) {
+            int len = i < allocations ? 32 : bits[rand.nextInt(bits.length)];
+            his[i] = (blocks[i % allocations] | rand.nextInt() & 0xffffffffL) & IPv6.maskHi(len);
+            lengths[i] = len;
+        }
+        long t0 = System.nanoTime();
+        IPv6Trie trie = new IPv6Trie();
+        for (int i = 0; i < prefixes; i++) trie.put(his[i], 0, lengths[i], i);
+        double buildMs = (System.nanoTime() - t0) / 1e6;
+
+        int n = 1 << 20;
+        long[] probeHi = new long[n], probeLo = new long[n];
+        for (int i = 0; i < n; i++) {
+            probeHi[i] = i % 2 == 0 ? blocks[rand.nextInt(allocations)] | rand.nextInt() & 0xffffffffL : rand.nextLong();
+            probeLo[i] = rand.nextLong();
+        }
+        int wrong = 0;
+        for (int i = 0; i < 2000; i++) {
+            int best = IPv6Trie.NOT_FOUND, bestLength = -1;
+            for (int p = 0; p < prefixes; p++) {
+                if ((probeHi[i] & IPv6.maskHi(lengths[p])) == his[p] && lengths[p] >= bestLength) {
+                    best = lengths[p] == bestLength ? Math.max(best, p) : p;     // a repeated prefix: the last put wins
+                    bestLength = lengths[p];
+                }
+            }
+            if (trie.lookup(probeHi[i], probeLo[i]) != best) wrong++;
+        }
+        double ns = 0;
+        long hits = 0;
+        for (int round = 0; round < 10; round++) {
+            hits = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) if (trie.lookup(probeHi[i], probeLo[i]) != IPv6Trie.NOT_FOUND) hits++;
+            ns = (System.nanoTime() - start) / (double) n;
+        }
+        sink = hits;
+        System.out.printf("IPv6 prefix trie: %d prefixes (/32../48), %d nodes, %.1f MB, built in %.0f ms%n",
+                prefixes, trie.nodes(), trie.memoryBytes() / (1024.0 * 1024.0), buildMs);
+        System.out.printf("   lookup(hi, lo):   %.1f ns/lookup (%.2f%% hits), 2000 checked against a linear scan%s%n",
+                ns, hits * 100.0 / n, wrong == 0 ? "  ✅" : "  ❌ " + wrong + " wrong");
+    }
+
+    static void benchRuleIndex(int rules) {
+        Random rand = new Random(7);
+        String[] protocols = {"HTTP", "HTTPS", "SSH", "FTP", "DNS", "SMTP", "TCP", "UDP"};
+        RuleIndex.Builder builder = new RuleIndex.Builder();
+        for (int i = 0; i < rules; i++) builder.add(protocols[rand.nextInt(protocols.length)], rand.nextInt(65536), rand.nextBoolean());
+        RuleIndex index = builder.build();
+        int n = 1 << 20;
+        String[] probeProto = new String[n];
+        int[] probePort = new int[n];
+        for (int i = 0; i < n; i++) {
+            probeProto[i] = protocols[rand.nextInt(protocols.length)];
+            probePort[i] = rand.nextInt(65536);
+        }
+        double ns = 0;
+        long hits = 0;
+        for (int round = 0; round < 10; round++) {
+            hits = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) if (index.match(probeProto[i], probePort[i]) >= 0) hits++;
+            ns = (System.nanoTime() - start) / (double) n;
+        }
+        sink = hits;
+        System.out.printf("Rule index: %d rules%n   match(proto, port): %.1f ns/lookup (%.2f%% hits)%n",
+                rules, ns, hits * 100.0 / n);
+    }
+
+    // Scan throughput should not depend on how many signatures are compiled in; a sample
+    // of the largest set is checked against a naive search first
+    static void benchSignatures(int[] counts, int bytes) {
+        Random rand = new Random(11);
+        ByteBuffer payload = ByteBuffer.allocateDirect(bytes);
+        for (int i = 0; i < bytes; i++) payload.put(i, (byte) (i % 61 == 60 ? ' ' : 'a' + rand.nextInt(26)));
+        System.out.printf("Payload signatures: Aho-Corasick over a %d MB direct buffer%n", bytes >> 20);
+        for (int count : counts) {
+            SignatureMatcher.Builder builder = new SignatureMatcher.Builder(false);
+            byte[][] patterns = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                patterns[i] = new byte[6 + rand.nextInt(10)];
+                for (int j = 0; j < patterns[i].length; j++) patterns[i][j] = (byte) ('a' + rand.nextInt(26));
+                if (i % 50 == 0) patterns[i] = new byte[]{(byte) ('a' + rand.nextInt(26)), (byte) ('a' + rand.nextInt(26)), (byte) ('a' + rand.nextInt(26))};
+                builder.add("sig" + i, patterns[i]);
+            }
+            long t0 = System.nanoTime();
+            SignatureMatcher matcher = builder.build();
+            double buildMs = (System.nanoTime() - t0) / 1e6;
+            if (count == counts[counts.length - 1]) checkSignatures(matcher, patterns, payload);
+
+            long[] hits = new long[1];
+            double mbps = 0;
+            for (int round = 0; round < 5; round++) {
+                hits[0] = 0;
+                long start = System.nanoTime();
+                matcher.forEachMatch(payload, 0, bytes, (id, end) -> hits[0]++);
+                mbps = bytes / 1e6 / ((System.nanoTime() - start) / 1e9);
+            }
+            sink = hits[0];
+            System.out.printf("   %5d signatures: %6d states x %2d classes (%.1f MB), built in %4.0f ms | %6.0f MB/s, %d matches%n",
+                    count, matcher.states(), matcher.classes(), matcher.tableBytes() / (1024.0 * 1024.0), buildMs, mbps, hits[0]);
+        }
+    }
+
+    // Random chain sets, jumps only to later chains so they cannot loop, compiled and then
+    // checked packet by packet against the rule-by-rule interpreter. Each of the diamond
+    // chains jumps to the next one twice, so 2^depth paths reach the last: compiling has
+    // to walk each chain once per case to finish at all.
+    static void benchChains(int policies, int depth) {
+        Random rand = new Random(45);
+        String[] names = {"SSH", "HTTP", "HTTPS", "DNS", "FTP", "SMB"};
+        int[] ports = {22, 53, 80, 443, 445, 8080, 9999};
+        long checked = 0, mismatches = 0;
+        double compileMs = 0;
+        for (int n = 0; n < policies; n++) {
+            StringBuilder text = new StringBuilder();
+            for (String chain : ChainPolicy.BUILT_IN) text.append(':').append(chain).append(rand.nextBoolean() ? " ALLOW\n" : " BLOCK\n");
+            int userChains = 1 + rand.nextInt(6);
+            for (int c = 0; c < userChains; c++) text.append(":C").append(c).append(" -\n");
+            for (int c = -3; c < userChains; c++) {
+                String chain = c < 0 ? ChainPolicy.BUILT_IN[c + 3] : "C" + c;
+                for (int r = rand.nextInt(8); r > 0; r--) {
+                    text.append("-A ").append(chain);
+                    if (rand.nextInt(3) > 0) text.append(" -p ").append(names[rand.nextInt(names.length)]);
+                    if (rand.nextInt(3) > 0) text.append(" --dport ").append(ports[rand.nextInt(ports.length)]);
+                    int pick = rand.nextInt(4), later = Math.max(c + 1, 0);
+                    String target = pick == 0 ? "ALLOW" : pick == 1 ? "BLOCK" : pick == 2 && c >= 0 ? "RETURN"
+                            : later < userChains ? "C" + (later + rand.nextInt(userChains - later)) : "BLOCK";
+                    text.append(" -j ").append(target).append('\n');
+                }
+            }
+            ChainPolicy policy;
+            try {
+                long t0 = System.nanoTime();
+                policy = ChainPolicy.read(new java.io.BufferedReader(new java.io.StringReader(text.toString())), "random-" + n);
+                compileMs += (System.nanoTime() - t0) / 1e6;
+            } catch (java.io.IOException e) {
+                throw new IllegalStateException(e);
+            }
+            for (int i = 0; i < 500; i++) {
+                int d = rand.nextInt(3);
+                String protocol = rand.nextInt(8) == 0 ? "GRE" : names[rand.nextInt(names.length)];
+                if (rand.nextBoolean()) protocol = protocol.toLowerCase();
+                int port = rand.nextInt(4) == 0 ? rand.nextInt(65536) : ports[rand.nextInt(ports.length)];
+                checked++;
+                if (policy.allows(d, protocol, port) != policy.interpret(d, protocol, port)) mismatches++;
+            }
+        }
+        System.out.printf("Chain policies: %d random policies compiled in %.2f ms on average%n", policies, compileMs / policies);
+        System.out.printf("   check against rule-by-rule interpretation: %d packets, %d mismatches%s%n",
+                checked, mismatches, mismatches == 0 ? "  ✅" : "  ❌ MISMATCH");
+
+        StringBuilder text = new StringBuilder(":INPUT BLOCK\n-A INPUT -j D0\n");
+        for (int c = 0; c <= depth; c++) text.append(":D").append(c).append(" -\n");
+        for (int c = 0; c < depth; c++) {
+            text.append("-A D").append(c).append(" -p HTTP --dport ").append(8000 + c).append(" -j ALLOW\n");
+            text.append("-A D").append(c).append(" -p SSH -j D").append(c + 1).append('\n');
+            text.append("-A D").append(c).append(" -j D").append(c + 1).append('\n');
+        }
+        text.append("-A D").append(depth).append(" --dport 22 -j ALLOW\n");
+        try {
+            long t0 = System.nanoTime();
+            ChainPolicy policy = ChainPolicy.read(new java.io.BufferedReader(new java.io.StringReader(text.toString())), "diamonds");
+            System.out.printf("   %d nested diamonds (2^%d paths to the last chain): compiled in %.1f ms to %d plan entries%n",
+                    depth, depth, (System.nanoTime() - t0) / 1e6, policy.planEntries());
+        } catch (java.io.IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Every occurrence the automaton reports in the first 256 KB must be one a naive search finds, and the counts must agree
+    private static void checkSignatures(SignatureMatcher matcher, byte[][] patterns, ByteBuffer payload) {
+        int n = 256 * 1024;
+        long[] found = new long[1];
+        boolean[] bad = new boolean[1];
+        matcher.forEachMatch(payload, 0, n, (id, end) -> {
+            found[0]++;
+            byte[] p = patterns[id];
+            for (int j = 0; j < p.length; j++) if (payload.get(end - p.length + j) != p[j]) bad[0] = true;
+        });
+        long expected = 0;
+        java.util.Set<String> distinct = new java.util.HashSet<>();   // identical contents are reported once
+        for (byte[] p : patterns) {
+            if (!distinct.add(new String(p, java.nio.charset.StandardCharsets.ISO_8859_1))) continue;
+            for (int i = 0; i + p.length <= n; i++) {
+                int j = 0;
+                while (j < p.length && payload.get(i + j) == p[j]) j++;
+                if (j == p.length) expected++;
+            }
+        }
+        System.out.printf("   check against naive search over %d KB: %d matches, %d expected%s%n",
+                n / 1024, found[0], expected, bad[0] || found[0] != expected ? "  ❌ MISMATCH" : "  ✅");
+    }
+}
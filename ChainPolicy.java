@@ -0,0 +1,479 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+// Structured policy in iptables-save form: built-in INPUT, FORWARD and OUTPUT chains
+// with default policies, user-defined chains, jumps and RETURN. First match wins
+// within a chain; a chain that runs out of rules (or hits RETURN) hands control back
+// to the rule after the jump, and a built-in chain that runs out applies its policy.
+//
+//   :INPUT BLOCK               built-in chain and its policy (undeclared ones ALLOW)
+//   :WEB -                     user-defined chain
+//   -A INPUT -p SSH --dport 22 -j ALLOW
+//   -A INPUT -p HTTP -j WEB    no --dport matches every port, no -p every protocol
+//   -A WEB --dport 8080 -j BLOCK
+//   -A WEB -j RETURN
+//
+// The chains are not walked per packet. Loading compiles each built-in chain, jumps
+// inlined, into flat hash tables: the verdict for every (protocol, port) any rule
+// names, one verdict per named protocol for its other ports, and one for everything
+// else. A packet costs one protocol lookup and one probe whatever the nesting.
+//
+// Direction comes from the addresses, as the simulator has no interfaces: INPUT is
+// traffic from outside into the private ranges (10/8, 172.16/12, 192.168/16),
+// OUTPUT the reverse, FORWARD everything else.
+final class ChainPolicy {
+    static final int INPUT = 0, FORWARD = 1, OUTPUT = 2;
+    static final String[] BUILT_IN = {"INPUT", "FORWARD", "OUTPUT"};
+
+    private static final int ANY = -1, OTHER = -2;                // in rules / in compiled queries
+    private static final int T_ALLOW = -1, T_BLOCK = -2, T_RETURN = -3;
+    private static final int CONTINUE = -1, BLOCKED = 0, ALLOWED = 1;
+
+    private static final class Rule {
+        final int protocol, port, target;   // protocol id or ANY, port or ANY, chain index or T_*
+        final int line;
+
+        Rule(int protocol, int port, int target, int line) {
+            this.protocol = protocol;
+            this.port = port;
+            this.target = target;
+            this.line = line;
+        }
+    }
+
+    private static final class Chain {
+        final String name;
+        Boolean policy;                      // null for user-defined chains
+        final List<Rule> rules = new ArrayList<>();
+        final Map<Long, int[]> byKey = new HashMap<>();   // (protocol, port) incl. ANY -> rule positions
+
+        Chain(String name, Boolean policy) {
+            this.name = name;
+            this.policy = policy;
+        }
+    }
+
+    // Open addressing from a non-negative int key to a verdict
+    private static final class Table {
+        final int[] keys;                    // key + 1, 0 = empty
+        final boolean[] allow;
+        final int mask;
+        int size;
+
+        Table(int entries) {
+            int n = Integer.highestOneBit(Math.max(4, entries * 2 - 1)) << 1;
+            keys = new int[n];
+            allow = new boolean[n];
+            mask = n - 1;
+        }
+
+        void put(int key, boolean verdict) {
+            int i = hash(key + 1) & mask;
+            while (keys[i] != 0) i = (i + 1) & mask;
+            keys[i] = key + 1;
+            allow[i] = verdict;
+            size++;
+        }
+
+        // ALLOWED, BLOCKED or CONTINUE if absent
+        int get(int key) {
+            for (int i = hash(key + 1) & mask; ; i = (i + 1) & mask) {
+                int k = keys[i];
+                if (k == key + 1) return allow[i] ? ALLOWED : BLOCKED;
+                if (k == 0) return CONTINUE;
+            }
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    private final String name;
+    private final List<Chain> chains;
+    private final List<String> protocols;
+    private final Map<String, Integer> protocolIds;
+    private final int ruleCount;
+
+    // The compiled plan, per direction
+    private Map<Long, Integer> walked = new HashMap<>();         // walk results while compiling
+    private final boolean[] defaults = new boolean[3];
+    private final String[] labels = new String[3];
+    private final boolean[][] byProtocol = new boolean[3][];   // other ports of a named protocol
+    private final Table[] exact = new Table[3];                // protocolId << 16 | port
+    private final Table[] byPort = new Table[3];               // port, for protocols no rule names
+
+    private ChainPolicy(String name, List<Chain> chains, List<String> protocols, int ruleCount) {
+        this.name = name;
+        this.chains = chains;
+        this.protocols = protocols;
+        this.ruleCount = ruleCount;
+        protocolIds = new HashMap<>(protocols.size() * 2);
+        for (int i = 0; i < protocols.size(); i++) protocolIds.put(protocols.get(i), i);
+        for (Chain c : chains) index(c);
+        for (int d = 0; d < BUILT_IN.length; d++) {
+            compile(d);
+            labels[d] = "chain " + BUILT_IN[d] + " of '" + name + "'";
+        }
+        walked = null;
+    }
+
+    static boolean isPrivate(int ip) {
+        return (ip >>> 24) == 10 || (ip >>> 20) == 0xAC1 || (ip >>> 16) == 0xC0A8;
+    }
+
+    // Private IPv4 ranges, or unique local and link-local IPv6; false for anything else
+    static boolean isPrivate(String ip) {
+        long v4 = IPv4.parse(ip);
+        if (v4 != IPv4.INVALID) return isPrivate((int) v4);
+        long[] a = IPv6.scratch();
+        return IPv6.parse(ip, a) && IPv6.isPrivate(a[0]);
+    }
+
+    static int direction(int source, int dest) {
+        return direction(isPrivate(source), isPrivate(dest));
+    }
+
+    static int direction(boolean from, boolean to) {
+        if (!from && to) return INPUT;
+        if (from && !to) return OUTPUT;
+        return FORWARD;
+    }
+
+    boolean allows(Packet packet) {
+        return allows(direction(packet), packet.protocol, packet.port);
+    }
+
+    static int direction(Packet packet) {
+        return direction(isPrivate(packet.sourceIP), isPrivate(packet.destIP));
+    }
+
+    // Names the built-in chain that decides a packet's direction, e.g. for shadow reports
+    String label(int direction) {
+        return labels[direction];
+    }
+
+    boolean allows(int direction, String protocol, int port) {
+        Integer id = protocolIds.get(protocol);
+        if (id == null) id = protocolIds.get(protocol.toUpperCase());
+        if (id == null) {
+            int v = byPort[direction].get(port);
+            return v == CONTINUE ? defaults[direction] : v == ALLOWED;
+        }
+        int v = exact[direction].get(id << 16 | port);
+        return v == CONTINUE ? byProtocol[direction][id] : v == ALLOWED;
+    }
+
+    String name() {
+        return name;
+    }
+
+    int rules() {
+        return ruleCount;
+    }
+
+    int chains() {
+        return chains.size();
+    }
+
+    // Size of the compiled plan across the three directions
+    int planEntries() {
+        int n = 3;
+        for (int d = 0; d < 3; d++) n += byProtocol[d].length + exact[d].size + byPort[d].size;
+        return n;
+    }
+
+    String describe() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("⛓️ Chain policy '%s': %d chains, %d rules, compiled to %d plan entries%n",
+                name, chains.size(), ruleCount, planEntries()));
+        for (Chain c : chains) {
+            sb.append("   ").append(c.name).append(c.policy == null ? "" : c.policy ? " (policy ALLOW)" : " (policy BLOCK)").append('\n');
+            for (Rule r : c.rules) {
+                sb.append("      ➤");
+                if (r.protocol != ANY) sb.append(" -p ").append(protocols.get(r.protocol));
+                if (r.port != ANY) sb.append(" --dport ").append(r.port);
+                sb.append(" -j ").append(switch (r.target) {
+                    case T_ALLOW -> "ALLOW";
+                    case T_BLOCK -> "BLOCK";
+                    case T_RETURN -> "RETURN";
+                    default -> chains.get(r.target).name;
+                }).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static long key(int protocol, int port) {
+        return (long) protocol << 32 | (port & 0xffffffffL);
+    }
+
+    private static void index(Chain c) {
+        Map<Long, List<Integer>> lists = new HashMap<>();
+        for (int i = 0; i < c.rules.size(); i++) {
+            Rule r = c.rules.get(i);
+            lists.computeIfAbsent(key(r.protocol, r.port), k -> new ArrayList<>()).add(i);
+        }
+        lists.forEach((k, v) -> c.byKey.put(k, v.stream().mapToInt(Integer::intValue).toArray()));
+    }
+
+    // Positions of the rules in c that match, in chain order
+    private static int[] matching(Chain c, int protocol, int port) {
+        int[] a = c.byKey.getOrDefault(key(ANY, ANY), new int[0]);
+        int[] b = port == OTHER ? null : c.byKey.get(key(ANY, port));
+        int[] p = protocol == OTHER ? null : c.byKey.get(key(protocol, ANY));
+        int[] e = protocol == OTHER || port == OTHER ? null : c.byKey.get(key(protocol, port));
+        int n = a.length + (b == null ? 0 : b.length) + (p == null ? 0 : p.length) + (e == null ? 0 : e.length);
+        int[] all = Arrays.copyOf(a, n);
+        int at = a.length;
+        for (int[] part : new int[][]{b, p, e}) {
+            if (part == null) continue;
+            System.arraycopy(part, 0, all, at, part.length);
+            at += part.length;
+        }
+        Arrays.sort(all);
+        return all;
+    }
+
+    // Outcome of a chain for one case; remembered, so a sub-chain that many jumps lead
+    // to is walked once per case instead of once per path to it
+    private int walk(int chain, int protocol, int port) {
+        long key = (long) chain << 40 | (long) (protocol - OTHER) << 20 | (port - OTHER);
+        Integer known = walked.get(key);
+        if (known != null) return known;
+        int v = CONTINUE;
+        Chain c = chains.get(chain);
+        for (int i : matching(c, protocol, port)) {
+            int target = c.rules.get(i).target;
+            if (target == T_ALLOW) v = ALLOWED;
+            else if (target == T_BLOCK) v = BLOCKED;
+            else if (target == T_RETURN) break;
+            else v = walk(target, protocol, port);
+            if (v != CONTINUE) break;
+        }
+        walked.put(key, v);
+        return v;
+    }
+
+    // The chains walked rule by rule for one packet, with no compiled plan and no index:
+    // the reference the plan is checked against (java Benchmarks)
+    boolean interpret(int direction, String protocol, int port) {
+        int v = interpret(direction, protocol.toUpperCase(), port, 0);
+        return v == CONTINUE ? chains.get(direction).policy : v == ALLOWED;
+    }
+
+    private int interpret(int chain, String protocol, int port, int depth) {
+        if (depth > chains.size()) throw new IllegalStateException("jump loop");
+        for (Rule r : chains.get(chain).rules) {
+            if (r.protocol != ANY && !protocols.get(r.protocol).equals(protocol)) continue;
+            if (r.port != ANY && r.port != port) continue;
+            if (r.target == T_ALLOW) return ALLOWED;
+            if (r.target == T_BLOCK) return BLOCKED;
+            if (r.target == T_RETURN) return CONTINUE;
+            int v = interpret(r.target, protocol, port, depth + 1);
+            if (v != CONTINUE) return v;
+        }
+        return CONTINUE;
+    }
+
+    private Set<Integer> reachable(int chain) {
+        Set<Integer> seen = new HashSet<>();
+        Deque<Integer> todo = new ArrayDeque<>(List.of(chain));
+        while (!todo.isEmpty()) {
+            int c = todo.pop();
+            if (!seen.add(c)) continue;
+            for (Rule r : chains.get(c).rules) {
+                if (r.target >= 0) todo.push(r.target);
+            }
+        }
+        return seen;
+    }
+
+    private boolean verdict(int direction, int protocol, int port) {
+        int v = walk(direction, protocol, port);
+        return v == CONTINUE ? chains.get(direction).policy : v == ALLOWED;
+    }
+
+    // Evaluates the chain graph once for every distinct case a packet can fall into,
+    // looking only at the ports named in chains this built-in chain can reach
+    private void compile(int d) {
+        Set<Integer> anyProtocolPorts = new TreeSet<>();
+        List<Set<Integer>> ports = new ArrayList<>();
+        for (int i = 0; i < protocols.size(); i++) ports.add(new TreeSet<>());
+        for (int chain : reachable(d)) {
+            for (Rule r : chains.get(chain).rules) {
+                if (r.port == ANY) continue;
+                if (r.protocol == ANY) anyProtocolPorts.add(r.port);
+                else ports.get(r.protocol).add(r.port);
+            }
+        }
+        defaults[d] = verdict(d, OTHER, OTHER);
+        byProtocol[d] = new boolean[protocols.size()];
+        List<int[]> entries = new ArrayList<>();
+        for (int p = 0; p < protocols.size(); p++) {
+            boolean rest = verdict(d, p, OTHER);
+            byProtocol[d][p] = rest;
+            Set<Integer> named = new TreeSet<>(ports.get(p));
+            named.addAll(anyProtocolPorts);
+            for (int port : named) {
+                boolean v = verdict(d, p, port);
+                if (v != rest) entries.add(new int[]{p << 16 | port, v ? 1 : 0});
+            }
+        }
+        exact[d] = new Table(entries.size());
+        for (int[] e : entries) exact[d].put(e[0], e[1] == 1);
+        entries.clear();
+        for (int port : anyProtocolPorts) {
+            boolean v = verdict(d, OTHER, port);
+            if (v != defaults[d]) entries.add(new int[]{port, v ? 1 : 0});
+        }
+        byPort[d] = new Table(entries.size());
+        for (int[] e : entries) byPort[d].put(e[0], e[1] == 1);
+    }
+
+    // Chain files start with a table header, a chain declaration or an append
+    static boolean isChainFile(Path path) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = RuleText.fields(line);
+                if (parts == null) continue;
+                return parts[0].startsWith("*") || parts[0].startsWith(":") || parts[0].equals("-A");
+            }
+        }
+        return false;
+    }
+
+    static ChainPolicy load(Path path) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return read(in, path.getFileName().toString());
+        }
+    }
+
+    static ChainPolicy read(BufferedReader in, String source) throws IOException {
+        List<Chain> chains = new ArrayList<>();
+        Map<String, Integer> chainIds = new HashMap<>();
+        for (String b : BUILT_IN) {
+            chainIds.put(b, chains.size());
+            chains.add(new Chain(b, Boolean.TRUE));
+        }
+        List<String> protocols = new ArrayList<>();
+        Map<String, Integer> protocolIds = new HashMap<>();
+        List<String[]> appends = new ArrayList<>();
+        List<Integer> appendLines = new ArrayList<>();
+        String line;
+        int lineNo = 0;
+        while ((line = in.readLine()) != null) {
+            lineNo++;
+            String[] parts = RuleText.fields(line);
+            if (parts == null || parts[0].startsWith("*") || parts[0].equals("COMMIT")) continue;
+            if (parts[0].startsWith(":")) {
+                String chain = parts[0].substring(1);
+                if (chain.isEmpty() || parts.length > 2) throw error(source, lineNo, "expected ':CHAIN POLICY' or ':CHAIN -'");
+                String policy = parts.length == 2 ? parts[1] : "-";
+                Integer id = chainIds.get(chain);
+                if (id != null && id >= BUILT_IN.length) throw error(source, lineNo, "chain " + chain + " declared twice");
+                if (id != null) {
+                    Boolean allow = RuleText.parseAction(policy);
+                    if (allow == null) throw error(source, lineNo, "built-in chain " + chain + " needs an ALLOW or BLOCK policy");
+                    chains.get(id).policy = allow;
+                } else {
+                    if (!policy.equals("-")) throw error(source, lineNo, "user-defined chain " + chain + " cannot have a policy");
+                    if (RuleText.parseAction(chain) != null || chain.equals("RETURN")) {
+                        throw error(source, lineNo, "chain name " + chain + " is reserved for a target");
+                    }
+                    chainIds.put(chain, chains.size());
+                    chains.add(new Chain(chain, null));
+                }
+            } else if (parts[0].equals("-A")) {
+                appends.add(parts);
+                appendLines.add(lineNo);
+            } else {
+                throw error(source, lineNo, "expected ':CHAIN POLICY' or '-A CHAIN [-p PROTOCOL] [--dport PORT] -j TARGET'");
+            }
+        }
+        int ruleCount = 0;
+        for (int i = 0; i < appends.size(); i++) {
+            String[] parts = appends.get(i);
+            int at = appendLines.get(i);
+            if (parts.length < 2) throw error(source, at, "-A needs a chain");
+            Integer chain = chainIds.get(parts[1]);
+            if (chain == null) throw error(source, at, "unknown chain " + parts[1]);
+            int protocol = ANY, port = ANY;
+            String target = null;
+            for (int j = 2; j < parts.length; j += 2) {
+                if (j + 1 >= parts.length) throw error(source, at, parts[j] + " needs a value");
+                String value = parts[j + 1];
+                switch (parts[j]) {
+                    case "-p" -> {
+                        String name = value.toUpperCase();
+                        if (name.equals("ALL") || name.equals("*")) continue;
+                        Integer id = protocolIds.get(name);
+                        if (id == null) {
+                            if (protocols.size() >= 1 << 15) throw error(source, at, "too many protocols");
+                            id = protocols.size();
+                            protocols.add(name);
+                            protocolIds.put(name, id);
+                        }
+                        protocol = id;
+                    }
+                    case "--dport" -> {
+                        try {
+                            port = Integer.parseInt(value);
+                        } catch (NumberFormatException e) {
+                            throw error(source, at, "invalid port '" + value + "'");
+                        }
+                        if (port < 0 || port > 65535) throw error(source, at, "port must be between 0 and 65535");
+                    }
+                    case "-j" -> target = value;
+                    default -> throw error(source, at, "unknown option " + parts[j] + " (use -p, --dport, -j)");
+                }
+            }
+            if (target == null) throw error(source, at, "rule has no -j target");
+            int t;
+            Boolean allow = RuleText.parseAction(target);
+            if (allow != null) t = allow ? T_ALLOW : T_BLOCK;
+            else if (target.equals("RETURN")) t = T_RETURN;
+            else {
+                Integer id = chainIds.get(target);
+                if (id == null) throw error(source, at, "unknown target " + target);
+                if (id < BUILT_IN.length) throw error(source, at, "cannot jump to built-in chain " + target);
+                t = id;
+            }
+            chains.get(chain).rules.add(new Rule(protocol, port, t, at));
+            ruleCount++;
+        }
+        checkLoops(chains, source);
+        return new ChainPolicy(source, chains, protocols, ruleCount);
+    }
+
+    // Jumps must not lead back into a chain that is already being evaluated
+    private static void checkLoops(List<Chain> chains, String source) throws IOException {
+        int[] state = new int[chains.size()];     // 0 = unseen, 1 = on the path, 2 = done
+        for (int i = 0; i < chains.size(); i++) visit(chains, i, state, new ArrayDeque<>(), source);
+    }
+
+    private static void visit(List<Chain> chains, int chain, int[] state, Deque<String> path, String source) throws IOException {
+        if (state[chain] == 2) return;
+        state[chain] = 1;
+        path.addLast(chains.get(chain).name);
+        for (Rule r : chains.get(chain).rules) {
+            if (r.target < 0) continue;
+            if (state[r.target] == 1) {
+                throw error(source, r.line, "jump loop " + String.join(" → ", path) + " → " + chains.get(r.target).name);
+            }
+            visit(chains, r.target, state, path, source);
+        }
+        path.removeLast();
+        state[chain] = 2;
+    }
+
+    private static IOException error(String source, int line, String message) {
+        return new IOException(source + ":" + line + ": " + message);
+    }
+}
@@ -0,0 +1,1090 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+// Shares threat state between firewall nodes behind one load balancer, so a source
+// that spreads its attempts across nodes is still caught. Both structures are CRDTs
+// and merge in any order, any number of times:
+//
+//   blocked attempts per source   a grow-only counter with one slot per node; merging
+//                                 keeps the larger value of each slot
+//   bans per source               a last-writer-wins register (timestamp, node id) holding
+//                                 the expiry; an unban writes expiry 0
+//
+// The packet path only touches local state. A flusher thread sends whatever changed
+// since the last round to every peer as one batch over TCP, and a peer that (re)connects
+// first gets the full state. A node bans a source as soon as its merged count reaches
+// another multiple of Firewall.THREAT_THRESHOLD, whichever node the attempts came through.
+// Deltas only carry the sender's own slot and only go out over its own connections, so
+// every node must list every other one as a peer (a full mesh); a node that is connected
+// to by a node missing from its peer list says so once.
+// Both are keyed by IPv4 address: IPv6 sources are counted, banned and unbanned by each
+// node on its own (Firewall.detectThreat keeps its local counters for them).
+//
+// Rule sets are versioned. A local edit becomes version (Lamport clock, node id) and bumps
+// this node's entry of the version vector. Every round each node gossips its version and
+// vector to one random peer; whichever side is newer sends a deflated diff (removed rules,
+// changed or added rules, checksum) against the newest version both sides hold, or the
+// full set if there is none. Only the node a version came from sends it; another node
+// holding it steps in once a peer has been behind on it for RESEND_NANOS, for when the
+// origin cannot reach that peer. The diff goes out in chunks and is applied with a single
+// swap once all of it has arrived. Concurrent edits resolve to the higher version on every
+// node, and a vector that does not cover the local one is reported as a conflict.
+//
+//   java ClusterNode [nodes] [sources] [attempts]   local multi-process convergence test
+//   java ClusterNode --rules [nodes] [rules] [changes]   rule-set distribution test
+final class ClusterNode implements Closeable {
+    static final int MAX_NODES = 16;
+    private static final byte HELLO = 1, STATE = 2, DIGEST = 3, RULES = 4;
+    private static final int HISTORY = 8;           // rule-set versions kept as diff bases
+    private static final int CHUNK = 32 * 1024;     // diff bytes per RULES frame
+    private static final long RESEND_NANOS = 5_000_000_000L;
+
+    private static final class Threat {
+        final long[] slots = new long[MAX_NODES];
+        long total, level;          // level = threshold multiples already acted on
+    }
+
+    private static final class Ban {
+        final long stamp, expiresAt;
+        final int node;
+
+        Ban(long stamp, int node, long expiresAt) {
+            this.stamp = stamp;
+            this.node = node;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean newerThan(Ban o) {
+            return o == null || stamp > o.stamp || stamp == o.stamp && node > o.node;
+        }
+    }
+
+    // One TCP connection in either direction. Frames are written by the flusher and, for
+    // short DIGEST replies, by the thread reading the same connection; rule sets go out from
+    // the flusher only, so a reader always keeps draining its socket.
+    private final class Link {
+        final Socket socket;
+        private final DataOutputStream out;
+        volatile int node = -1;
+        volatile boolean behind;    // the other side reported an older rule set
+
+        Link(Socket socket) throws IOException {
+            this.socket = socket;
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        synchronized void write(byte type, byte[] payload) throws IOException {
+            out.writeInt(payload.length + 1);
+            out.writeByte(type);
+            out.write(payload);
+            bytesSent.add(payload.length + 5);
+            framesSent.increment();
+            if (type >= DIGEST) ruleBytesSent.add(payload.length + 5);
+        }
+
+        synchronized void flush() throws IOException {
+            out.flush();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // Outgoing connection to one peer, reopened as needed
+    private final class Peer {
+        final String host;
+        final int port;
+        volatile Link link;
+
+        Peer(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        void send(byte[] delta) {
+            try {
+                if (link == null) {
+                    Socket s = new Socket();
+                    s.connect(new InetSocketAddress(host, port), 200);
+                    s.setTcpNoDelay(true);
+                    Link l = new Link(s);
+                    l.write(HELLO, new byte[]{(byte) id});
+                    l.write(STATE, encode(true));
+                    l.write(DIGEST, digest());
+                    link = l;
+                    connected.increment();
+                    startReader(l);
+                } else if (delta != null) {
+                    link.write(STATE, delta);
+                }
+                link.flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void gossip() {
+            Link l = link;
+            if (l == null) return;
+            try {
+                l.write(DIGEST, digest());
+                l.flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        synchronized void close() {
+            if (link != null) {
+                connected.decrement();
+                link.close();
+            }
+            link = null;
+        }
+    }
+
+    // A diff arriving over several RULES frames
+    private static final class Transfer {
+        final long target, base;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int next;
+
+        Transfer(long target, long base) {
+            this.target = target;
+            this.base = base;
+        }
+    }
+
+    final int id;
+    private final Firewall firewall;
+    private final ServerSocket server;
+    private final List<Peer> peers = new ArrayList<>();
+    private final List<Link> incoming = new CopyOnWriteArrayList<>();
+    private final long intervalMillis;
+    private final Thread flusher, acceptor;
+    private volatile boolean running = true;
+
+    private final Map<Long, Threat> threats = new HashMap<>();
+    private final Map<Long, Ban> bans = new HashMap<>();
+    private final Set<Long> dirtyThreats = new LinkedHashSet<>(), dirtyBans = new LinkedHashSet<>();
+
+    final LongAdder bytesSent = new LongAdder(), bytesReceived = new LongAdder();
+    final LongAdder framesSent = new LongAdder();
+    private final LongAdder connected = new LongAdder();
+
+    // Rule-set versions: (Lamport clock << 8 | origin node); 0 is whatever the node started with
+    private final long[] vector = new long[MAX_NODES];     // rule sets published per node, as far as this node knows
+    private long current, clock;
+    private final LinkedHashMap<Long, RuleIndex> history = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, RuleIndex> eldest) {
+            return size() > HISTORY;
+        }
+    };
+    // What each peer node last reported: its version and the versions it can take a diff against
+    private final long[] reported = new long[MAX_NODES];
+    private final long[][] held = new long[MAX_NODES][0];
+    private final long[] sentVersion = new long[MAX_NODES], sentAt = new long[MAX_NODES];
+    // Since when each peer has been seen behind, and on which of this node's versions
+    private final long[] behindOn = new long[MAX_NODES], behindSince = new long[MAX_NODES];
+    private final Map<Long, byte[]> diffs = new HashMap<>();     // by base version, for the current version
+    private long diffsFor;
+    private final Random random = new Random();
+    private final boolean[] missingPeer = new boolean[MAX_NODES];     // already reported; flusher only
+    private long updates, conflicts;
+    final LongAdder ruleBytesSent = new LongAdder();
+
+    // peers are host:port of the other nodes; node ids must be unique and below MAX_NODES
+    ClusterNode(Firewall firewall, int id, int port, List<String> peerAddresses, long intervalMillis) throws IOException {
+        if (id < 0 || id >= MAX_NODES) throw new IllegalArgumentException("node id must be between 0 and " + (MAX_NODES - 1));
+        this.id = id;
+        this.firewall = firewall;
+        this.intervalMillis = intervalMillis;
+        for (String address : peerAddresses) {
+            int colon = address.lastIndexOf(':');
+            if (colon <= 0) throw new IllegalArgumentException("expected host:port, got " + address);
+            peers.add(new Peer(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))));
+        }
+        server = new ServerSocket(port);
+        acceptor = new Thread(this::accept, "cluster-accept-" + id);
+        flusher = new Thread(this::flushLoop, "cluster-flush-" + id);
+        acceptor.setDaemon(true);
+        flusher.setDaemon(true);
+        acceptor.start();
+        flusher.start();
+    }
+
+    // Hot path for a blocked packet: bumps this node's slot; true when the source should be banned
+    synchronized boolean recordBlocked(String source) {
+        long ip = IPv4.parse(source);
+        if (ip == IPv4.INVALID) return false;
+        Threat t = threats.computeIfAbsent(ip, k -> new Threat());
+        t.slots[id]++;
+        t.total++;
+        dirtyThreats.add(ip);
+        return crossed(t);
+    }
+
+    private static boolean crossed(Threat t) {
+        long level = t.total / Firewall.THREAT_THRESHOLD;
+        if (level <= t.level) return false;
+        t.level = level;
+        return true;
+    }
+
+    // IPv6 bans are not shared: they stay on the node that made them
+    synchronized void recordBan(String source, long expiresAt) {
+        long ip = IPv4.parse(source);
+        if (ip == IPv4.INVALID) return;
+        bans.put(ip, new Ban(System.currentTimeMillis(), id, expiresAt));
+        dirtyBans.add(ip);
+    }
+
+    synchronized void recordUnban(String source) {
+        recordBan(source, 0);
+    }
+
+    // Called by Firewall for every local edit: the edited set becomes the newest version
+    synchronized void publish(RuleIndex rules) {
+        RuleIndex.Builder builder = rules.toBuilder();
+        if (builder.dedupe() > 0) rules = builder.build();     // diffs assume one rule per protocol and port
+        clock++;
+        vector[id]++;
+        current = clock << 8 | id;
+        history.put(current, rules);
+    }
+
+    static String version(long key) {
+        return key == 0 ? "local" : (key >>> 8) + "." + (key & 0xff);
+    }
+
+    // DIGEST payload: node id, installed version, the non-zero entries of the version vector
+    // and the versions kept as diff bases
+    private synchronized byte[] digest() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(id);
+            out.writeLong(current);
+            int n = 0;
+            for (long v : vector) if (v > 0) n++;
+            out.writeByte(n);
+            for (int node = 0; node < MAX_NODES; node++) {
+                if (vector[node] == 0) continue;
+                out.writeByte(node);
+                out.writeLong(vector[node]);
+            }
+            out.writeByte(history.size());
+            for (long key : history.keySet()) out.writeLong(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static long[] readVector(DataInputStream in) throws IOException {
+        long[] v = new long[MAX_NODES];
+        for (int i = in.readUnsignedByte(); i > 0; i--) {
+            int node = in.readUnsignedByte();
+            if (node >= MAX_NODES) throw new IOException("bad node id " + node);
+            v[node] = in.readLong();
+        }
+        return v;
+    }
+
+    // The older side of a gossip exchange answers with its own digest; the newer side
+    // notes which version the other one is on and sends it the difference next round
+    private void onDigest(Link link, DataInputStream in) throws IOException {
+        int node = in.readUnsignedByte();
+        long theirs = in.readLong();
+        readVector(in);
+        long[] bases = new long[in.readUnsignedByte()];
+        for (int i = 0; i < bases.length; i++) bases[i] = in.readLong();
+        if (node >= MAX_NODES) throw new IOException("bad node id " + node);
+        long mine;
+        synchronized (this) {
+            mine = current;
+            // digests can arrive late over another connection; a node's version only grows
+            if (theirs >= reported[node]) {
+                reported[node] = theirs;
+                held[node] = bases;
+            }
+            if (theirs >= sentVersion[node]) sentVersion[node] = 0;     // arrived, or overtaken
+            if (mine > theirs && behindOn[node] != mine) {
+                behindOn[node] = mine;
+                behindSince[node] = System.nanoTime();
+            }
+        }
+        if (mine < theirs) {
+            link.write(DIGEST, digest());
+            link.flush();
+        } else if (mine > theirs) {
+            link.node = node;
+            link.behind = true;
+        }
+    }
+
+    private void sendRules(Link link) throws IOException {
+        if (!link.behind) return;
+        link.behind = false;
+        int node = link.node;
+        long target, base = 0;
+        byte[] diff;
+        RuleIndex from = null, to;
+        long[] v;
+        synchronized (this) {
+            target = current;
+            long now = System.nanoTime();
+            // a transfer already on its way is not repeated unless it seems lost
+            if (target <= reported[node] || sentVersion[node] == target && now - sentAt[node] < RESEND_NANOS) return;
+            // one sender per version and peer: the origin, or anyone once the origin seems unable to
+            if ((target & 0xff) != id && (behindOn[node] != target || now - behindSince[node] < RESEND_NANOS)) return;
+            sentVersion[node] = target;
+            sentAt[node] = now;
+            // newest version both sides hold; after concurrent edits that is an older common one
+            for (long key : held[node]) {
+                RuleIndex r = history.get(key);
+                if (r != null && key > base) {
+                    base = key;
+                    from = r;
+                }
+            }
+            if (diffsFor != target) diffs.clear();
+            diffsFor = target;
+            diff = diffs.get(base);
+            to = history.get(target);
+            v = vector.clone();
+        }
+        if (diff == null) {
+            diff = diff(from == null ? RuleIndex.empty() : from, to, v);
+            synchronized (this) {
+                if (diffsFor == target) diffs.put(base, diff);
+            }
+        }
+        synchronized (this) {
+            if (reported[node] >= target) return;      // caught up from another node meanwhile
+        }
+        int parts = Math.max(1, (diff.length + CHUNK - 1) / CHUNK);
+        for (int part = 0; part < parts; part++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int off = part * CHUNK, len = Math.min(CHUNK, diff.length - off);
+            out.writeLong(target);
+            out.writeLong(base);
+            out.writeInt(part);
+            out.writeInt(parts);
+            out.write(diff, off, len);
+            link.write(RULES, bytes.toByteArray());
+        }
+        link.flush();
+    }
+
+    // Deflated: vector, removed rules, changed or added rules, checksum of the result
+    private static byte[] diff(RuleIndex from, RuleIndex to, long[] v) throws IOException {
+        List<Integer> removed = new ArrayList<>(), upserts = new ArrayList<>();
+        for (int i = 0; i < from.size(); i++) {
+            if (to.match(from.protocol(i), from.port(i)) == RuleIndex.NO_MATCH) removed.add(i);
+        }
+        for (int i = 0; i < to.size(); i++) {
+            int j = from.match(to.protocol(i), to.port(i));
+            if (j == RuleIndex.NO_MATCH || from.allows(j) != to.allows(i)) upserts.add(i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            int n = 0;
+            for (long x : v) if (x > 0) n++;
+            out.writeByte(n);
+            for (int node = 0; node < MAX_NODES; node++) {
+                if (v[node] == 0) continue;
+                out.writeByte(node);
+                out.writeLong(v[node]);
+            }
+            out.writeInt(removed.size());
+            for (int i : removed) {
+                out.writeUTF(from.protocol(i));
+                out.writeShort(from.port(i));
+            }
+            out.writeInt(upserts.size());
+            for (int i : upserts) {
+                out.writeUTF(to.protocol(i));
+                out.writeShort(to.port(i));
+                out.writeBoolean(to.allows(i));
+            }
+            out.writeLong(checksum(to));
+        }
+        return bytes.toByteArray();
+    }
+
+    // Independent of rule order, which diffs do not preserve for re-added rules
+    static long checksum(RuleIndex rules) {
+        long sum = 0;
+        for (int i = 0; i < rules.size(); i++) {
+            long h = (long) rules.protocol(i).hashCode() << 32 ^ rules.port(i) << 1 ^ (rules.allows(i) ? 1 : 0);
+            h *= 0x9E3779B97F4A7C15L;
+            sum += h ^ (h >>> 29);
+        }
+        return sum;
+    }
+
+    // Collects RULES frames; the transfer is applied only once its last part is in
+    private Transfer onRules(Transfer t, DataInputStream in) throws IOException {
+        long target = in.readLong(), base = in.readLong();
+        int part = in.readInt(), parts = in.readInt();
+        if (part == 0) t = new Transfer(target, base);
+        if (t == null || t.target != target || t.base != base || t.next != part) return null;   // a part went missing
+        in.transferTo(t.bytes);
+        if (++t.next < parts) return t;
+        apply(t.target, t.base, t.bytes.toByteArray());
+        return null;
+    }
+
+    private void apply(long target, long base, byte[] diff) throws IOException {
+        RuleIndex from;
+        synchronized (this) {
+            if (target <= current) return;
+            from = base == 0 ? RuleIndex.empty() : history.get(base);
+        }
+        if (from == null) return;       // no longer here; the next round sends a diff from what is
+        long[] v;
+        RuleIndex next;
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(diff)))) {
+            v = readVector(in);
+            RuleIndex.Builder builder = from.toBuilder(), gone = new RuleIndex.Builder(), changed = new RuleIndex.Builder();
+            for (int i = in.readInt(); i > 0; i--) gone.add(in.readUTF(), in.readUnsignedShort(), false);
+            for (int i = in.readInt(); i > 0; i--) changed.add(in.readUTF(), in.readUnsignedShort(), in.readBoolean());
+            builder.removeAll(gone);
+            builder.replaceAll(changed);
+            next = builder.build();
+            if (checksum(next) != in.readLong()) throw new IOException("rule set " + version(target) + " failed its checksum");
+        }
+        boolean conflict = false;
+        long replaced;
+        synchronized (firewall) {
+            synchronized (this) {
+                if (target <= current) return;
+                replaced = current;
+                for (int node = 0; node < MAX_NODES; node++) {
+                    if (vector[node] > v[node]) conflict = true;
+                    vector[node] = Math.max(vector[node], v[node]);
+                }
+                current = target;
+                clock = Math.max(clock, target >>> 8);
+                history.put(target, next);
+                updates++;
+                if (conflict) conflicts++;
+            }
+            firewall.adopt(next);
+        }
+        System.out.printf("%n📦 Rule set %s from node %d installed: %d rules (%s, %d bytes)%n", version(target), target & 0xff,
+                next.size(), base == 0 ? "full set" : "diff from " + version(base), diff.length);
+        // the vector shows edits the new version was made without; the set installed until now holds them
+        if (conflict) System.out.printf("⚠️ It discards rule set %s, a concurrent edit made %s%n", version(replaced),
+                (replaced & 0xff) == id ? "on this node" : "by node " + (replaced & 0xff));
+    }
+
+    // Payload of a STATE frame: everything (full) or what changed here since the last delta
+    private synchronized byte[] encode(boolean full) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            // a delta only carries this node's slot; the other slots travel from their own nodes
+            Collection<Long> threatKeys = full ? threats.keySet() : dirtyThreats;
+            int slots = 0;
+            for (long ip : threatKeys) {
+                long[] s = threats.get(ip).slots;
+                for (int node = 0; node < MAX_NODES; node++) if (s[node] > 0 && (full || node == id)) slots++;
+            }
+            out.writeInt(slots);
+            for (long ip : threatKeys) {
+                long[] s = threats.get(ip).slots;
+                for (int node = 0; node < MAX_NODES; node++) {
+                    if (s[node] == 0 || !full && node != id) continue;
+                    out.writeInt((int) ip);
+                    out.writeByte(node);
+                    out.writeLong(s[node]);
+                }
+            }
+            Collection<Long> banKeys = full ? bans.keySet() : dirtyBans;
+            out.writeInt(banKeys.size());
+            for (long ip : banKeys) {
+                Ban b = bans.get(ip);
+                out.writeInt((int) ip);
+                out.writeByte(b.node);
+                out.writeLong(b.stamp);
+                out.writeLong(b.expiresAt);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (!full) {
+            dirtyThreats.clear();
+            dirtyBans.clear();
+        }
+        return bytes.toByteArray();
+    }
+
+    // Merges a peer's STATE payload; sources whose merged count crossed the threshold are banned here
+    private void merge(DataInputStream in) throws IOException {
+        List<String> toBan = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (int i = in.readInt(); i > 0; i--) {
+                long ip = in.readInt() & 0xffffffffL;
+                int node = in.readByte();
+                long value = in.readLong();
+                if (node < 0 || node >= MAX_NODES) throw new IOException("bad node id " + node);
+                Threat t = threats.computeIfAbsent(ip, k -> new Threat());
+                if (value <= t.slots[node]) continue;
+                t.total += value - t.slots[node];
+                t.slots[node] = value;
+                if (crossed(t)) toBan.add(IPv4.format((int) ip));
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                long ip = in.readInt() & 0xffffffffL;
+                int node = in.readByte();
+                long stamp = in.readLong();
+                Ban b = new Ban(stamp, node, in.readLong());
+                if (!b.newerThan(bans.get(ip))) continue;
+                bans.put(ip, b);
+                String source = IPv4.format((int) ip);
+                if (b.expiresAt > now) firewall.bans.ban(source, "replicated from node " + b.node, b.expiresAt - now);
+                else firewall.bans.unban(source);
+            }
+        }
+        // every node reaches the same merged count and bans on its own; no need to replicate these
+        for (String source : toBan) {
+            if (!firewall.bans.isBanned(source)) firewall.ban(source, false);
+        }
+    }
+
+    private void flushLoop() {
+        while (running) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+            flush();
+        }
+        flush();
+    }
+
+    private void flush() {
+        byte[] delta;
+        synchronized (this) {
+            delta = dirtyThreats.isEmpty() && dirtyBans.isEmpty() ? null : encode(false);
+        }
+        for (Peer p : peers) p.send(delta);
+        if (!peers.isEmpty()) peers.get(random.nextInt(peers.size())).gossip();
+        for (Peer p : peers) {
+            Link l = p.link;
+            if (l == null) continue;
+            try {
+                sendRules(l);
+            } catch (IOException e) {
+                p.close();
+            }
+        }
+        for (Link l : incoming) {
+            try {
+                sendRules(l);
+            } catch (IOException e) {
+                l.close();
+            }
+        }
+        checkMesh();
+    }
+
+    // A node that connects here but is not a peer of this one never gets this node's slot
+    private void checkMesh() {
+        boolean[] listed = new boolean[MAX_NODES];
+        for (Peer p : peers) {
+            Link l = p.link;
+            if (l == null || l.node < 0) return;     // could be any node until it is connected
+            listed[l.node] = true;
+        }
+        for (Link l : incoming) {
+            int node = l.node;
+            if (node < 0 || node == id || listed[node] || missingPeer[node]) continue;
+            missingPeer[node] = true;
+            System.out.println("⚠️ Cluster node " + node + " connects to node " + id + " but is not in its peer list; "
+                    + "threat counts only converge when every node lists every other");
+        }
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket s = server.accept();
+                s.setTcpNoDelay(true);
+                Link link = new Link(s);
+                incoming.add(link);
+                startReader(link);
+                try {
+                    link.write(HELLO, new byte[]{(byte) id});      // tells the connecting side who it reached
+                    link.flush();
+                } catch (IOException e) {
+                    link.close();
+                }
+            } catch (IOException e) {
+                if (running) System.out.println("Cluster accept error: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private void startReader(Link link) {
+        Thread reader = new Thread(() -> read(link), "cluster-read-" + id);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void read(Link link) {
+        Transfer transfer = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(link.socket.getInputStream()))) {
+            while (running) {
+                int length = in.readInt();
+                byte type = in.readByte();
+                byte[] payload = new byte[length - 1];
+                in.readFully(payload);
+                bytesReceived.add(length + 4);
+                DataInputStream frame = new DataInputStream(new ByteArrayInputStream(payload));
+                switch (type) {
+                    case HELLO -> {
+                        int node = frame.readUnsignedByte();
+                        if (node >= MAX_NODES) throw new IOException("bad node id " + node);
+                        link.node = node;
+                    }
+                    case STATE -> merge(frame);
+                    case DIGEST -> onDigest(link, frame);
+                    case RULES -> transfer = onRules(transfer, frame);
+                    default -> {
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // peer went away; it reconnects and resends its full state
+        } finally {
+            incoming.remove(link);
+            link.close();
+        }
+    }
+
+    synchronized int sources() {
+        return threats.size();
+    }
+
+    // Sum of all merged counters; equal on every node once they have converged
+    synchronized long totalBlocked() {
+        long n = 0;
+        for (Threat t : threats.values()) n += t.total;
+        return n;
+    }
+
+    synchronized long ruleVersion() {
+        return current;
+    }
+
+    synchronized long updates() {
+        return updates;
+    }
+
+    synchronized long conflicts() {
+        return conflicts;
+    }
+
+    // Rule transfers sent to peers that have not yet reported the version back
+    synchronized int transfersInFlight() {
+        int n = 0;
+        for (long v : sentVersion) if (v != 0) n++;
+        return n;
+    }
+
+    synchronized String rulesStats() {
+        StringBuilder v = new StringBuilder();
+        for (int node = 0; node < MAX_NODES; node++) {
+            if (vector[node] > 0) v.append(v.length() == 0 ? "" : " ").append(node).append(':').append(vector[node]);
+        }
+        return String.format("📜 Rule set %s (%d rules), vector [%s] | %d updates received, %d conflicts | rule traffic sent %.1f KB",
+                version(current), firewall.rules().size(), v, updates, conflicts, ruleBytesSent.sum() / 1024.0);
+    }
+
+    int connectedPeers() {
+        return (int) connected.sum();
+    }
+
+    String stats() {
+        return String.format("🌐 Cluster node %d: %d/%d peers connected | %d sources, %d blocked attempts cluster-wide, %d bans | "
+                        + "sent %d frames, %.1f KB | received %.1f KB",
+                id, connectedPeers(), peers.size(), sources(), totalBlocked(), firewall.bans.size(),
+                framesSent.sum(), bytesSent.sum() / 1024.0, bytesReceived.sum() / 1024.0) + "\n" + rulesStats();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join(1000);
+            server.close();
+        } catch (IOException | InterruptedException ignored) {
+        }
+        for (Peer p : peers) p.close();
+        for (Link l : incoming) l.close();
+    }
+
+    // Local convergence test: starts one JVM per node, sends every source's attempts
+    // round-robin across the nodes (as a load balancer would) and waits until all nodes
+    // report the same counters and bans
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--node")) {
+            runNode(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--rules-node")) {
+            runRulesNode(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--rules")) {
+            rulesTest(args);
+            return;
+        }
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int sources = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int attempts = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        String portList = freePorts(nodes);
+        System.out.printf("🧪 %d nodes on ports %s: %d sources × %d blocked attempts, round-robin across nodes%n",
+                nodes, portList, sources, attempts);
+
+        List<Process> procs = new ArrayList<>();
+        List<BufferedReader> outs = new ArrayList<>();
+        List<Writer> ins = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            spawn(procs, outs, ins, "--node", String.valueOf(i), portList, String.valueOf(sources), String.valueOf(attempts));
+        }
+        boolean converged = false;
+        try {
+            for (BufferedReader out : outs) expect(out, "READY");
+            for (Writer in : ins) {
+                in.write("GO\n");
+                in.flush();
+            }
+            long sent = 0;
+            for (BufferedReader out : outs) sent += Long.parseLong(expect(out, "SENT")[1]);
+            long doneAt = System.nanoTime();
+            long deadline = doneAt + 30_000_000_000L;
+            String[][] last = new String[nodes][];
+            while (System.nanoTime() < deadline) {
+                for (int i = 0; i < nodes; i++) last[i] = expect(outs.get(i), "STATE");
+                converged = true;
+                for (int i = 1; i < nodes; i++) {
+                    converged &= Arrays.equals(Arrays.copyOfRange(last[i], 1, 4), Arrays.copyOfRange(last[0], 1, 4));
+                }
+                converged &= Long.parseLong(last[0][3]) == sources || attempts < Firewall.THREAT_THRESHOLD;
+                if (converged) break;
+            }
+            double millis = (System.nanoTime() - doneAt) / 1e6;
+            long bytes = 0, frames = 0;
+            for (String[] s : last) {
+                bytes += Long.parseLong(s[4]);
+                frames += Long.parseLong(s[5]);
+            }
+            for (int i = 0; i < nodes; i++) {
+                System.out.printf("   node %d: %s sources, %s blocked attempts, %s bans | sent %s frames, %.1f KB%n",
+                        i, last[i][1], last[i][2], last[i][3], last[i][5], Long.parseLong(last[i][4]) / 1024.0);
+            }
+            int alone = 0;
+            for (int k = 0; k < sources; k++) {
+                for (int i = 0; i < nodes; i++) {
+                    int seen = 0;
+                    for (int j = 0; j < attempts; j++) if ((k + j) % nodes == i) seen++;
+                    if (seen >= Firewall.THREAT_THRESHOLD) {
+                        alone++;
+                        break;
+                    }
+                }
+            }
+            if (converged) {
+                System.out.printf("⏱️ Converged %.0f ms after the last packet (%d packets sent)%n", millis, sent);
+            } else {
+                System.out.printf("❌ Not converged after %.0f ms%n", millis);
+            }
+            System.out.printf("📡 Replication: %.1f KB in %d frames (%.1f bytes per packet sent)%n",
+                    bytes / 1024.0, frames, (double) bytes / Math.max(1, sent));
+            System.out.printf("   Nodes on their own would have banned %d of %d sources%n", alone, sources);
+        } finally {
+            for (Writer in : ins) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+            for (Process p : procs) {
+                if (!p.waitFor(5, java.util.concurrent.TimeUnit.SECONDS)) p.destroyForcibly();
+            }
+        }
+        if (!converged) System.exit(1);
+    }
+
+    private static String freePorts(int nodes) throws IOException {
+        int[] ports = new int[nodes];
+        for (int i = 0; i < nodes; i++) {
+            try (ServerSocket probe = new ServerSocket(0)) {
+                ports[i] = probe.getLocalPort();
+            }
+        }
+        return Arrays.toString(ports).replaceAll("[\\[\\] ]", "");
+    }
+
+    private static void spawn(List<Process> procs, List<BufferedReader> outs, List<Writer> ins, String... args) throws IOException {
+        List<String> command = new ArrayList<>(List.of(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), "ClusterNode"));
+        command.addAll(List.of(args));
+        Process p = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        procs.add(p);
+        outs.add(new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8)));
+        ins.add(new OutputStreamWriter(p.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    // Rule-set distribution test: node 0 publishes a full rule set and then edits it, the
+    // last node edits it next, and finally nodes 0 and 1 edit at the same time
+    private static void rulesTest(String[] args) throws Exception {
+        int nodes = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int rules = args.length > 2 ? Integer.parseInt(args[2]) : 50_000;
+        int changes = args.length > 3 ? Integer.parseInt(args[3]) : 300;
+        String portList = freePorts(nodes);
+        System.out.printf("🧪 %d nodes on ports %s: %d rules, then edits of %d rules; one gossip round every 50 ms%n",
+                nodes, portList, rules, changes);
+
+        List<Process> procs = new ArrayList<>();
+        List<BufferedReader> outs = new ArrayList<>();
+        List<Writer> ins = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) spawn(procs, outs, ins, "--rules-node", String.valueOf(i), portList);
+        boolean converged = true;
+        try {
+            for (BufferedReader out : outs) expect(out, "READY");
+            converged &= round(outs, ins, "full set from node 0", new int[]{0}, "PUBLISH " + rules + " 1");
+            converged &= round(outs, ins, changes + " changes on node 0", new int[]{0}, "EDIT " + changes + " 2");
+            converged &= round(outs, ins, changes + " changes on node " + (nodes - 1), new int[]{nodes - 1}, "EDIT " + changes + " 3");
+            if (nodes > 2) converged &= round(outs, ins, "concurrent changes on nodes 0 and 1", new int[]{0, 1}, "EDIT " + changes + " 4");
+            for (int i = 0; i < nodes; i++) {
+                String[] s = expect(outs.get(i), "RULES");
+                System.out.printf("   node %d: version %s | %s updates received, %s conflicts | rule traffic sent %.1f KB%n",
+                        i, version(Long.parseLong(s[1])), s[4], s[5], Long.parseLong(s[3]) / 1024.0);
+            }
+        } finally {
+            for (Writer in : ins) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+            for (Process p : procs) {
+                if (!p.waitFor(5, java.util.concurrent.TimeUnit.SECONDS)) p.destroyForcibly();
+            }
+        }
+        if (!converged) System.exit(1);
+    }
+
+    // Sends the command to the editing nodes and waits until every node reports the winning
+    // version; traffic is counted from a moment when no transfer of an earlier round is on its way
+    private static boolean round(List<BufferedReader> outs, List<Writer> ins, String what, int[] editors, String command) throws IOException {
+        int nodes = outs.size();
+        long[] before = new long[nodes];
+        for (boolean idle = false; !idle; ) {
+            idle = true;
+            for (int i = 0; i < nodes; i++) {
+                String[] s = expect(outs.get(i), "RULES");
+                before[i] = Long.parseLong(s[3]);
+                idle &= s[6].equals("0");
+            }
+        }
+        long start = System.nanoTime();
+        for (int e : editors) {
+            ins.get(e).write(command + "\n");
+            ins.get(e).flush();
+        }
+        long target = 0, text = 0;
+        for (int e : editors) {
+            String[] published = expect(outs.get(e), "PUBLISHED");
+            target = Math.max(target, Long.parseLong(published[1]));
+            text = Long.parseLong(published[2]);
+        }
+        String[][] last = new String[nodes][];
+        boolean converged = false;
+        while (!converged && System.nanoTime() - start < 30_000_000_000L) {
+            for (int i = 0; i < nodes; i++) last[i] = expect(outs.get(i), "RULES");
+            converged = true;
+            for (int i = 0; i < nodes; i++) converged &= Long.parseLong(last[i][1]) == target && last[i][2].equals(last[0][2]);
+        }
+        double millis = (System.nanoTime() - start) / 1e6;
+        long bytes = 0;
+        for (int i = 0; i < nodes; i++) bytes += Long.parseLong(last[i][3]) - before[i];
+        if (converged) {
+            System.out.printf("⏱️ %s: all %d nodes on version %s after %.0f ms | %.1f KB of gossip and diffs (the rule set as text is %.1f KB)%n",
+                    what, nodes, version(target), millis, bytes / 1024.0, text / 1024.0);
+        } else {
+            System.out.printf("❌ %s: not converged after %.0f ms%n", what, millis);
+        }
+        return converged;
+    }
+
+    private static void runRulesNode(String[] args) throws Exception {
+        int id = Integer.parseInt(args[1]);
+        String[] ports = args[2].split(",");
+        List<String> peers = new ArrayList<>();
+        for (int i = 0; i < ports.length; i++) if (i != id) peers.add("localhost:" + ports[i]);
+
+        Path dir = Files.createTempDirectory("cluster" + id);
+        Firewall firewall = new Firewall(dir.resolve("firewall_log1.txt"));
+        BufferedReader control = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        try (ClusterNode node = new ClusterNode(firewall, id, Integer.parseInt(ports[id]), peers, 50)) {
+            firewall.cluster = node;
+            while (node.connectedPeers() < peers.size()) Thread.sleep(20);
+            Thread reporter = new Thread(() -> {
+                RuleIndex seen = null;
+                long sum = 0;
+                while (true) {
+                    RuleIndex rules = firewall.rules();
+                    if (rules != seen) sum = checksum(seen = rules);
+                    System.out.println("RULES " + node.ruleVersion() + " " + sum + " " + node.ruleBytesSent.sum()
+                            + " " + node.updates() + " " + node.conflicts() + " " + node.transfersInFlight());
+                    System.out.flush();
+                    try {
+                        Thread.sleep(25);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            reporter.setDaemon(true);
+            System.out.println("READY");
+            System.out.flush();
+            reporter.start();
+            String line;
+            while ((line = control.readLine()) != null) {
+                String[] command = line.split(" ");
+                int n = Integer.parseInt(command[1]);
+                Random r = new Random(Long.parseLong(command[2]) * 31 + id);
+                RuleIndex current = firewall.rules();
+                RuleIndex.Builder builder = command[0].equals("PUBLISH") ? new RuleIndex.Builder() : current.toBuilder();
+                RuleIndex.Builder gone = new RuleIndex.Builder(), flipped = new RuleIndex.Builder();
+                for (int k = 0; k < n; k++) {
+                    int i = current.size() == 0 ? 0 : r.nextInt(current.size());
+                    if (command[0].equals("PUBLISH") || k % 3 == 0) {
+                        builder.add(RANDOM_PROTOCOLS[r.nextInt(RANDOM_PROTOCOLS.length)], r.nextInt(65536), r.nextBoolean());
+                    } else if (k % 3 == 1) {
+                        gone.add(current.protocol(i), current.port(i), false);
+                    } else {
+                        flipped.add(current.protocol(i), current.port(i), !current.allows(i));
+                    }
+                }
+                builder.removeAll(gone);
+                builder.replaceAll(flipped);
+                builder.dedupe();
+                RuleIndex next = builder.build();
+                firewall.install(next);
+                System.out.println("PUBLISHED " + node.ruleVersion() + " " + textSize(next));
+                System.out.flush();
+            }
+            reporter.interrupt();
+        } finally {
+            firewall.closeLog();
+            try (var files = Files.list(dir)) {
+                for (Path p : (Iterable<Path>) files::iterator) Files.deleteIfExists(p);
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static final String[] RANDOM_PROTOCOLS = {"TCP", "UDP", "HTTP", "HTTPS", "SSH", "DNS", "FTP", "SMTP"};
+
+    // Length of the rules file RuleText writes for the set
+    private static long textSize(RuleIndex rules) throws IOException {
+        StringWriter text = new StringWriter();
+        RuleText.write(rules, text);
+        return text.getBuffer().length();
+    }
+
+    // Reads lines until one starts with the tag; other output (alerts) is skipped
+    private static String[] expect(BufferedReader out, String tag) throws IOException {
+        String line;
+        while ((line = out.readLine()) != null) {
+            if (line.startsWith(tag)) return line.split(" ");
+        }
+        throw new EOFException("node exited before " + tag);
+    }
+
+    private static void runNode(String[] args) throws Exception {
+        int id = Integer.parseInt(args[1]);
+        String[] ports = args[2].split(",");
+        int sources = Integer.parseInt(args[3]), attempts = Integer.parseInt(args[4]);
+        int nodes = ports.length;
+        List<String> peers = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) if (i != id) peers.add("localhost:" + ports[i]);
+
+        Path dir = Files.createTempDirectory("cluster" + id);
+        Firewall firewall = new Firewall(dir.resolve("firewall_log1.txt"));
+        firewall.install(RuleIndex.empty().toBuilder().add("SSH", 22, false).build());
+        BufferedReader control = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        try (ClusterNode node = new ClusterNode(firewall, id, Integer.parseInt(ports[id]), peers, 50)) {
+            firewall.cluster = node;
+            while (node.connectedPeers() < peers.size()) Thread.sleep(20);
+            System.out.println("READY");
+            System.out.flush();
+            control.readLine();
+            long sent = 0;
+            for (int k = 0; k < sources; k++) {
+                String source = IPv4.format((int) IPv4.parse("198.18.0.0") + k);
+                for (int j = 0; j < attempts; j++) {
+                    if ((k + j) % nodes != id) continue;
+                    synchronized (firewall) {
+                        firewall.isAllowed(new Packet(source, "10.0.0.5", "SSH", 22));
+                    }
+                    sent++;
+                }
+            }
+            System.out.println("SENT " + sent);
+            System.out.flush();
+            // report until the parent closes stdin
+            Thread reporter = new Thread(() -> {
+                while (true) {
+                    System.out.println("STATE " + node.sources() + " " + node.totalBlocked() + " " + firewall.bans.size()
+                            + " " + node.bytesSent.sum() + " " + node.framesSent.sum());
+                    System.out.flush();
+                    try {
+                        Thread.sleep(25);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            reporter.setDaemon(true);
+            reporter.start();
+            while (control.readLine() != null) {
+                // parent only ever closes the stream
+            }
+            reporter.interrupt();
+        } finally {
+            firewall.closeLog();
+            try (var files = Files.list(dir)) {
+                for (Path p : (Iterable<Path>) files::iterator) Files.deleteIfExists(p);
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+// A millisecond clock for the packet path. A daemon thread publishes the current
+// time once per tick, together with the local wall-clock time already formatted
+// as log text, so packet threads read a field instead of calling the clock and
+// formatting a LocalDateTime for every packet.
+final class CoarseClock implements Closeable {
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS");
+
+    // One published instant; never modified after it is published
+    static final class Tick {
+        final long millis;         // epoch millis
+        final long localMillis;    // local wall-clock time as if it were UTC, the form LogRecord parses
+        final byte[] text;         // local time as yyyy-MM-ddTHH:mm:ss.SSS in ASCII
+
+        Tick(long millis) {
+            this.millis = millis;
+            LocalDateTime local = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+            localMillis = local.toInstant(ZoneOffset.UTC).toEpochMilli();
+            text = local.format(FORMAT).getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final long tickMillis;
+    private final Thread ticker;
+    private volatile Tick current = new Tick(System.currentTimeMillis());
+    private volatile boolean running = true;
+
+    CoarseClock(long tickMillis) {
+        this.tickMillis = tickMillis;
+        ticker = new Thread(this::run, "coarse-clock");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    Tick now() {
+        return current;
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                Thread.sleep(tickMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (now != current.millis) current = new Tick(now);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        ticker.interrupt();
+    }
+}
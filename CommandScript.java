@@ -0,0 +1,230 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+// Non-interactive command scripts for the engine, one command per line:
+//
+//   # comment
+//   add BLOCK SSH 22            ALLOW HTTP 80 (no verb) is an add as well, so a rules file is a script
+//   remove TELNET 23
+//   replace ALLOW SSH 22        changes the action where the rule is, appends it otherwise
+//   clear
+//   load rules.txt              replaces the rule set (text, snapshot or chain policy)
+//   import more_rules.txt       adds every rule of the file
+//   save firewall_rules.txt     a name ending in .bin saves a compiled snapshot
+//   blocklist feed.txt
+//   signatures sigs.txt         payload signatures (name: content per line)
+//   inspect BLOCK HTTP 8080 sql-union     payload rule; ANY for protocol, port or signature
+//   send 192.168.0.2 10.0.0.5 HTTP 80
+//   send 192.168.0.2 10.0.0.5 HTTP 8080 GET /?q=1 UNION SELECT    the rest of the line is the payload
+//                               (# starts a comment there too; write |23| for the byte)
+//   rules
+//   qos                         egress queue statistics per route and traffic class
+//   simulate ddos 4             baseline then attack (none, ddos, udp-flood, both), seconds per phase
+//
+// Consecutive add, remove and replace lines are collected into one batch and applied
+// with a single rebuild, so a script of 100k rules loads in one pass. A malformed line
+// stops the script; whatever came before it stays applied.
+//
+//   java Advance_SimulatedNetworkFirewall --script policy.fw    (- reads standard input)
+final class CommandScript {
+    private enum Kind { ADD, REMOVE, REPLACE }
+
+    private final Router router;
+    private final Firewall firewall;
+    private final String source;
+    private Kind pending;
+    private RuleIndex.Builder batch = new RuleIndex.Builder();
+    private long batchStart;
+    int commands;
+
+    CommandScript(Router router, String source) {
+        this.router = router;
+        this.firewall = router.firewall;
+        this.source = source;
+    }
+
+    // Returns false if the script stopped at a malformed line or failed command
+    boolean run(BufferedReader in) {
+        String line;
+        int lineNo = 0;
+        try {
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                String[] parts = RuleText.fields(line);
+                if (parts == null) continue;
+                commands++;
+                execute(parts);
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            flush();
+            System.out.println("⚠️ " + source + ":" + lineNo + ": " + e.getMessage());
+            return false;
+        }
+        flush();
+        return true;
+    }
+
+    private void execute(String[] parts) throws IOException {
+        String verb = parts[0].toLowerCase();
+        if (RuleText.parseAction(parts[0]) != null) {
+            batch(Kind.ADD, parts, 0);
+            return;
+        }
+        switch (verb) {
+            case "add" -> batch(Kind.ADD, parts, 1);
+            case "replace" -> batch(Kind.REPLACE, parts, 1);
+            case "remove" -> {
+                expect(parts, 3, "remove PROTOCOL PORT");
+                collect(Kind.REMOVE).add(parts[1], port(parts[2]), false);
+            }
+            default -> {
+                flush();
+                command(verb, parts);
+            }
+        }
+    }
+
+    private void command(String verb, String[] parts) throws IOException {
+        switch (verb) {
+            case "clear" -> {
+                expect(parts, 1, "clear");
+                firewall.install(RuleIndex.empty());
+                System.out.println("🧹 Rules cleared");
+            }
+            case "load" -> {
+                expect(parts, 2, "load FILE");
+                long start = System.nanoTime();
+                Path path = Paths.get(parts[1]);
+                if (ChainPolicy.isChainFile(path)) {
+                    ChainPolicy policy = ChainPolicy.load(path);
+                    firewall.installChains(policy);
+                    System.out.printf("⛓️ Loaded %d chains with %d rules from '%s' in %.1f ms%n",
+                            policy.chains(), policy.rules(), parts[1], (System.nanoTime() - start) / 1e6);
+                    return;
+                }
+                RuleIndex loaded = RuleText.load(path);
+                firewall.install(loaded);
+                firewall.installChains(null);
+                System.out.printf("📂 Loaded %d rules from '%s' in %.1f ms%n", loaded.size(), parts[1], (System.nanoTime() - start) / 1e6);
+            }
+            case "import" -> {
+                expect(parts, 2, "import FILE");
+                long start = System.nanoTime();
+                RuleIndex file = RuleText.load(Paths.get(parts[1]));
+                int added = firewall.addRules(file.toBuilder());
+                System.out.printf("📥 Imported %d of %d rules from '%s' in %.1f ms (%d rules)%n",
+                        added, file.size(), parts[1], (System.nanoTime() - start) / 1e6, firewall.rules().size());
+            }
+            case "save" -> {
+                expect(parts, 2, "save FILE");
+                Path path = Paths.get(parts[1]);
+                if (parts[1].endsWith(".bin")) firewall.rules().save(path);
+                else RuleText.write(firewall.rules(), path);
+                System.out.println("💾 Saved " + firewall.rules().size() + " rules to '" + path + "'");
+            }
+            case "blocklist" -> {
+                expect(parts, 2, "blocklist FILE");
+                IpBlocklist list = IpBlocklist.load(Paths.get(parts[1]));
+                router.blocklist = list;
+                System.out.println("⛔ Blocklist loaded: " + list.intervals() + " ranges covering " + list.addresses() + " addresses, "
+                        + list.prefixes6() + " IPv6 prefixes");
+            }
+            case "signatures" -> {
+                expect(parts, 2, "signatures FILE");
+                long start = System.nanoTime();
+                SignatureMatcher loaded = SignatureMatcher.load(Paths.get(parts[1]));
+                firewall.installPayloadRules(firewall.payloadRules().withSignatures(loaded));
+                System.out.printf("🧬 Compiled %d signatures from '%s' into %d states in %.1f ms%n",
+                        loaded.size(), parts[1], loaded.states(), (System.nanoTime() - start) / 1e6);
+            }
+            case "inspect" -> {
+                expect(parts, 5, "inspect ACTION PROTOCOL|ANY PORT|ANY SIGNATURE|ANY");
+                PayloadRules dpi = firewall.payloadRules().add(parts[1], parts[2], parts[3], parts[4]);
+                firewall.installPayloadRules(dpi);
+                System.out.println("🧬 Payload rule added: " + dpi.describe(dpi.size() - 1));
+            }
+            case "send" -> {
+                if (parts.length < 5) throw new IllegalArgumentException("expected 'send SOURCE DESTINATION PROTOCOL PORT [PAYLOAD]'");
+                Packet packet = new Packet(parts[1], parts[2], parts[3], port(parts[4]));
+                if (parts.length > 5) {
+                    String payload = String.join(" ", Arrays.copyOfRange(parts, 5, parts.length));
+                    packet.payload = ByteBuffer.wrap(SignatureMatcher.content(payload));
+                }
+                router.forwardPacket(packet);
+            }
+            case "rules" -> {
+                expect(parts, 1, "rules");
+                firewall.viewRules();
+            }
+            case "qos" -> {
+                expect(parts, 1, "qos");
+                System.out.print("🚦 Egress queues:\n" + router.egressReport(System.nanoTime()));
+            }
+            case "simulate" -> {
+                if (parts.length < 2 || parts.length > 3) throw new IllegalArgumentException("expected 'simulate ATTACK [SECONDS]'");
+                if (!Arrays.asList(QosSimulation.ATTACKS).contains(parts[1])) {
+                    throw new IllegalArgumentException("unknown attack '" + parts[1] + "' (use " + String.join(", ", QosSimulation.ATTACKS) + ")");
+                }
+                double seconds = parts.length == 3 ? Double.parseDouble(parts[2]) : 4;
+                if (seconds <= 0 || seconds > 60) throw new IllegalArgumentException("seconds must be between 0 and 60");
+                QosSimulation.run(firewall, router.blocklist, parts[1], seconds);
+            }
+            default -> throw new IllegalArgumentException("unknown command '" + parts[0] + "'");
+        }
+    }
+
+    // ACTION PROTOCOL PORT starting at parts[from]
+    private void batch(Kind kind, String[] parts, int from) {
+        if (parts.length != from + 3) throw new IllegalArgumentException("expected 'ALLOW|BLOCK PROTOCOL PORT'");
+        Boolean allow = RuleText.parseAction(parts[from]);
+        if (allow == null) throw new IllegalArgumentException("unknown action '" + parts[from] + "'");
+        collect(kind).add(parts[from + 1], port(parts[from + 2]), allow);
+    }
+
+    private RuleIndex.Builder collect(Kind kind) {
+        if (pending != kind) {
+            flush();
+            pending = kind;
+            batchStart = System.nanoTime();
+        }
+        return batch;
+    }
+
+    // Applies the collected batch with one rebuild
+    private void flush() {
+        if (pending == null) return;
+        int n = batch.size();
+        int before = firewall.rules().size();
+        String result = switch (pending) {
+            case ADD -> firewall.addRules(batch) + " of " + n + " rules added";
+            case REMOVE -> firewall.removeRules(batch) + " rules removed";
+            case REPLACE -> {
+                int changed = firewall.replaceRules(batch);
+                yield changed + " rules changed, " + (firewall.rules().size() - before) + " added";
+            }
+        };
+        System.out.printf("✅ %s: %s in %.1f ms (%d rules)%n", pending.name().toLowerCase(), result,
+                (System.nanoTime() - batchStart) / 1e6, firewall.rules().size());
+        pending = null;
+        batch = new RuleIndex.Builder();
+    }
+
+    private static void expect(String[] parts, int n, String usage) {
+        if (parts.length != n) throw new IllegalArgumentException("expected '" + usage + "'");
+    }
+
+    private static int port(String text) {
+        int port;
+        try {
+            port = Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid port '" + text + "'");
+        }
+        if (port < 0 || port > 65535) throw new IllegalArgumentException("port must be between 0 and 65535");
+        return port;
+    }
+}
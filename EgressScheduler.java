@@ -0,0 +1,196 @@
+import java.util.Arrays;
+
+// Egress queueing for one route. Forwarded packets are put in a traffic class by
+// protocol, each class has a bounded FIFO (tail drop), and the classes are served by
+// deficit round-robin: every turn a class may send up to its quantum in bytes, so under
+// load the link splits in proportion to the weights whatever the packet sizes. A token
+// bucket filling at the route's capacity decides when the next packet leaves, so short
+// bursts up to the bucket size pass at once and sustained load is held to the rate.
+//
+// Time is whatever the caller passes in, in nanoseconds, and only moves forward: the
+// console drives it from System.nanoTime(), QosSimulation from a simulated clock. Queues
+// hold only sizes and enqueue times, in primitive rings.
+final class EgressScheduler {
+    static final String[] CLASSES = {"interactive", "web", "bulk"};
+    static final int INTERACTIVE = 0, WEB = 1, BULK = 2;
+    static final int[] WEIGHTS = {4, 3, 1};
+    // Size of a packet without a payload, per class
+    private static final int[] DEFAULT_BYTES = {128, 1000, 1500};
+    private static final int MTU = 1500;
+
+    final String route;
+    private final long rate;            // bytes per second
+    private final long burst;           // bucket size, bytes
+    private final int limit;            // packets per class queue
+    private final int[] quantum;
+
+    private final int[][] sizes;
+    private final long[][] enqueued;
+    private final int[] head, count, deficit;
+    private int turn;
+    private boolean fresh = true;       // the class whose turn it is has not had its quantum yet
+    private double tokens;
+    private long refilledAt;
+
+    // Per class, since the last resetStats
+    private final long[] offered = new long[CLASSES.length], sent = new long[CLASSES.length];
+    private final long[] sentBytes = new long[CLASSES.length], dropped = new long[CLASSES.length];
+    private final long[] delayNanos = new long[CLASSES.length], maxDelayNanos = new long[CLASSES.length];
+    private long statsSince;
+
+    EgressScheduler(String route, long bytesPerSecond, long burstBytes, int queueLimit, int[] weights, long now) {
+        if (bytesPerSecond <= 0 || burstBytes < MTU || queueLimit <= 0) {
+            throw new IllegalArgumentException("Rate and queue limit must be positive and the burst at least " + MTU + " bytes");
+        }
+        if (weights.length != CLASSES.length) throw new IllegalArgumentException("Expected " + CLASSES.length + " weights");
+        this.route = route;
+        rate = bytesPerSecond;
+        burst = burstBytes;
+        limit = queueLimit;
+        quantum = new int[CLASSES.length];
+        for (int c = 0; c < quantum.length; c++) {
+            if (weights[c] <= 0) throw new IllegalArgumentException("Weights must be positive");
+            quantum[c] = weights[c] * MTU;
+        }
+        sizes = new int[CLASSES.length][queueLimit];
+        enqueued = new long[CLASSES.length][queueLimit];
+        head = new int[CLASSES.length];
+        count = new int[CLASSES.length];
+        deficit = new int[CLASSES.length];
+        tokens = burstBytes;
+        refilledAt = statsSince = now;
+    }
+
+    // One scheduler per Router route, sized like a LAN, a site link and an uplink
+    static EgressScheduler[] forRoutes(String[] routes, long now) {
+        long[] rates = {125_000_000, 12_500_000, 1_250_000};       // 1 Gbit/s, 100 Mbit/s, 10 Mbit/s
+        EgressScheduler[] schedulers = new EgressScheduler[routes.length];
+        for (int i = 0; i < routes.length; i++) {
+            long r = rates[Math.min(i, rates.length - 1)];
+            schedulers[i] = new EgressScheduler(routes[i], r, Math.max(r / 100, 64 * 1024), 256, WEIGHTS, now);
+        }
+        return schedulers;
+    }
+
+    static int classify(String protocol, int port) {
+        switch (protocol) {
+            case "SSH", "DNS", "ICMP", "TELNET", "NTP" -> {
+                return INTERACTIVE;
+            }
+            case "HTTP", "HTTPS" -> {
+                return WEB;
+            }
+            default -> {
+                return port == 22 || port == 53 || port == 123 ? INTERACTIVE
+                        : port == 80 || port == 443 || port == 8080 ? WEB : BULK;
+            }
+        }
+    }
+
+    // Headers plus the payload if the packet has one, else a typical size for its class
+    static int wireBytes(Packet packet, int trafficClass) {
+        if (packet.payload == null) return DEFAULT_BYTES[trafficClass];
+        return Math.max(64, Math.min(MTU, 40 + packet.payload.remaining()));
+    }
+
+    boolean offer(Packet packet, long now) {
+        int c = classify(packet.protocol, packet.port);
+        return offer(c, wireBytes(packet, c), now);
+    }
+
+    // Queues a packet arriving at now; false if its class queue is full and it was dropped
+    synchronized boolean offer(int trafficClass, int bytes, long now) {
+        advance(now);
+        offered[trafficClass]++;
+        if (count[trafficClass] == limit) {
+            dropped[trafficClass]++;
+            return false;
+        }
+        int tail = (head[trafficClass] + count[trafficClass]++) % limit;
+        sizes[trafficClass][tail] = Math.min(bytes, MTU);
+        enqueued[trafficClass][tail] = now;
+        advance(now);
+        return true;
+    }
+
+    // Sends every packet that could have started by now
+    synchronized void advance(long now) {
+        while (backlog() > 0) {
+            int c = pick();
+            int bytes = sizes[c][head[c]];
+            long start = Math.max(refilledAt, enqueued[c][head[c]]);
+            double available = Math.min(burst, tokens + (start - refilledAt) * 1e-9 * rate);
+            if (available < bytes) start += (long) Math.ceil((bytes - available) * 1e9 / rate);
+            if (start > now) break;
+            tokens = Math.min(burst, tokens + (start - refilledAt) * 1e-9 * rate) - bytes;
+            refilledAt = start;
+
+            long delay = start - enqueued[c][head[c]];
+            head[c] = (head[c] + 1) % limit;
+            if (--count[c] == 0) deficit[c] = 0;
+            else deficit[c] -= bytes;
+            sent[c]++;
+            sentBytes[c] += bytes;
+            delayNanos[c] += delay;
+            maxDelayNanos[c] = Math.max(maxDelayNanos[c], delay);
+        }
+    }
+
+    // Deficit round-robin: the class whose head packet goes next; some queue must be non-empty
+    private int pick() {
+        while (true) {
+            int c = turn;
+            if (count[c] > 0) {
+                if (fresh) {
+                    deficit[c] += quantum[c];
+                    fresh = false;
+                }
+                if (sizes[c][head[c]] <= deficit[c]) return c;
+            } else {
+                deficit[c] = 0;
+            }
+            turn = (c + 1) % CLASSES.length;
+            fresh = true;
+        }
+    }
+
+    synchronized int backlog() {
+        int total = 0;
+        for (int n : count) total += n;
+        return total;
+    }
+
+    synchronized void resetStats(long now) {
+        advance(now);
+        for (long[] a : new long[][]{offered, sent, sentBytes, dropped, delayNanos, maxDelayNanos}) Arrays.fill(a, 0);
+        statsSince = now;
+    }
+
+    long dropped(int trafficClass) {
+        return dropped[trafficClass];
+    }
+
+    long sentBytes(int trafficClass) {
+        return sentBytes[trafficClass];
+    }
+
+    // Mean queueing delay in nanoseconds
+    long meanDelay(int trafficClass) {
+        return sent[trafficClass] == 0 ? 0 : delayNanos[trafficClass] / sent[trafficClass];
+    }
+
+    // Per-class throughput, queueing delay and drops since the last reset
+    synchronized String report(long now) {
+        advance(now);
+        double seconds = Math.max(1e-9, (now - statsSince) / 1e9);
+        StringBuilder sb = new StringBuilder(String.format("   %s (%.1f Mbit/s, burst %d KB, %d packets per class queue):%n",
+                route, rate * 8 / 1e6, burst / 1024, limit));
+        for (int c = 0; c < CLASSES.length; c++) {
+            sb.append(String.format("      %-11s weight %d | %8.2f Mbit/s | delay avg %8.2f ms, max %8.2f ms | %6d sent, %6d dropped (%5.1f%%) | %3d queued%n",
+                    CLASSES[c], quantum[c] / MTU, sentBytes[c] * 8 / seconds / 1e6,
+                    meanDelay(c) / 1e6, maxDelayNanos[c] / 1e6, sent[c], dropped[c],
+                    offered[c] == 0 ? 0.0 : dropped[c] * 100.0 / offered[c], count[c]));
+        }
+        return sb.toString();
+    }
+}
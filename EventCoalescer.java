@@ -0,0 +1,176 @@
+import java.io.Closeable;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.function.Consumer;
+
+// Collapses repeated firewall events before they reach the log. Events with the
+// same source, protocol, port and verdict inside one window become a single record
+//
+//   <first> | HTTP:80 | 203.0.113.7 → 10.0.0.5 | BLOCKED | count=48213 | last=<last>
+//
+// (a lone event keeps the plain one-line form). Alerts are coalesced the same way:
+// the first one in a window is printed and the rest are summed into one summary
+// line when the window closes. A daemon ticker closes windows while traffic is idle.
+final class EventCoalescer implements Closeable {
+    private static final int MAX_PENDING = 100_000;
+
+    private static final class Pending {
+        final long first;
+        final String event;    // "PROTO:port | src → dst | VERDICT" of the first occurrence
+        long last;
+        long count;
+
+        Pending(long first, String event) {
+            this.first = first;
+            this.event = event;
+            this.last = first;
+        }
+    }
+
+    private final long windowMillis;
+    private final Consumer<CharSequence> out;
+    private final LinkedHashMap<String, Pending> pending = new LinkedHashMap<>(); // oldest window first
+    private final StringBuilder batch = new StringBuilder();
+    private final Thread ticker;
+    private volatile boolean running = true;
+
+    private long events, records;
+    private long alerts, alertsPrinted;
+    private long alertWindowStart = Long.MIN_VALUE;
+    private long alertsSuppressed;
+    private final Set<String> suppressedSources = new HashSet<>();
+
+    // windowMillis <= 0 turns coalescing off: every event is written as it happens
+    EventCoalescer(long windowMillis, Consumer<CharSequence> out) {
+        this.windowMillis = windowMillis;
+        this.out = out;
+        ticker = new Thread(this::tick, "log-coalescer");
+        ticker.setDaemon(true);
+        if (windowMillis > 0) ticker.start();
+    }
+
+    boolean enabled() {
+        return windowMillis > 0;
+    }
+
+    // Counts one log event; returns false when coalescing is off and the caller should write it itself
+    boolean add(Packet packet, boolean allowed) {
+        String verdict = allowed ? "ALLOWED" : "BLOCKED";
+        if (windowMillis <= 0) {
+            synchronized (this) {
+                events++;
+                records++;
+            }
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        String key = packet.sourceIP + '|' + packet.protocol + ':' + packet.port + '|' + verdict;
+        CharSequence ready;
+        synchronized (this) {
+            events++;
+            Pending p = pending.get(key);
+            if (p == null) {
+                p = new Pending(now, packet + " | " + verdict);
+                pending.put(key, p);
+            }
+            p.last = now;
+            p.count++;
+            ready = closeWindows(now, pending.size() > MAX_PENDING);
+        }
+        if (ready != null) out.accept(ready);
+        return true;
+    }
+
+    // Returns true if the caller should print this alert; the rest of the window is summarised later
+    boolean alert(String source) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            alerts++;
+            if (windowMillis <= 0 || alertWindowStart == Long.MIN_VALUE || now - alertWindowStart >= windowMillis) {
+                printAlertSummary();
+                alertWindowStart = now;
+                alertsPrinted++;
+                return true;
+            }
+            alertsSuppressed++;
+            if (suppressedSources.size() < MAX_PENDING) suppressedSources.add(source);
+            return false;
+        }
+    }
+
+    private void printAlertSummary() {
+        if (alertsSuppressed == 0) return;
+        System.out.printf("🚨 ALERT: %d more repeated-block alerts from %d sources in the last %.1fs (coalesced)%n",
+                alertsSuppressed, suppressedSources.size(), windowMillis / 1000.0);
+        alertsPrinted++;
+        alertsSuppressed = 0;
+        suppressedSources.clear();
+    }
+
+    // Renders every record whose window has ended (or all of them); null if there are none
+    private CharSequence closeWindows(long now, boolean overfull) {
+        for (Iterator<Pending> it = pending.values().iterator(); it.hasNext(); ) {
+            Pending p = it.next();
+            if (now - p.first < windowMillis && !overfull) break;
+            batch.append(time(p.first)).append(" | ").append(p.event);
+            if (p.count > 1) batch.append(" | count=").append(p.count).append(" | last=").append(time(p.last));
+            batch.append('\n');
+            records++;
+            it.remove();
+            overfull = false;
+        }
+        if (batch.length() == 0) return null;
+        String lines = batch.toString();
+        batch.setLength(0);
+        return lines;
+    }
+
+    private static LocalDateTime time(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    // Writes out everything still pending
+    void flush() {
+        CharSequence ready;
+        synchronized (this) {
+            ready = closeWindows(Long.MAX_VALUE, false);
+            if (alertWindowStart != Long.MIN_VALUE) printAlertSummary();
+        }
+        if (ready != null) out.accept(ready);
+    }
+
+    private void tick() {
+        while (running) {
+            try {
+                Thread.sleep(Math.max(10, windowMillis / 2));
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            CharSequence ready;
+            synchronized (this) {
+                ready = closeWindows(now, false);
+                if (alertWindowStart != Long.MIN_VALUE && now - alertWindowStart >= windowMillis) printAlertSummary();
+            }
+            if (ready != null) out.accept(ready);
+        }
+    }
+
+    synchronized String report() {
+        return String.format("🧮 Log coalescing: %,d events → %,d records (%.2f%% suppressed); alerts: %,d raised → %,d printed",
+                events, records + pending.size(), suppression(events, records + pending.size()), alerts, alertsPrinted + (alertsSuppressed > 0 ? 1 : 0));
+    }
+
+    private static double suppression(long in, long out) {
+        return in == 0 ? 0 : 100.0 * (in - out) / in;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        ticker.interrupt();
+        flush();
+    }
+}
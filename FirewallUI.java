@@ -168,6 +168,7 @@ import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.*;
 
+@SuppressWarnings("serial")
 public class FirewallUI extends JFrame {
     private Firewall firewall;
     private Router router;
@@ -0,0 +1,40 @@
+// Allocation-free helpers for dotted-quad IPv4 addresses packed into an int
+final class IPv4 {
+    static final long INVALID = -1L;
+
+    private IPv4() {
+    }
+
+    // Returns the address as 0..2^32-1, or INVALID if the text is not a dotted quad
+    static long parse(CharSequence s) {
+        return s == null ? INVALID : parse(s, 0, s.length());
+    }
+
+    static long parse(CharSequence s, int from, int to) {
+        long ip = 0;
+        int octets = 0, value = 0, digits = 0;
+        for (int i = from; i <= to; i++) {
+            char c = i < to ? s.charAt(i) : '.';
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                if (++digits > 3 || value > 255) return INVALID;
+            } else if (c == '.') {
+                if (digits == 0 || ++octets > 4) return INVALID;
+                ip = (ip << 8) | value;
+                value = 0;
+                digits = 0;
+            } else {
+                return INVALID;
+            }
+        }
+        return octets == 4 ? ip : INVALID;
+    }
+
+    static String format(int ip) {
+        return new StringBuilder(15)
+                .append(ip >>> 24).append('.')
+                .append((ip >>> 16) & 0xff).append('.')
+                .append((ip >>> 8) & 0xff).append('.')
+                .append(ip & 0xff).toString();
+    }
+}
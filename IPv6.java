@@ -0,0 +1,182 @@
+// Allocation-free helpers for IPv6 addresses held as two longs: the high and the low
+// 64 bits. Parsing accepts the RFC 4291 text forms, "::" compression and a trailing
+// dotted quad (::ffff:192.0.2.1) included, and writes into a caller-owned long[2].
+final class IPv6 {
+    private static final ThreadLocal<long[]> SCRATCH = ThreadLocal.withInitial(() -> new long[2]);
+
+    private IPv6() {
+    }
+
+    // A long[2] owned by the calling thread, for parsing on paths that get addresses as text
+    static long[] scratch() {
+        return SCRATCH.get();
+    }
+
+    // True if the text is an IPv6 address
+    static boolean isValid(CharSequence s) {
+        return s != null && parse(s, 0, s.length(), null);
+    }
+
+    // Stores the address in out[0] (high bits) and out[1] (low bits); false if the text is not IPv6
+    static boolean parse(CharSequence s, long[] out) {
+        return s != null && parse(s, 0, s.length(), out);
+    }
+
+    static boolean parse(CharSequence s, int from, int to, long[] out) {
+        long hi = 0, lo = 0;    // groups shifted in from the right
+        int groups = 0;
+        int gap = -1;           // groups before "::", -1 if there is none
+        int i = from;
+        if (to - from >= 2 && s.charAt(from) == ':' && s.charAt(from + 1) == ':') {
+            gap = 0;
+            i += 2;
+        } else if (i == to || s.charAt(i) == ':') {
+            return false;
+        }
+        while (i < to) {
+            int start = i, value = 0;
+            for (int d; i < to && (d = hexDigit(s.charAt(i))) >= 0; i++) {
+                if (i - start == 4) return false;
+                value = value << 4 | d;
+            }
+            if (i < to && s.charAt(i) == '.') {
+                // a dotted quad can only stand for the last two groups
+                long v4 = IPv4.parse(s, start, to);
+                if (v4 == IPv4.INVALID || groups > 6) return false;
+                hi = hi << 32 | lo >>> 32;
+                lo = lo << 32 | v4;
+                groups += 2;
+                break;
+            }
+            if (i == start || groups == 8) return false;
+            hi = hi << 16 | lo >>> 48;
+            lo = lo << 16 | value;
+            groups++;
+            if (i == to) break;
+            if (s.charAt(i++) != ':' || i == to) return false;
+            if (s.charAt(i) == ':') {
+                if (gap >= 0) return false;
+                gap = groups;
+                i++;
+            }
+        }
+        if (gap < 0 ? groups != 8 : groups > 7) return false;
+        if (gap >= 0 && groups > gap) {
+            // move the groups before "::" to the top, leaving the rest in place
+            int tailBits = (groups - gap) * 16, headShift = 128 - gap * 16;
+            long headHi = shrHi(hi, tailBits), headLo = shrLo(hi, lo, tailBits);
+            long tailHi = tailBits < 64 ? 0 : hi & ((1L << (tailBits - 64)) - 1);
+            long tailLo = tailBits >= 64 ? lo : lo & ((1L << tailBits) - 1);
+            hi = shlHi(headHi, headLo, headShift) | tailHi;
+            lo = shlLo(headLo, headShift) | tailLo;
+        } else if (gap >= 0) {
+            long h = hi;
+            hi = shlHi(h, lo, 128 - gap * 16);
+            lo = shlLo(lo, 128 - gap * 16);
+        }
+        if (out != null) {
+            out[0] = hi;
+            out[1] = lo;
+        }
+        return true;
+    }
+
+    // Prefix length of "address/len" (128 without a slash) with the masked network in out,
+    // or -1 if the text is not an IPv6 address or CIDR
+    static int parsePrefix(CharSequence s, int from, int to, long[] out) {
+        int slash = -1;
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == '/') {
+                slash = i;
+                break;
+            }
+        }
+        int length = 128;
+        if (slash >= 0) {
+            if (slash + 1 == to || to - slash > 4) return -1;
+            length = 0;
+            for (int i = slash + 1; i < to; i++) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') return -1;
+                length = length * 10 + (c - '0');
+            }
+            if (length > 128) return -1;
+        }
+        if (!parse(s, from, slash < 0 ? to : slash, out)) return -1;
+        out[0] &= maskHi(length);
+        out[1] &= maskLo(length);
+        return length;
+    }
+
+    // Unique local (fc00::/7) or link-local (fe80::/10), by the high bits
+    static boolean isPrivate(long hi) {
+        return hi >>> 57 == 0x7e || hi >>> 54 == 0x3fa;
+    }
+
+    static long maskHi(int length) {
+        return length == 0 ? 0 : length >= 64 ? -1L : -1L << (64 - length);
+    }
+
+    static long maskLo(int length) {
+        return length <= 64 ? 0 : length == 128 ? -1L : -1L << (128 - length);
+    }
+
+    // RFC 5952 text: lower case, no leading zeros, the longest run of two or more zero
+    // groups (the first one on a tie) as "::", and IPv4-mapped addresses as a dotted quad
+    static String format(long hi, long lo) {
+        StringBuilder sb = new StringBuilder(39);
+        if (hi == 0 && lo >>> 32 == 0xffffL) {
+            return sb.append("::ffff:").append(IPv4.format((int) lo)).toString();
+        }
+        int bestStart = -1, bestLength = 1;
+        for (int g = 0, run = 0; g < 8; g++) {
+            run = group(hi, lo, g) == 0 ? run + 1 : 0;
+            if (run > bestLength) {
+                bestLength = run;
+                bestStart = g - run + 1;
+            }
+        }
+        for (int g = 0; g < 8; g++) {
+            if (g == bestStart) {
+                sb.append(g == 0 ? "::" : ":");
+                g += bestLength - 1;
+                continue;
+            }
+            sb.append(Integer.toHexString(group(hi, lo, g)));
+            if (g < 7) sb.append(':');
+        }
+        return sb.toString();
+    }
+
+    private static int group(long hi, long lo, int g) {
+        return (int) ((g < 4 ? hi >>> (48 - 16 * g) : lo >>> (112 - 16 * g)) & 0xffff);
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        return -1;
+    }
+
+    // 128-bit shifts over (hi, lo), for 0 <= n <= 128
+    private static long shlHi(long hi, long lo, int n) {
+        if (n == 0) return hi;
+        if (n < 64) return hi << n | lo >>> (64 - n);
+        return n < 128 ? lo << (n - 64) : 0;
+    }
+
+    private static long shlLo(long lo, int n) {
+        return n < 64 ? lo << n : 0;
+    }
+
+    private static long shrHi(long hi, int n) {
+        return n < 64 ? hi >>> n : 0;
+    }
+
+    private static long shrLo(long hi, long lo, int n) {
+        if (n == 0) return lo;
+        if (n < 64) return lo >>> n | hi << (64 - n);
+        return n < 128 ? hi >>> (n - 64) : 0;
+    }
+}
@@ -0,0 +1,108 @@
+import java.util.Arrays;
+
+// Longest-prefix match over IPv6 prefixes, for the routing table and the IPv6 entries of
+// the blocklist. The top 16 bits index a 65,536-slot root, as in IpBlocklist's /16
+// directory; below it each level consumes 4 bits through 16-slot nodes packed into the
+// same flat arrays. A prefix that ends inside a level is expanded into every slot it
+// covers (slots a longer prefix already holds keep it), so a lookup reads one slot per
+// level and keeps the last value seen on the way down: a /48 costs 9 reads.
+final class IPv6Trie {
+    static final int NOT_FOUND = -1;
+    private static final int ROOT_BITS = 16;
+    private static final int STRIDE = 4;
+    private static final int FANOUT = 1 << STRIDE;
+    private static final int ROOT = 1 << ROOT_BITS;
+
+    // Per slot: offset of the child node (0 = none), value and the length of the prefix it came from
+    private int[] child = new int[ROOT + FANOUT * 1024];
+    private int[] value = new int[child.length];
+    private byte[] length = new byte[child.length];
+    private int used = ROOT;
+    private int defaultValue = NOT_FOUND;
+    private int prefixes;
+
+    IPv6Trie() {
+        Arrays.fill(value, NOT_FOUND);
+    }
+
+    // Adds hi:lo/len with a non-negative value; the same prefix added again is replaced
+    IPv6Trie put(long hi, long lo, int len, int v) {
+        if (len < 0 || len > 128) throw new IllegalArgumentException("Prefix length must be between 0 and 128");
+        if (v < 0) throw new IllegalArgumentException("Value must not be negative");
+        prefixes++;
+        if (len == 0) {
+            defaultValue = v;
+            return this;
+        }
+        int top = (int) (hi >>> (64 - ROOT_BITS));
+        if (len <= ROOT_BITS) {
+            expand(top & -(1 << (ROOT_BITS - len)), 1 << (ROOT_BITS - len), len, v);
+            return this;
+        }
+        int node = childOf(top);
+        int pos = ROOT_BITS;
+        for (; len > pos + STRIDE; pos += STRIDE) node = childOf(node + nibble(hi, lo, pos));
+        int span = pos + STRIDE - len;
+        expand(node + (nibble(hi, lo, pos) & -(1 << span)), 1 << span, len, v);
+        return this;
+    }
+
+    private void expand(int first, int count, int len, int v) {
+        for (int slot = first; slot < first + count; slot++) {
+            if ((length[slot] & 0xff) <= len) {
+                value[slot] = v;
+                length[slot] = (byte) len;
+            }
+        }
+    }
+
+    private int childOf(int slot) {
+        if (child[slot] != 0) return child[slot];
+        if (used + FANOUT > child.length) {
+            int size = child.length * 2;
+            child = Arrays.copyOf(child, size);
+            int old = value.length;
+            value = Arrays.copyOf(value, size);
+            Arrays.fill(value, old, size, NOT_FOUND);
+            length = Arrays.copyOf(length, size);
+        }
+        child[slot] = used;
+        used += FANOUT;
+        return child[slot];
+    }
+
+    private static int nibble(long hi, long lo, int pos) {
+        return (int) ((pos < 64 ? hi >>> (60 - pos) : lo >>> (124 - pos)) & (FANOUT - 1));
+    }
+
+    // Value of the longest prefix containing hi:lo, NOT_FOUND if none does
+    int lookup(long hi, long lo) {
+        int found = defaultValue;
+        int slot = (int) (hi >>> (64 - ROOT_BITS));
+        for (int pos = ROOT_BITS; ; pos += STRIDE) {
+            int v = value[slot];
+            if (v != NOT_FOUND) found = v;
+            int node = child[slot];
+            if (node == 0) return found;
+            slot = node + nibble(hi, lo, pos);
+        }
+    }
+
+    // The same lookup for an address given as text; NOT_FOUND also if it is not IPv6
+    int lookup(CharSequence address) {
+        long[] a = IPv6.scratch();
+        return IPv6.parse(address, a) ? lookup(a[0], a[1]) : NOT_FOUND;
+    }
+
+    int prefixes() {
+        return prefixes;
+    }
+
+    int nodes() {
+        return (used - ROOT) / FANOUT;
+    }
+
+    long memoryBytes() {
+        return 9L * child.length;
+    }
+}
@@ -0,0 +1,159 @@
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded queue in front of Router.decide. Producers never wait: when the queue
+// is full (or, for PRIORITY, past its high-water mark) the overload policy decides
+// what happens to the packet, so the backlog and with it the latency stay bounded.
+//
+//   DROP      fail closed: the packet is shed and counts as blocked
+//   BYPASS    fail open: the packet is let through without inspection
+//   PRIORITY  packets of established flows (allowed recently) are still queued
+//             up to the full capacity; new flows are shed past the high-water mark
+class IngestQueue implements Closeable {
+    enum Policy { DROP, BYPASS, PRIORITY }
+
+    static final int FLOW_TABLE_SIZE = 1 << 16;   // direct-mapped; a collision just forgets a flow
+
+    private final Router router;
+    private final Policy policy;
+    private final ArrayBlockingQueue<Packet> queue;
+    private final int capacity, highWater;
+    private final AtomicLongArray flows = new AtomicLongArray(FLOW_TABLE_SIZE);
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    final LongAdder submitted = new LongAdder(), queued = new LongAdder();
+    final LongAdder shedNew = new LongAdder(), shedFull = new LongAdder(), bypassed = new LongAdder();
+    final LongAdder allowed = new LongAdder(), blocked = new LongAdder(), invalid = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+    private volatile int maxDepth;
+    private volatile boolean overloaded;         // as of the last submit, for counting episodes
+    private final LongAdder overloadEpisodes = new LongAdder();
+
+    IngestQueue(Router router, Policy policy, int capacity) {
+        this.router = router;
+        this.policy = policy;
+        this.capacity = capacity;
+        this.highWater = Math.max(1, capacity * 3 / 4);
+        queue = new ArrayBlockingQueue<>(capacity);
+        worker = new Thread(this::run, "ingest-worker");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // Never blocks; the policy handles whatever does not fit
+    void submit(Packet packet) {
+        submitted.increment();
+        int depth = queue.size();
+        if (depth > maxDepth) maxDepth = depth;
+        boolean overload = depth >= highWater;
+        if (overload != overloaded) {
+            overloaded = overload;
+            if (overload) overloadEpisodes.increment();
+        }
+        if (policy == Policy.PRIORITY && overload && !isEstablished(packet)) {
+            shedNew.increment();
+            return;
+        }
+        if (queue.offer(packet)) {
+            queued.increment();
+            return;
+        }
+        if (policy == Policy.BYPASS) bypassed.increment();
+        else shedFull.increment();
+    }
+
+    private void run() {
+        while (running) {
+            Packet p;
+            try {
+                p = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (p == null) continue;
+            int verdict;
+            synchronized (router.firewall) {
+                verdict = router.decide(p);
+            }
+            switch (verdict) {
+                case Router.ALLOWED -> {
+                    allowed.increment();
+                    if (policy == Policy.PRIORITY) markEstablished(p);
+                }
+                case Router.INVALID -> invalid.increment();
+                default -> blocked.increment();
+            }
+            processed.increment();
+        }
+    }
+
+    private static long flowKey(Packet p) {
+        long h = address(p.sourceIP) * 0x9E3779B97F4A7C15L;
+        h = (h ^ address(p.destIP)) * 0x9E3779B97F4A7C15L;
+        h = (h ^ ((long) p.protocol.hashCode() << 16 | p.port)) * 0x9E3779B97F4A7C15L;
+        return h == 0 ? 1 : h;
+    }
+
+    private static long address(String ip) {
+        long v4 = IPv4.parse(ip);
+        if (v4 != IPv4.INVALID) return v4;
+        long[] a = IPv6.scratch();
+        return IPv6.parse(ip, a) ? a[0] * 31 + a[1] : ip.hashCode();
+    }
+
+    private boolean isEstablished(Packet p) {
+        long key = flowKey(p);
+        return flows.get((int) (key >>> 48) & (FLOW_TABLE_SIZE - 1)) == key;
+    }
+
+    private void markEstablished(Packet p) {
+        long key = flowKey(p);
+        flows.lazySet((int) (key >>> 48) & (FLOW_TABLE_SIZE - 1), key);
+    }
+
+    int depth() {
+        return queue.size();
+    }
+
+    // Queue at or past its high-water mark right now
+    boolean overloaded() {
+        return queue.size() >= highWater;
+    }
+
+    long shed() {
+        return shedNew.sum() + shedFull.sum();
+    }
+
+    // Waits until every queued packet has been decided
+    void drain() {
+        while (processed.sum() < queued.sum() && worker.isAlive()) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    String stats() {
+        long in = submitted.sum();
+        return String.format("   Ingest:    %s, queue %d/%d (max %d) | %s%n"
+                        + "   Queued:    %d | Shed: %d new flows + %d on full queue | Bypassed: %d (%.2f%% of input not inspected)%n"
+                        + "   Decided:   %d allowed, %d blocked, %d invalid | overload episodes: %d%n",
+                policy, depth(), capacity, maxDepth, overloaded() ? "🔴 OVERLOADED" : "🟢 OK",
+                queued.sum(), shedNew.sum(), shedFull.sum(), bypassed.sum(),
+                in == 0 ? 0.0 : 100.0 * (shed() + bypassed.sum()) / in,
+                allowed.sum(), blocked.sum(), invalid.sum(), overloadEpisodes.sum());
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        worker.interrupt();
+    }
+}
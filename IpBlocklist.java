@@ -0,0 +1,192 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+
+// Source-address blocklist for threat-intel feeds. Addresses, CIDRs and ranges are
+// merged into sorted, disjoint intervals held in two int arrays. A directory indexed
+// by the top 16 address bits narrows each lookup to the few intervals around that
+// /16, so the binary search that follows stays inside one or two cache lines.
+// IPv6 addresses and CIDRs go to a prefix trie instead.
+final class IpBlocklist {
+    static final IpBlocklist EMPTY = new IpBlocklist(new int[0], new int[0], null);
+
+    // Interval bounds with the sign bit flipped so signed compares order them as unsigned
+    private final int[] starts;
+    private final int[] ends;
+    // First interval whose end reaches into each /16; entry 65536 is the interval count
+    private final int[] directory = new int[65537];
+    private final IPv6Trie v6;      // null if there are no IPv6 entries
+
+    private IpBlocklist(int[] starts, int[] ends, IPv6Trie v6) {
+        this.starts = starts;
+        this.ends = ends;
+        this.v6 = v6;
+        int i = 0;
+        for (int prefix = 0; prefix <= 0xffff; prefix++) {
+            int first = (prefix << 16) ^ Integer.MIN_VALUE;
+            while (i < ends.length && ends[i] < first) i++;
+            directory[prefix] = i;
+        }
+        directory[65536] = ends.length;
+    }
+
+    boolean contains(String ip) {
+        long addr = IPv4.parse(ip);
+        if (addr != IPv4.INVALID) return contains((int) addr);
+        return v6 != null && v6.lookup(ip) != IPv6Trie.NOT_FOUND;
+    }
+
+    boolean contains(long hi, long lo) {
+        return v6 != null && v6.lookup(hi, lo) != IPv6Trie.NOT_FOUND;
+    }
+
+    boolean contains(int ip) {
+        int prefix = ip >>> 16;
+        int key = ip ^ Integer.MIN_VALUE;
+        // First interval ending at or after ip; it can only cover ip if it also starts before it
+        int lo = directory[prefix], hi = directory[prefix + 1];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo < starts.length && starts[lo] <= key;
+    }
+
+    int intervals() {
+        return starts.length;
+    }
+
+    int prefixes6() {
+        return v6 == null ? 0 : v6.prefixes();
+    }
+
+    long addresses() {
+        long total = 0;
+        for (int i = 0; i < starts.length; i++) total += (long) ends[i] - starts[i] + 1;
+        return total;
+    }
+
+    long memoryBytes() {
+        return 8L * starts.length + 4L * directory.length + 64 + (v6 == null ? 0 : v6.memoryBytes());
+    }
+
+    // One entry per line: 203.0.113.7, 198.51.100.0/24, 10.0.0.1-10.0.0.99, 2001:db8::7 or
+    // 2001:db8:42::/48; '#' starts a comment
+    static IpBlocklist load(Path path) throws IOException {
+        Builder builder = new Builder();
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNo = 0;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                if (!builder.addEntry(line)) {
+                    throw new IOException(path.getFileName() + ":" + lineNo + ": not an IP address, CIDR or range");
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    static final class Builder {
+        private long[] ranges = new long[1024]; // (start << 32 | end) ^ sign bit, so they sort unsigned
+        private int count;
+        private IPv6Trie v6;
+        private final long[] address = new long[2];
+
+        // Returns false if the line is not blank/comment and cannot be parsed
+        boolean addEntry(CharSequence line) {
+            int from = 0, to = line.length();
+            for (int i = 0; i < to; i++) {
+                if (line.charAt(i) == '#') {
+                    to = i;
+                    break;
+                }
+            }
+            while (from < to && Character.isWhitespace(line.charAt(from))) from++;
+            while (to > from && Character.isWhitespace(line.charAt(to - 1))) to--;
+            if (from == to) return true;
+            for (int i = from; i < to; i++) {
+                if (line.charAt(i) == ':') {
+                    int bits = IPv6.parsePrefix(line, from, to, address);
+                    if (bits < 0) return false;
+                    add6(address[0], address[1], bits);
+                    return true;
+                }
+            }
+            for (int i = from; i < to; i++) {
+                char c = line.charAt(i);
+                if (c == '/') {
+                    long base = IPv4.parse(line, from, i);
+                    int bits = parseBits(line, i + 1, to);
+                    if (base == IPv4.INVALID || bits < 0) return false;
+                    long size = 1L << (32 - bits);
+                    long start = base & ~(size - 1);
+                    add(start, start + size - 1);
+                    return true;
+                }
+                if (c == '-') {
+                    long start = IPv4.parse(line, from, i), end = IPv4.parse(line, i + 1, to);
+                    if (start == IPv4.INVALID || end == IPv4.INVALID || end < start) return false;
+                    add(start, end);
+                    return true;
+                }
+            }
+            long ip = IPv4.parse(line, from, to);
+            if (ip == IPv4.INVALID) return false;
+            add(ip, ip);
+            return true;
+        }
+
+        private static int parseBits(CharSequence s, int from, int to) {
+            if (from == to || to - from > 2) return -1;
+            int bits = 0;
+            for (int i = from; i < to; i++) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') return -1;
+                bits = bits * 10 + (c - '0');
+            }
+            return bits <= 32 ? bits : -1;
+        }
+
+        Builder add(long start, long end) {
+            if (count == ranges.length) ranges = Arrays.copyOf(ranges, count * 2);
+            ranges[count++] = (start << 32 | end) ^ Long.MIN_VALUE;
+            return this;
+        }
+
+        Builder add6(long hi, long lo, int bits) {
+            if (v6 == null) v6 = new IPv6Trie();
+            v6.put(hi, lo, bits, 0);
+            return this;
+        }
+
+        // Sorts and merges overlapping or adjacent ranges: O(n log n)
+        IpBlocklist build() {
+            Arrays.sort(ranges, 0, count);
+            int[] starts = new int[count], ends = new int[count];
+            int n = 0;
+            long curStart = -1, curEnd = -1;
+            for (int i = 0; i < count; i++) {
+                long range = ranges[i] ^ Long.MIN_VALUE;
+                long s = range >>> 32, e = range & 0xffffffffL;
+                if (curStart >= 0 && s <= curEnd + 1) {
+                    curEnd = Math.max(curEnd, e);
+                    continue;
+                }
+                if (curStart >= 0) {
+                    starts[n] = (int) curStart ^ Integer.MIN_VALUE;
+                    ends[n++] = (int) curEnd ^ Integer.MIN_VALUE;
+                }
+                curStart = s;
+                curEnd = e;
+            }
+            if (curStart >= 0) {
+                starts[n] = (int) curStart ^ Integer.MIN_VALUE;
+                ends[n++] = (int) curEnd ^ Integer.MIN_VALUE;
+            }
+            return new IpBlocklist(Arrays.copyOf(starts, n), Arrays.copyOf(ends, n), v6);
+        }
+    }
+}
@@ -0,0 +1,591 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Offline report over one or more firewall logs: top blocked sources, port
+// histogram, hourly block rate and a per-protocol breakdown. Each file is cut into
+// chunks on line boundaries; fork/join tasks parse the memory-mapped chunks straight
+// from bytes into private aggregates, which are merged pairwise on the way back up.
+// Rotated segments are included; compressed ones split into their gzip members.
+//
+//   java LogAnalytics [--top 10] [--threads N] firewall_log1.txt [more logs...]
+public class LogAnalytics {
+    static final long CHUNK_BYTES = 32L << 20;
+    static final int NO_PORT = 65536;
+    private static final byte[] COUNT_FIELD = " | count=".getBytes(StandardCharsets.US_ASCII);
+
+    // Aggregates of one chunk, and after merging, of everything
+    static final class Report {
+        long bytes, lines, events, blocked, malformed;   // events: lines weighted by their coalesced count
+        long unknownSources;                              // blocked events whose source is neither IPv4 nor IPv6
+        final long[] portTotal = new long[NO_PORT + 1];
+        final long[] portBlocked = new long[NO_PORT + 1];
+        final IntCounter blockedSources = new IntCounter();
+        final PairCounter blockedSources6 = new PairCounter();
+        final Map<Long, long[]> hours = new HashMap<>();   // epoch hour -> {total, blocked}
+        final List<String> protocols = new ArrayList<>();
+        long[] protoTotal = new long[8], protoBlocked = new long[8];
+
+        Report merge(Report o) {
+            bytes += o.bytes;
+            lines += o.lines;
+            events += o.events;
+            blocked += o.blocked;
+            malformed += o.malformed;
+            unknownSources += o.unknownSources;
+            for (int i = 0; i <= NO_PORT; i++) {
+                portTotal[i] += o.portTotal[i];
+                portBlocked[i] += o.portBlocked[i];
+            }
+            blockedSources.addAll(o.blockedSources);
+            blockedSources6.addAll(o.blockedSources6);
+            for (Map.Entry<Long, long[]> e : o.hours.entrySet()) {
+                long[] h = hours.computeIfAbsent(e.getKey(), k -> new long[2]);
+                h[0] += e.getValue()[0];
+                h[1] += e.getValue()[1];
+            }
+            for (int i = 0; i < o.protocols.size(); i++) {
+                int id = protocolId(o.protocols.get(i));
+                protoTotal[id] += o.protoTotal[i];
+                protoBlocked[id] += o.protoBlocked[i];
+            }
+            return this;
+        }
+
+        int protocolId(String name) {
+            int id = protocols.indexOf(name);
+            if (id >= 0) return id;
+            protocols.add(name);
+            if (protocols.size() > protoTotal.length) {
+                protoTotal = Arrays.copyOf(protoTotal, protoTotal.length * 2);
+                protoBlocked = Arrays.copyOf(protoBlocked, protoBlocked.length * 2);
+            }
+            return protocols.size() - 1;
+        }
+    }
+
+    // Open-addressing IPv4 -> count map; no boxing on the per-line path
+    static final class IntCounter {
+        private long[] keys = newKeys(1024);   // unsigned address, -1 = empty
+        private long[] counts = new long[1024];
+        private int size;
+
+        private static long[] newKeys(int n) {
+            long[] k = new long[n];
+            Arrays.fill(k, -1L);
+            return k;
+        }
+
+        void add(long key, long delta) {
+            addAndGet(key, delta);
+        }
+
+        // The key's count after adding delta
+        long addAndGet(long key, long delta) {
+            int mask = keys.length - 1;
+            int i = (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+            while (keys[i] != -1L && keys[i] != key) i = (i + 1) & mask;
+            if (keys[i] == -1L) {
+                keys[i] = key;
+                size++;
+            }
+            long n = counts[i] += delta;
+            if (size * 2 > keys.length) grow();
+            return n;
+        }
+
+        void addAll(IntCounter o) {
+            for (int i = 0; i < o.keys.length; i++) {
+                if (o.keys[i] != -1L) add(o.keys[i], o.counts[i]);
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys, oldCounts = counts;
+            keys = newKeys(oldKeys.length * 2);
+            counts = new long[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != -1L) add(oldKeys[i], oldCounts[i]);
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        // Highest counts first
+        List<long[]> top(int n) {
+            PriorityQueue<long[]> heap = new PriorityQueue<>(Comparator.comparingLong(e -> e[1]));
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == -1L) continue;
+                if (heap.size() < n) heap.add(new long[]{keys[i], counts[i]});
+                else if (counts[i] > heap.peek()[1]) {
+                    heap.poll();
+                    heap.add(new long[]{keys[i], counts[i]});
+                }
+            }
+            List<long[]> list = new ArrayList<>(heap);
+            list.sort((a, b) -> Long.compare(b[1], a[1]));
+            return list;
+        }
+    }
+
+    // Open-addressing IPv6 -> count map, the address held as its high and low 64 bits
+    static final class PairCounter {
+        private long[] hi = new long[64], lo = new long[64];
+        private long[] counts = new long[64];   // 0 = empty; every count is at least 1
+        private int size;
+
+        void add(long h, long l, long delta) {
+            int mask = counts.length - 1;
+            int i = (int) ((h * 31 + l) * 0x9E3779B97F4A7C15L >>> 32) & mask;
+            while (counts[i] != 0 && (hi[i] != h || lo[i] != l)) i = (i + 1) & mask;
+            if (counts[i] == 0) {
+                hi[i] = h;
+                lo[i] = l;
+                size++;
+            }
+            counts[i] += delta;
+            if (size * 2 > counts.length) grow();
+        }
+
+        void addAll(PairCounter o) {
+            for (int i = 0; i < o.counts.length; i++) {
+                if (o.counts[i] != 0) add(o.hi[i], o.lo[i], o.counts[i]);
+            }
+        }
+
+        private void grow() {
+            long[] oldHi = hi, oldLo = lo, oldCounts = counts;
+            hi = new long[oldCounts.length * 2];
+            lo = new long[oldCounts.length * 2];
+            counts = new long[oldCounts.length * 2];
+            size = 0;
+            for (int i = 0; i < oldCounts.length; i++) {
+                if (oldCounts[i] != 0) add(oldHi[i], oldLo[i], oldCounts[i]);
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        // Highest counts first, as {hi, lo, count}
+        List<long[]> top(int n) {
+            PriorityQueue<long[]> heap = new PriorityQueue<>(Comparator.comparingLong(e -> e[2]));
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) continue;
+                if (heap.size() < n) heap.add(new long[]{hi[i], lo[i], counts[i]});
+                else if (counts[i] > heap.peek()[2]) {
+                    heap.poll();
+                    heap.add(new long[]{hi[i], lo[i], counts[i]});
+                }
+            }
+            List<long[]> list = new ArrayList<>(heap);
+            list.sort((a, b) -> Long.compare(b[2], a[2]));
+            return list;
+        }
+    }
+
+    // Bytes of a line read as ASCII text, so IPv6.parse can run over them without a copy
+    static final class AsciiView implements CharSequence {
+        byte[] a;
+        int from, to;
+
+        @Override
+        public int length() {
+            return to - from;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (a[from + index] & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(a, from + start, end - start, StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public String toString() {
+            return new String(a, from, to - from, StandardCharsets.US_ASCII);
+        }
+    }
+
+    // Splits [start, end) of one file until a piece fits in a chunk, then parses it
+    @SuppressWarnings("serial")
+    static final class ChunkTask extends RecursiveTask<Report> {
+        private final FileChannel channel;
+        private final long start, end;
+
+        ChunkTask(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Report compute() {
+            try {
+                if (end - start <= CHUNK_BYTES) return parse(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+                long mid = lineBoundary(channel, start + (end - start) / 2, end);
+                if (mid >= end) return parse(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+                ChunkTask left = new ChunkTask(channel, start, mid);
+                left.fork();
+                Report right = new ChunkTask(channel, mid, end).compute();
+                return left.join().merge(right);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // Inflates and parses the blocks [lo, hi) of a compressed segment; each is its own gzip member
+    @SuppressWarnings("serial")
+    static final class MemberTask extends RecursiveTask<Report> {
+        private final FileChannel channel;
+        private final List<LogIndex.Block> blocks;
+        private final int lo, hi;
+
+        MemberTask(FileChannel channel, List<LogIndex.Block> blocks, int lo, int hi) {
+            this.channel = channel;
+            this.blocks = blocks;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected Report compute() {
+            try {
+                if (hi - lo <= 8) {
+                    Report r = new Report();
+                    Parser parser = new Parser(r);
+                    for (int i = lo; i < hi; i++) {
+                        byte[] text = LogSegments.readBlock(channel, blocks.get(i));
+                        r.bytes += text.length;
+                        parser.lines(text, text.length);
+                    }
+                    return r;
+                }
+                int mid = (lo + hi) >>> 1;
+                MemberTask left = new MemberTask(channel, blocks, lo, mid);
+                left.fork();
+                Report right = new MemberTask(channel, blocks, mid, hi).compute();
+                return left.join().merge(right);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // A gzip file without a block index can only be read front to back
+    static Report parse(InputStream in) throws IOException {
+        Report r = new Report();
+        Parser parser = new Parser(r);
+        byte[] window = new byte[1 << 20];
+        int carry = 0, n;
+        while ((n = in.readNBytes(window, carry, window.length - carry)) > 0) {
+            r.bytes += n;
+            int filled = carry + n;
+            int done = parser.lines(window, filled);
+            if (done == 0 && filled == window.length) window = Arrays.copyOf(window, window.length * 2);
+            carry = filled - done;
+            System.arraycopy(window, done, window, 0, carry);
+        }
+        if (carry > 0) {
+            window[carry] = '\n';
+            parser.lines(window, carry + 1);
+        }
+        return r;
+    }
+
+    // First position after the newline at or following pos
+    static long lineBoundary(FileChannel ch, long pos, long end) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        while (pos < end) {
+            buf.clear();
+            int n = ch.read(buf, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') return pos + i + 1;
+            }
+            pos += n;
+        }
+        return end;
+    }
+
+    // Copies the mapped chunk through a heap window and parses the complete lines in it
+    static Report parse(MappedByteBuffer chunk) {
+        Report r = new Report();
+        r.bytes = chunk.limit();
+        Parser parser = new Parser(r);
+        byte[] window = new byte[1 << 20];
+        int carry = 0;
+        int pos = 0, n = chunk.limit();
+        while (pos < n) {
+            int len = Math.min(window.length - carry, n - pos);
+            chunk.get(pos, window, carry, len);
+            pos += len;
+            int filled = carry + len;
+            int done = parser.lines(window, filled);
+            if (done == 0 && filled == window.length) window = Arrays.copyOf(window, window.length * 2);
+            carry = filled - done;
+            System.arraycopy(window, done, window, 0, carry);
+        }
+        if (carry > 0) {
+            window[carry] = '\n'; // the file's last line may lack its newline
+            parser.lines(window, carry + 1);
+        }
+        return r;
+    }
+
+    // Parses line by line in a single forward pass; field layout as in LogRecord
+    static final class Parser {
+        private final Report r;
+        private final byte[] hourPrefix = new byte[13];
+        private long[] hour;
+        private byte[] lastProto = new byte[0];
+        private int protoId = -1;
+        private final AsciiView text = new AsciiView();
+        private final long[] ip6 = new long[2];
+
+        Parser(Report r) {
+            this.r = r;
+        }
+
+        // Consumes complete lines from a[0, n) and returns the end of the last one
+        int lines(byte[] a, int n) {
+            int pos = 0;
+            while (true) {
+                // One scan finds both the newline and the first three " | " separators
+                int eol = pos, f1 = -1, f2 = -1, f3 = -1;
+                for (; eol < n; eol++) {
+                    byte c = a[eol];
+                    if (c == '\n') break;
+                    if (c == '|' && f3 < 0 && eol > pos) {
+                        if (f1 < 0) f1 = eol - 1;
+                        else if (f2 < 0) f2 = eol - 1;
+                        else f3 = eol - 1;
+                    }
+                }
+                if (eol == n) return pos;
+                if (eol > pos) line(a, pos, eol, f1, f2, f3);
+                pos = eol + 1;
+            }
+        }
+
+        private void line(byte[] a, int start, int eol, int f1, int f2, int f3) {
+            Report r = this.r;
+            r.lines++;
+            if (f3 < 0 || f1 - start < 13 || f3 + 3 >= eol) {
+                r.malformed++;
+                return;
+            }
+            boolean blocked = a[f3 + 3] == 'B';
+            long count = 1;
+            int countAt = f3 + 10; // after "ALLOWED"/"BLOCKED"
+            if (countAt + 9 < eol && Arrays.equals(a, countAt, countAt + 9, COUNT_FIELD, 0, 9)) {
+                count = 0;
+                for (int i = countAt + 9; i < eol && a[i] >= '0' && a[i] <= '9'; i++) count = count * 10 + (a[i] - '0');
+                if (count < 1) count = 1;
+            }
+            r.events += count;
+
+            // Hour bucket: the first 13 bytes (yyyy-MM-ddTHH) rarely change between lines
+            if (hour == null || !Arrays.equals(a, start, start + 13, hourPrefix, 0, 13)) {
+                System.arraycopy(a, start, hourPrefix, 0, 13);
+                long key = hourOf(hourPrefix);
+                if (key == Long.MIN_VALUE) {
+                    hour = null;
+                    r.malformed++;
+                    return;
+                }
+                hour = r.hours.computeIfAbsent(key, k -> new long[2]);
+            }
+
+            // Protocol and port
+            int protoStart = f1 + 3, colon = protoStart;
+            while (colon < f2 && a[colon] != ':') colon++;
+            int port = NO_PORT;
+            if (colon < f2) {
+                int v = 0;
+                for (int i = colon + 1; i < f2 && v <= NO_PORT; i++) v = v * 10 + (a[i] - '0');
+                if (v >= 0 && v < NO_PORT) port = v;
+            }
+            if (!Arrays.equals(a, protoStart, colon, lastProto, 0, lastProto.length)) {
+                lastProto = Arrays.copyOfRange(a, protoStart, colon);
+                protoId = r.protocolId(new String(lastProto, StandardCharsets.UTF_8));
+            }
+
+            hour[0] += count;
+            r.portTotal[port] += count;
+            r.protoTotal[protoId] += count;
+            if (blocked) {
+                hour[1] += count;
+                r.blocked += count;
+                r.portBlocked[port] += count;
+                r.protoBlocked[protoId] += count;
+                long src = parseIPv4(a, f2 + 3, f3);
+                if (src >= 0) r.blockedSources.add(src, count);
+                else if (parseIPv6(a, f2 + 3, f3)) r.blockedSources6.add(ip6[0], ip6[1], count);
+                else r.unknownSources += count;
+            }
+        }
+
+        // Address at from, ending at the first space; the result goes to ip6
+        private boolean parseIPv6(byte[] a, int from, int to) {
+            int end = from;
+            while (end < to && a[end] != ' ') end++;
+            text.a = a;
+            text.from = from;
+            text.to = end;
+            return IPv6.parse(text, 0, end - from, ip6);
+        }
+    }
+
+    // Dotted quad at from, ending at the first space; -1 if it is not one
+    private static long parseIPv4(byte[] a, int from, int to) {
+        long ip = 0;
+        int octet = 0, digits = 0, dots = 0;
+        for (int i = from; i < to; i++) {
+            byte c = a[i];
+            if (c == ' ') break;
+            if (c == '.') {
+                if (digits == 0 || ++dots > 3) return -1;
+                ip = ip << 8 | octet;
+                octet = 0;
+                digits = 0;
+            } else if (c >= '0' && c <= '9' && digits < 3) {
+                octet = octet * 10 + (c - '0');
+                if (octet > 255) return -1;
+                digits++;
+            } else return -1;
+        }
+        return dots == 3 && digits > 0 ? ip << 8 | octet : -1;
+    }
+
+    private static long hourOf(byte[] p) {
+        String s = new String(p, StandardCharsets.US_ASCII) + ":00";
+        long millis = LogRecord.parseTime(s, 0, s.length());
+        return millis == Long.MIN_VALUE ? Long.MIN_VALUE : millis / 3_600_000L;
+    }
+
+    // Rotated segments of each log are included; compressed ones are inflated block by block in parallel
+    static Report analyze(List<Path> logs, ForkJoinPool pool) throws IOException {
+        Report total = new Report();
+        List<FileChannel> channels = new ArrayList<>();
+        try {
+            List<RecursiveTask<Report>> tasks = new ArrayList<>();
+            for (Path log : logs) {
+                for (Path segment : LogSegments.of(log)) {
+                    if (LogSegments.isCompressed(segment)) {
+                        List<LogIndex.Block> blocks = LogIndex.read(segment);
+                        if (blocks.isEmpty()) {
+                            try (InputStream in = LogSegments.open(segment)) {
+                                total.merge(parse(in));
+                            }
+                            continue;
+                        }
+                        FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ);
+                        channels.add(ch);
+                        tasks.add(new MemberTask(ch, blocks, 0, blocks.size()));
+                    } else {
+                        FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ);
+                        channels.add(ch);
+                        if (ch.size() > 0) tasks.add(new ChunkTask(ch, 0, ch.size()));
+                    }
+                }
+            }
+            for (RecursiveTask<Report> t : tasks) pool.execute(t);
+            for (RecursiveTask<Report> t : tasks) total.merge(t.join());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (FileChannel ch : channels) ch.close();
+        }
+        return total;
+    }
+
+    static void print(Report r, int top, long nanos) {
+        double secs = nanos / 1e9;
+        System.out.printf("%n📊 Log analytics: %,d lines = %,d events (%,d blocked, %.1f%%), %,d malformed%n",
+                r.lines, r.events, r.blocked, percent(r.blocked, r.events), r.malformed);
+        System.out.printf("   %.2f GB in %.2f s = %.2f GB/s%n", r.bytes / 1e9, secs, r.bytes / 1e9 / secs);
+
+        System.out.println("\n🚫 Top blocked sources:");
+        List<Object[]> sources = new ArrayList<>();
+        for (long[] e : r.blockedSources.top(top)) sources.add(new Object[]{IPv4.format((int) e[0]), e[1]});
+        for (long[] e : r.blockedSources6.top(top)) sources.add(new Object[]{IPv6.format(e[0], e[1]), e[2]});
+        sources.sort((a, b) -> Long.compare((Long) b[1], (Long) a[1]));
+        for (Object[] e : sources.subList(0, Math.min(top, sources.size()))) {
+            System.out.printf("   %-16s %,12d%n", e[0], e[1]);
+        }
+        System.out.printf("   (%,d distinct blocked sources, %,d of them IPv6)%n",
+                r.blockedSources.size() + r.blockedSources6.size(), r.blockedSources6.size());
+        if (r.unknownSources > 0) System.out.printf("   (%,d blocked events without a readable source)%n", r.unknownSources);
+
+        System.out.println("\n🔌 Port histogram (busiest first):");
+        Integer[] ports = new Integer[NO_PORT + 1];
+        for (int i = 0; i <= NO_PORT; i++) ports[i] = i;
+        Arrays.sort(ports, (a, b) -> Long.compare(r.portTotal[b], r.portTotal[a]));
+        for (int i = 0; i < Math.min(top, ports.length) && r.portTotal[ports[i]] > 0; i++) {
+            int p = ports[i];
+            System.out.printf("   %-7s %,12d total %,12d blocked (%.1f%%)%n", p == NO_PORT ? "-" : String.valueOf(p),
+                    r.portTotal[p], r.portBlocked[p], percent(r.portBlocked[p], r.portTotal[p]));
+        }
+
+        System.out.println("\n🕒 Hourly block rate:");
+        for (Map.Entry<Long, long[]> e : new TreeMap<>(r.hours).entrySet()) {
+            long[] h = e.getValue();
+            long day = Math.floorDiv(e.getKey(), 24L);
+            System.out.printf("   %s %02d:00  %,12d events %,12d blocked (%.1f%%)%n",
+                    java.time.LocalDate.ofEpochDay(day), Math.floorMod(e.getKey(), 24L), h[0], h[1], percent(h[1], h[0]));
+        }
+
+        System.out.println("\n📡 Per-protocol breakdown:");
+        for (int i = 0; i < r.protocols.size(); i++) {
+            System.out.printf("   %-8s %,12d total %,12d blocked (%.1f%%)%n", r.protocols.get(i),
+                    r.protoTotal[i], r.protoBlocked[i], percent(r.protoBlocked[i], r.protoTotal[i]));
+        }
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 0 : 100.0 * part / whole;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int top = 10;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> logs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--top" -> top = Integer.parseInt(args[++i]);
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                default -> logs.add(Paths.get(args[i]));
+            }
+        }
+        if (logs.isEmpty()) logs.add(Paths.get("firewall_log1.txt"));
+        for (Path log : logs) {
+            if (LogSegments.of(log).isEmpty()) {
+                System.out.println("⚠️ No log file at " + log);
+                return;
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            long start = System.nanoTime();
+            Report report = analyze(logs, pool);
+            print(report, top, System.nanoTime() - start);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
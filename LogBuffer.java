@@ -0,0 +1,127 @@
+import java.nio.ByteBuffer;
+
+// Log lines formatted straight into a reusable direct buffer, in the same text form
+// Firewall.logEntry produces, together with what the log index needs to know about
+// each line. Nothing is allocated per line; LogWriter.append(LogBuffer) writes the
+// bytes and feeds the index from the recorded fields.
+final class LogBuffer {
+    static final int MAX_LINE = 128;
+    private static final byte[] ARROW = {' ', (byte) 0xE2, (byte) 0x86, (byte) 0x92, ' '};   // " → "
+    private static final byte[] ALLOWED = {'A', 'L', 'L', 'O', 'W', 'E', 'D'};
+    private static final byte[] BLOCKED = {'B', 'L', 'O', 'C', 'K', 'E', 'D'};
+
+    private final ByteBuffer bytes;
+    private final long[] times, protocolBits, sourceHashes;
+    private final boolean[] allowed;
+    private final int[] lengths;
+    private final byte[] scratch = new byte[16];
+    private int lines;
+
+    LogBuffer(int capacityBytes) {
+        bytes = ByteBuffer.allocateDirect(capacityBytes);
+        int maxLines = capacityBytes / 40 + 1;   // no line is shorter than 40 bytes
+        times = new long[maxLines];
+        protocolBits = new long[maxLines];
+        sourceHashes = new long[maxLines];
+        allowed = new boolean[maxLines];
+        lengths = new int[maxLines];
+    }
+
+    boolean hasRoom() {
+        return bytes.remaining() >= MAX_LINE && lines < times.length;
+    }
+
+    boolean isEmpty() {
+        return lines == 0;
+    }
+
+    // <time> | PROTO:port | src → dst | ALLOWED|BLOCKED
+    void add(CoarseClock.Tick tick, String protocol, int port, int source, int dest, boolean isAllowed) {
+        int start = bytes.position();
+        bytes.put(tick.text);
+        separator();
+        for (int i = 0; i < protocol.length() && i < 16; i++) bytes.put((byte) protocol.charAt(i));
+        bytes.put((byte) ':');
+        digits(port);
+        separator();
+        int n = address(source);
+        bytes.put(scratch, 0, n);
+        long sourceHash = LogIndex.sourceHash(scratch, 0, n);
+        bytes.put(ARROW);
+        bytes.put(scratch, 0, address(dest));
+        separator();
+        bytes.put(isAllowed ? ALLOWED : BLOCKED);
+        bytes.put((byte) '\n');
+
+        times[lines] = tick.localMillis;
+        protocolBits[lines] = LogIndex.protocolBit(protocol);
+        sourceHashes[lines] = sourceHash;
+        allowed[lines] = isAllowed;
+        lengths[lines] = bytes.position() - start;
+        lines++;
+    }
+
+    private void separator() {
+        bytes.put((byte) ' ').put((byte) '|').put((byte) ' ');
+    }
+
+    private void digits(int v) {
+        if (v < 0) {
+            bytes.put((byte) '-');
+            v = -v;
+        }
+        int n = 0;
+        do {
+            scratch[n++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v > 0 && n < scratch.length);
+        while (n > 0) bytes.put(scratch[--n]);
+    }
+
+    // Writes the dotted quad into scratch and returns its length
+    private int address(int ip) {
+        int n = 0;
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            int octet = (ip >>> shift) & 0xff;
+            if (octet >= 100) scratch[n++] = (byte) ('0' + octet / 100);
+            if (octet >= 10) scratch[n++] = (byte) ('0' + octet / 10 % 10);
+            scratch[n++] = (byte) ('0' + octet % 10);
+            if (shift > 0) scratch[n++] = '.';
+        }
+        return n;
+    }
+
+    int lines() {
+        return lines;
+    }
+
+    long time(int line) {
+        return times[line];
+    }
+
+    long protocolBit(int line) {
+        return protocolBits[line];
+    }
+
+    long sourceHash(int line) {
+        return sourceHashes[line];
+    }
+
+    boolean allowed(int line) {
+        return allowed[line];
+    }
+
+    int length(int line) {
+        return lengths[line];
+    }
+
+    // The formatted lines, ready to be written
+    ByteBuffer flip() {
+        return bytes.flip();
+    }
+
+    void clear() {
+        bytes.clear();
+        lines = 0;
+    }
+}
@@ -0,0 +1,311 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Sparse block index kept next to a firewall log as <log>.idx. The log is cut into
+// blocks of about a megabyte on line boundaries. Each block gets one entry holding
+// its byte range, its time span, a bitmask of the protocols and verdicts in it and
+// a Bloom filter of its source addresses. A query reads only the entries, then
+// seeks straight to the few blocks that can contain a match.
+final class LogIndex {
+    static final int BLOCK_BYTES = 1 << 20;
+
+    private static final int MAGIC = 0x46574C58; // "FWLX"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int ENTRY_BYTES = 48;   // fixed part, followed by the Bloom words
+    private static final int BLOOM_HASHES = 7;
+
+    static final int VERDICT_ALLOWED = 1, VERDICT_BLOCKED = 2;
+
+    // One indexed block of the log
+    static final class Block {
+        final long offset;
+        final int length;
+        final int lines;
+        final long minTime, maxTime;
+        final long protocols;
+        final int verdicts;
+        private final ByteBuffer bloom;  // view into the index bytes
+        private final int bloomWords;
+
+        Block(long offset, int length, int lines, long minTime, long maxTime, long protocols, int verdicts, ByteBuffer bloom, int bloomWords) {
+            this.offset = offset;
+            this.length = length;
+            this.lines = lines;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+            this.protocols = protocols;
+            this.verdicts = verdicts;
+            this.bloom = bloom;
+            this.bloomWords = bloomWords;
+        }
+
+        long end() {
+            return offset + length;
+        }
+
+        // The same block stored at another place, e.g. as one gzip member
+        Block movedTo(long newOffset, int newLength) {
+            return new Block(newOffset, newLength, lines, minTime, maxTime, protocols, verdicts, bloom, bloomWords);
+        }
+
+        boolean mayOverlap(long from, long to) {
+            return maxTime >= from && minTime <= to;
+        }
+
+        boolean mayContainProtocol(String protocol) {
+            return (protocols & protocolBit(protocol)) != 0;
+        }
+
+        boolean mayContainSource(String ip) {
+            if (bloomWords == 0) return false;
+            long h = sourceHash(ip);
+            int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+            int bits = bloomWords * 64;
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                int bit = ((h1 + i * h2) & 0x7fffffff) & (bits - 1);
+                if ((bloom.getLong((bit >>> 6) * 8) & (1L << bit)) == 0) return false;
+            }
+            return true;
+        }
+    }
+
+    static Path indexFile(Path log) {
+        return log.resolveSibling(log.getFileName() + ".idx");
+    }
+
+    static long protocolBit(CharSequence protocol) {
+        int h = 0;
+        for (int i = 0; i < protocol.length(); i++) h = 31 * h + Character.toUpperCase(protocol.charAt(i));
+        return 1L << (h & 63);
+    }
+
+    static long sourceHash(CharSequence ip) {
+        long h = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < ip.length(); i++) {
+            h ^= ip.charAt(i);
+            h *= 0xFF51AFD7ED558CCDL;
+        }
+        return h ^ (h >>> 29);
+    }
+
+    // The same hash over an address already encoded as ASCII
+    static long sourceHash(byte[] ip, int from, int to) {
+        long h = 0x9E3779B97F4A7C15L;
+        for (int i = from; i < to; i++) {
+            h ^= ip[i] & 0xff;
+            h *= 0xFF51AFD7ED558CCDL;
+        }
+        return h ^ (h >>> 29);
+    }
+
+    // Reads the index of a log; an absent or foreign index reads as no blocks. The
+    // index is copied to the heap so rotation can rename or delete it under a reader.
+    static List<Block> read(Path log) throws IOException {
+        Path idx = indexFile(log);
+        List<Block> blocks = new ArrayList<>();
+        if (!Files.isRegularFile(idx)) return blocks;
+        ByteBuffer map = ByteBuffer.wrap(Files.readAllBytes(idx)).order(ByteOrder.LITTLE_ENDIAN);
+        if (map.limit() < HEADER_BYTES || map.getInt(0) != MAGIC || map.getInt(4) != VERSION) return blocks;
+        int pos = HEADER_BYTES;
+        while (pos + ENTRY_BYTES <= map.limit()) {
+            int words = map.getInt(pos + 44);
+            int next = pos + ENTRY_BYTES + words * 8;
+            if (words < 0 || next > map.limit()) break; // torn final entry
+            ByteBuffer bloom = map.slice(pos + ENTRY_BYTES, words * 8).order(ByteOrder.LITTLE_ENDIAN);
+            blocks.add(new Block(map.getLong(pos), map.getInt(pos + 8), map.getInt(pos + 12),
+                    map.getLong(pos + 16), map.getLong(pos + 24), map.getLong(pos + 32), map.getInt(pos + 40), bloom, words));
+            pos = next;
+        }
+        return blocks;
+    }
+
+    // Writes a complete index, e.g. for blocks relocated into a compressed segment
+    static void write(Path idx, List<Block> blocks) throws IOException {
+        try (FileChannel ch = FileChannel.open(idx, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            ch.write(header);
+            for (Block b : blocks) {
+                ByteBuffer entry = ByteBuffer.allocate(ENTRY_BYTES + b.bloomWords * 8).order(ByteOrder.LITTLE_ENDIAN);
+                entry.putLong(b.offset).putInt(b.length).putInt(b.lines).putLong(b.minTime).putLong(b.maxTime)
+                        .putLong(b.protocols).putInt(b.verdicts).putInt(b.bloomWords);
+                entry.put(b.bloom.duplicate().clear());
+                entry.flip();
+                while (entry.hasRemaining()) ch.write(entry);
+            }
+        }
+    }
+
+    // Accumulates the open block while lines are written and appends its entry once full
+    static final class Builder implements Closeable {
+        private final FileChannel out;
+        private final LogRecord record = new LogRecord();
+        private long blockStart;
+        private long position;
+        private int lines;
+        private long minTime = Long.MAX_VALUE, maxTime = Long.MIN_VALUE;
+        private long protocols;
+        private int verdicts;
+        // Distinct source hashes of the open block (open addressing, 0 = empty slot),
+        // and buffers reused from block to block so flushing allocates nothing
+        private long[] sources = new long[1024];
+        private int sourceCount;
+        private boolean zeroSource;
+        private long[] bloom = new long[64];
+        private ByteBuffer entry = ByteBuffer.allocate(ENTRY_BYTES + 64 * 8).order(ByteOrder.LITTLE_ENDIAN);
+
+        // Opens (or starts) the index of a log and returns a builder positioned after the last entry
+        static Builder open(Path log) throws IOException {
+            List<Block> blocks = read(log);
+            long indexed = blocks.isEmpty() ? 0 : blocks.get(blocks.size() - 1).end();
+            if (indexed > (Files.exists(log) ? Files.size(log) : 0)) {
+                blocks.clear(); // left over from a log that was rotated away
+                indexed = 0;
+            }
+            Path idx = indexFile(log);
+            FileChannel ch = FileChannel.open(idx, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+            long keep = HEADER_BYTES;
+            for (Block b : blocks) keep += ENTRY_BYTES + b.bloomWords * 8L;
+            if (blocks.isEmpty()) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                ch.truncate(0);
+                ch.write(header, 0);
+            } else {
+                ch.truncate(keep);
+            }
+            ch.position(keep);
+            return new Builder(ch, indexed);
+        }
+
+        private Builder(FileChannel out, long position) {
+            this.out = out;
+            this.blockStart = position;
+            this.position = position;
+        }
+
+        // Byte offset in the log up to which lines have been seen
+        long position() {
+            return position;
+        }
+
+        // Called for each complete line (without its newline) that was written at position()
+        void line(CharSequence text, int bytesWithNewline) throws IOException {
+            if (record.parse(text)) {
+                add(record.time, record.lastTime, protocolBit(text.subSequence(record.protoStart, record.protoEnd)),
+                        record.allowed, sourceHash(text.subSequence(record.srcStart, record.srcEnd)));
+            }
+            advance(bytesWithNewline);
+        }
+
+        // The same for a line whose fields the caller already knows (see LogBuffer)
+        void line(long time, long lastTime, long protocolBit, boolean allowed, long sourceHash, int bytesWithNewline) throws IOException {
+            add(time, lastTime, protocolBit, allowed, sourceHash);
+            advance(bytesWithNewline);
+        }
+
+        private void add(long time, long lastTime, long protocolBit, boolean allowed, long sourceHash) {
+            minTime = Math.min(minTime, time);
+            maxTime = Math.max(maxTime, lastTime);
+            protocols |= protocolBit;
+            verdicts |= allowed ? VERDICT_ALLOWED : VERDICT_BLOCKED;
+            if (sourceHash == 0) zeroSource = true;
+            else if (insert(sources, sourceHash) && ++sourceCount * 2 > sources.length) {
+                long[] old = sources;
+                sources = new long[old.length * 2];
+                for (long h : old) if (h != 0) insert(sources, h);
+            }
+        }
+
+        // Returns false if the hash was already there
+        private static boolean insert(long[] table, long hash) {
+            int mask = table.length - 1;
+            int i = (int) (hash ^ (hash >>> 32)) & mask;
+            while (table[i] != 0) {
+                if (table[i] == hash) return false;
+                i = (i + 1) & mask;
+            }
+            table[i] = hash;
+            return true;
+        }
+
+        private void setBits(long hash, int bits) {
+            int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+            for (int k = 0; k < BLOOM_HASHES; k++) {
+                int bit = ((h1 + k * h2) & 0x7fffffff) & (bits - 1);
+                bloom[bit >>> 6] |= 1L << bit;
+            }
+        }
+
+        private void advance(int bytesWithNewline) throws IOException {
+            lines++;
+            position += bytesWithNewline;
+            if (position - blockStart >= BLOCK_BYTES) flush();
+        }
+
+        // Writes the entry for the open block, if it has any lines
+        void flush() throws IOException {
+            if (lines == 0) return;
+            int distinct = sourceCount + (zeroSource ? 1 : 0);
+            // About ten bits per distinct source keeps false positives near 1%
+            int words = distinct == 0 ? 0 : Integer.highestOneBit(Math.max(1, distinct * 10 / 64 - 1)) << 1;
+            if (bloom.length < words) {
+                bloom = new long[words];
+                entry = ByteBuffer.allocate(ENTRY_BYTES + words * 8).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            Arrays.fill(bloom, 0, words, 0L);
+            int bits = words * 64;
+            if (zeroSource) setBits(0, bits);
+            for (long h : sources) if (h != 0) setBits(h, bits);
+            entry.clear().limit(ENTRY_BYTES + words * 8);
+            entry.putLong(blockStart).putInt((int) (position - blockStart)).putInt(lines)
+                    .putLong(minTime == Long.MAX_VALUE ? Long.MIN_VALUE : minTime)
+                    .putLong(maxTime == Long.MIN_VALUE ? Long.MAX_VALUE : maxTime)
+                    .putLong(protocols == 0 ? -1L : protocols).putInt(verdicts == 0 ? VERDICT_ALLOWED | VERDICT_BLOCKED : verdicts)
+                    .putInt(words);
+            for (int i = 0; i < words; i++) entry.putLong(bloom[i]);
+            entry.flip();
+            while (entry.hasRemaining()) out.write(entry);
+
+            blockStart = position;
+            lines = 0;
+            minTime = Long.MAX_VALUE;
+            maxTime = Long.MIN_VALUE;
+            protocols = 0;
+            verdicts = 0;
+            Arrays.fill(sources, 0L);
+            sourceCount = 0;
+            zeroSource = false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    // Feeds the part of a log that the index has not seen yet through the builder
+    static void catchUp(Path log, Builder builder) throws IOException {
+        if (!Files.isRegularFile(log) || Files.size(log) <= builder.position()) return;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(log), 1 << 16)) {
+            in.skipNBytes(builder.position());
+            ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            int b;
+            while ((b = in.read()) >= 0) {
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                builder.line(line.toString(StandardCharsets.UTF_8), line.size() + 1);
+                line.reset();
+            }
+            // A torn last line is left for the next writer to complete
+        }
+    }
+}
@@ -0,0 +1,224 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+// Filters a firewall log by time range, source IP, protocol and verdict. Blocks
+// that the index rules out are never read; the rest, and the tail written after
+// the last index entry, are scanned and every line is checked exactly. Rotated
+// segments are searched too; in compressed ones only the candidate blocks are
+// inflated.
+//
+//   java LogQuery [--log firewall_log1.txt] [--from 2025-11-04T12:00] [--to 2025-11-04T13:00]
+//                 [--ip 203.0.113.7] [--proto HTTP] [--verdict BLOCKED] [--limit 100]
+public class LogQuery {
+    long from = Long.MIN_VALUE, to = Long.MAX_VALUE;
+    String source;
+    String protocol;
+    Boolean allowed;
+    long limit = Long.MAX_VALUE;
+
+    static final class Result {
+        int blocks, blocksRead;
+        long bytesRead, linesScanned, matches;
+        long events;   // matches weighted by their coalesced count
+        long nanos;
+    }
+
+    LogQuery between(long from, long to) {
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    LogQuery source(String ip) {
+        this.source = ip;
+        return this;
+    }
+
+    LogQuery protocol(String protocol) {
+        this.protocol = protocol;
+        return this;
+    }
+
+    LogQuery verdict(boolean allowed) {
+        this.allowed = allowed;
+        return this;
+    }
+
+    LogQuery limit(long limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    boolean matches(LogRecord r) {
+        return r.lastTime >= from && r.time <= to
+                && (allowed == null || r.allowed == allowed)
+                && (source == null || r.sourceIs(source))
+                && (protocol == null || r.protocolIs(protocol));
+    }
+
+    private boolean mayMatch(LogIndex.Block b) {
+        return b.mayOverlap(from, to)
+                && (allowed == null || (b.verdicts & (allowed ? LogIndex.VERDICT_ALLOWED : LogIndex.VERDICT_BLOCKED)) != 0)
+                && (protocol == null || b.mayContainProtocol(protocol))
+                && (source == null || b.mayContainSource(source));
+    }
+
+    // Streams every matching line of the log and its rotated segments, oldest first
+    Result run(Path log, Consumer<String> sink) throws IOException {
+        long start = System.nanoTime();
+        Result result = new Result();
+        for (Path segment : LogSegments.of(log)) {
+            if (result.matches >= limit) break;
+            if (!Files.exists(segment) && !LogSegments.isCompressed(segment)) {
+                segment = LogSegments.compressedName(segment); // compressed since it was listed
+            }
+            try {
+                runSegment(segment, sink, result);
+            } catch (NoSuchFileException e) {
+                // removed by retention since it was listed
+            }
+        }
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private void runSegment(Path segment, Consumer<String> sink, Result result) throws IOException {
+        boolean compressed = LogSegments.isCompressed(segment);
+        List<LogIndex.Block> blocks = LogIndex.read(segment);
+        result.blocks += blocks.size();
+        if (compressed && blocks.isEmpty()) {
+            try (InputStream in = LogSegments.open(segment)) {
+                scan(in, sink, result);
+            }
+            return;
+        }
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ)) {
+            long size = ch.size();
+            long indexed = 0;
+            for (LogIndex.Block b : blocks) {
+                indexed = b.end();
+                if (result.matches >= limit) return;
+                if (b.end() > size || !mayMatch(b)) continue;
+                result.blocksRead++;
+                if (compressed) {
+                    byte[] text = LogSegments.readBlock(ch, b);
+                    result.bytesRead += b.length;
+                    lines(text, text.length, sink, result);
+                } else {
+                    scan(ch, b.offset, b.end(), sink, result);
+                }
+            }
+            if (!compressed && result.matches < limit && indexed < size) scan(ch, indexed, size, sink, result);
+        }
+    }
+
+    private void scan(FileChannel ch, long start, long end, Consumer<String> sink, Result result) throws IOException {
+        byte[] buf = new byte[LogIndex.BLOCK_BYTES + 4096];
+        long pos = start;
+        while (pos < end && result.matches < limit) {
+            int n = ch.read(ByteBuffer.wrap(buf, 0, (int) Math.min(buf.length, end - pos)), pos);
+            if (n <= 0) break;
+            result.bytesRead += n;
+            int done = lines(buf, n, sink, result);
+            if (done == 0 && pos + n < end) {
+                throw new IOException("line longer than " + buf.length + " bytes at offset " + pos);
+            }
+            // An unterminated last line is still being written and is left out
+            if (done == 0) break;
+            pos += done;
+        }
+    }
+
+    // Whole-stream scan for compressed segments that have no index
+    private void scan(InputStream in, Consumer<String> sink, Result result) throws IOException {
+        byte[] buf = new byte[LogIndex.BLOCK_BYTES];
+        int carry = 0, n;
+        while (result.matches < limit && (n = in.readNBytes(buf, carry, buf.length - carry)) > 0) {
+            result.bytesRead += n;
+            int filled = carry + n;
+            int done = lines(buf, filled, sink, result);
+            if (done == 0 && filled == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+            carry = filled - done;
+            System.arraycopy(buf, done, buf, 0, carry);
+        }
+    }
+
+    // Checks the complete lines in a[0, n) and returns the end of the last one
+    private int lines(byte[] a, int n, Consumer<String> sink, Result result) {
+        LogRecord record = new LogRecord();
+        int lineStart = 0;
+        for (int i = 0; i < n && result.matches < limit; i++) {
+            if (a[i] != '\n') continue;
+            String line = new String(a, lineStart, i - lineStart, StandardCharsets.UTF_8);
+            result.linesScanned++;
+            if (record.parse(line) && matches(record)) {
+                result.matches++;
+                result.events += record.count;
+                sink.accept(line);
+            }
+            lineStart = i + 1;
+        }
+        return lineStart;
+    }
+
+    // Accepts 2025-11-04, 2025-11-04T12:00 or 2025-11-04T12:00:30(.fraction)
+    static long parseTime(String s) {
+        String t = s.length() == 10 ? s + "T00:00" : s;
+        long millis = LogRecord.parseTime(t, 0, t.length());
+        if (millis == Long.MIN_VALUE) throw new IllegalArgumentException("not a date-time: " + s);
+        return millis;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path log = Paths.get("firewall_log1.txt");
+        LogQuery query = new LogQuery();
+        boolean countOnly = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--count")) {
+                    countOnly = true;
+                    continue;
+                }
+                if (i + 1 >= args.length) throw new IllegalArgumentException("missing value for " + arg);
+                String value = args[++i];
+                switch (arg) {
+                    case "--log" -> log = Paths.get(value);
+                    case "--from" -> query.from = parseTime(value);
+                    case "--to" -> query.to = parseTime(value);
+                    case "--ip" -> query.source(value);
+                    case "--proto" -> query.protocol(value);
+                    case "--verdict" -> {
+                        if (!value.equalsIgnoreCase("ALLOWED") && !value.equalsIgnoreCase("BLOCKED"))
+                            throw new IllegalArgumentException("verdict must be ALLOWED or BLOCKED");
+                        query.verdict(value.equalsIgnoreCase("ALLOWED"));
+                    }
+                    case "--limit" -> query.limit(Long.parseLong(value));
+                    default -> throw new IllegalArgumentException("unknown option " + arg);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("⚠️ " + e.getMessage());
+            System.out.println("Usage: java LogQuery [--log FILE] [--from TIME] [--to TIME] [--ip ADDR] [--proto NAME] [--verdict ALLOWED|BLOCKED] [--limit N] [--count]");
+            return;
+        }
+        if (LogSegments.of(log).isEmpty()) {
+            System.out.println("⚠️ No log file at " + log);
+            return;
+        }
+
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false, StandardCharsets.UTF_8);
+        boolean print = !countOnly;
+        Result r = query.run(log, line -> {
+            if (print) out.println(line);
+        });
+        out.flush();
+        System.out.printf("🔎 %d matches (%d events) | %d of %d blocks read (%.1f MB) | %d lines scanned | %.1f ms%n",
+                r.matches, r.events, r.blocksRead, r.blocks, r.bytesRead / 1e6, r.linesScanned, r.nanos / 1e6);
+    }
+}
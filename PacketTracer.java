@@ -0,0 +1,199 @@
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+// Sampled decision traces ("explain" mode). When tracing is on, the firewall times
+// each step of a packet's evaluation and offers the result here; one in every N
+// packets, and every packet matching the filter expression, is kept in a fixed
+// ring of the most recent traces. When tracing is off the firewall only reads one
+// volatile flag per packet.
+//
+// Filter expressions are space-separated terms that must all hold:
+//
+//   src=203.0.113.0/24 dst=172.16.0.26 proto=HTTP port=80 status=BLOCK
+final class PacketTracer {
+    static final String[] STAGES = {"ban", "rules", "threat", "route", "store"};
+
+    static final class Trace {
+        final long time;
+        final String protocol, source, dest, status;
+        final int port;
+        final int rule;          // index of the matched rule, RuleIndex.NO_MATCH if none
+        final String route;      // null for packets that were not forwarded
+        final String reason;
+        final long[] stageNanos;
+
+        Trace(long time, String protocol, String source, String dest, int port, String status,
+              int rule, String route, String reason, long[] stageNanos) {
+            this.time = time;
+            this.protocol = protocol;
+            this.source = source;
+            this.dest = dest;
+            this.port = port;
+            this.status = status;
+            this.rule = rule;
+            this.route = route;
+            this.reason = reason;
+            this.stageNanos = stageNanos;
+        }
+
+        long totalNanos() {
+            long n = 0;
+            for (long s : stageNanos) n += s;
+            return n;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(new SimpleDateFormat("HH:mm:ss.SSS").format(new Date(time))).append(' ')
+              .append(protocol).append(' ').append(source).append(" → ").append(dest).append(':').append(port)
+              .append(" [").append(status).append("]\n");
+            sb.append("    rule: ").append(rule == RuleIndex.NO_MATCH ? "none" : "#" + (rule + 1))
+              .append(" | route: ").append(route == null ? "-" : route)
+              .append(" | reason: ").append(reason).append('\n');
+            sb.append("    timing:");
+            for (int i = 0; i < STAGES.length; i++) {
+                sb.append(String.format(" %s %.1fµs", STAGES[i], stageNanos[i] / 1e3));
+            }
+            sb.append(String.format(" | total %.1fµs", totalNanos() / 1e3));
+            return sb.toString();
+        }
+    }
+
+    private final Trace[] ring;
+    private long written;                  // traces ever kept; the newest is at (written - 1) % length
+    private volatile boolean enabled;
+    private int sampleEvery;               // 0 = no sampling
+    private String filterText = "";
+    private List<Term> filter = List.of();
+    private long offered;
+
+    PacketTracer(int capacity) {
+        ring = new Trace[capacity];
+    }
+
+    // The only check on the untraced path
+    boolean enabled() {
+        return enabled;
+    }
+
+    // every = 0 turns sampling off; a blank filter turns filtering off. Both off disables tracing.
+    synchronized void configure(int every, String filterExpression) {
+        List<Term> terms = parse(filterExpression);
+        sampleEvery = Math.max(0, every);
+        filter = terms;
+        filterText = filterExpression == null ? "" : filterExpression.trim();
+        offered = 0;
+        enabled = sampleEvery > 0 || !filter.isEmpty();
+    }
+
+    synchronized String describe() {
+        if (!enabled) return "off";
+        List<String> parts = new ArrayList<>();
+        if (sampleEvery > 0) parts.add("1 in " + sampleEvery);
+        if (!filter.isEmpty()) parts.add("filter '" + filterText + "'");
+        return String.join(" + ", parts);
+    }
+
+    // One key=value condition, parsed once
+    private static final class Term {
+        final String key, text;
+        long network, mask;
+        int port;
+
+        Term(String key, String text) {
+            this.key = key;
+            this.text = text;
+        }
+    }
+
+    private static List<Term> parse(String expression) {
+        List<Term> terms = new ArrayList<>();
+        if (expression == null || expression.isBlank()) return terms;
+        for (String part : expression.trim().split("\\s+")) {
+            int eq = part.indexOf('=');
+            if (eq <= 0 || eq == part.length() - 1) throw new IllegalArgumentException("expected key=value: " + part);
+            Term term = new Term(part.substring(0, eq).toLowerCase(), part.substring(eq + 1));
+            switch (term.key) {
+                case "src", "dst" -> {
+                    long[] net = cidr(term.text);
+                    if (net == null) throw new IllegalArgumentException("not an IPv4 address or CIDR: " + term.text);
+                    term.network = net[0];
+                    term.mask = net[1];
+                }
+                case "port" -> {
+                    try {
+                        term.port = Integer.parseInt(term.text);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("not a port: " + term.text);
+                    }
+                }
+                case "proto", "status" -> { }
+                default -> throw new IllegalArgumentException("unknown key '" + term.key + "' (use src, dst, proto, port, status)");
+            }
+            terms.add(term);
+        }
+        return terms;
+    }
+
+    // {network, mask} for "a.b.c.d" or "a.b.c.d/len", null if malformed
+    private static long[] cidr(String value) {
+        int slash = value.indexOf('/');
+        long ip = IPv4.parse(value, 0, slash < 0 ? value.length() : slash);
+        if (ip == IPv4.INVALID) return null;
+        int len = 32;
+        if (slash >= 0) {
+            try {
+                len = Integer.parseInt(value.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (len < 0 || len > 32) return null;
+        }
+        long mask = len == 0 ? 0 : (0xffffffffL << (32 - len)) & 0xffffffffL;
+        return new long[]{ip & mask, mask};
+    }
+
+    private static boolean addressMatches(String address, Term term) {
+        long ip = IPv4.parse(address);
+        return ip != IPv4.INVALID && (ip & term.mask) == term.network;
+    }
+
+    private boolean matches(Trace t) {
+        if (filter.isEmpty()) return false;
+        for (Term term : filter) {
+            boolean ok = switch (term.key) {
+                case "src" -> addressMatches(t.source, term);
+                case "dst" -> addressMatches(t.dest, term);
+                case "proto" -> t.protocol.equalsIgnoreCase(term.text);
+                case "port" -> t.port == term.port;
+                default -> t.status.equalsIgnoreCase(term.text);
+            };
+            if (!ok) return false;
+        }
+        return true;
+    }
+
+    // Keeps the trace if it is sampled or matches the filter
+    synchronized void offer(Trace t) {
+        if (!enabled) return;
+        offered++;
+        boolean sampled = sampleEvery > 0 && offered % sampleEvery == 0;
+        if (!sampled && !matches(t)) return;
+        ring[(int) (written % ring.length)] = t;
+        written++;
+    }
+
+    // Up to limit traces, newest first
+    synchronized List<Trace> recent(int limit) {
+        int n = (int) Math.min(Math.min(limit, written), ring.length);
+        List<Trace> list = new ArrayList<>(n);
+        for (long i = written - 1; i >= written - n; i--) list.add(ring[(int) (i % ring.length)]);
+        return list;
+    }
+
+    synchronized void clear() {
+        Arrays.fill(ring, null);
+        written = 0;
+    }
+}
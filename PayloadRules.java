@@ -0,0 +1,186 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Payload conditions, checked before the protocol/port rules (or chains) for packets
+// that carry a payload. A rule applies when its protocol and port fit (ANY fits all)
+// and the payload contains its signature (ANY: any signature of the set); the first
+// rule that applies decides:
+//
+//   BLOCK HTTP 8080 sql-union
+//   ALLOW HTTP 80 health-probe
+//   BLOCK ANY ANY ANY
+//
+// Immutable like RuleIndex: edits return a new instance, which is swapped in whole.
+// One pass of the signature automaton serves every rule, and a packet no rule's
+// protocol and port cover is not scanned at all.
+final class PayloadRules {
+    static final int NO_MATCH = -1;
+    static final String ANY = "ANY";
+    private static final ThreadLocal<long[]> SCRATCH = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final SignatureMatcher signatures;
+    private final boolean[] allow;
+    private final String[] protocols;        // null = any
+    private final int[] ports;               // -1 = any
+    private final String[] signatureNames;   // as written, ANY included
+    private final int[] signatureIds;        // NO_MATCH = any
+    private final AtomicLongArray hits;
+
+    private PayloadRules(SignatureMatcher signatures, boolean[] allow, String[] protocols, int[] ports, String[] signatureNames) {
+        this.signatures = signatures;
+        this.allow = allow;
+        this.protocols = protocols;
+        this.ports = ports;
+        this.signatureNames = signatureNames;
+        signatureIds = new int[signatureNames.length];
+        for (int i = 0; i < signatureNames.length; i++) {
+            if (signatureNames[i].equals(ANY)) {
+                signatureIds[i] = NO_MATCH;
+                continue;
+            }
+            signatureIds[i] = signatures.id(signatureNames[i]);
+            if (signatureIds[i] == NO_MATCH) throw new IllegalArgumentException("Unknown signature '" + signatureNames[i] + "'");
+        }
+        hits = new AtomicLongArray(allow.length);
+    }
+
+    static PayloadRules empty(SignatureMatcher signatures) {
+        return new PayloadRules(signatures, new boolean[0], new String[0], new int[0], new String[0]);
+    }
+
+    // ACTION PROTOCOL|ANY PORT|ANY SIGNATURE|ANY, appended after the existing rules
+    PayloadRules add(String action, String protocol, String port, String signature) {
+        Boolean allows = RuleText.parseAction(action);
+        if (allows == null) throw new IllegalArgumentException("Unknown action '" + action + "'");
+        String proto = protocol.trim().toUpperCase();
+        int p = -1;
+        if (!isAny(port)) {
+            try {
+                p = Integer.parseInt(port.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid port '" + port + "'");
+            }
+            if (p < 0 || p > 65535) throw new IllegalArgumentException("Port must be between 0 and 65535");
+        }
+        int n = allow.length;
+        boolean[] a = Arrays.copyOf(allow, n + 1);
+        String[] pr = Arrays.copyOf(protocols, n + 1);
+        int[] po = Arrays.copyOf(ports, n + 1);
+        String[] si = Arrays.copyOf(signatureNames, n + 1);
+        a[n] = allows;
+        pr[n] = isAny(proto) ? null : proto;
+        po[n] = p;
+        si[n] = isAny(signature) ? ANY : signature.trim();
+        PayloadRules edited = new PayloadRules(signatures, a, pr, po, si);
+        for (int i = 0; i < n; i++) edited.hits.set(i, hits.get(i));
+        return edited;
+    }
+
+    PayloadRules remove(int rule) {
+        int n = allow.length;
+        if (rule < 0 || rule >= n) throw new IllegalArgumentException("No payload rule " + (rule + 1));
+        boolean[] a = new boolean[n - 1];
+        String[] pr = new String[n - 1], si = new String[n - 1];
+        int[] po = new int[n - 1];
+        for (int i = 0, j = 0; i < n; i++) {
+            if (i == rule) continue;
+            a[j] = allow[i];
+            pr[j] = protocols[i];
+            po[j] = ports[i];
+            si[j++] = signatureNames[i];
+        }
+        PayloadRules edited = new PayloadRules(signatures, a, pr, po, si);
+        for (int i = 0, j = 0; i < n; i++) if (i != rule) edited.hits.set(j++, hits.get(i));
+        return edited;
+    }
+
+    // The same rules over another signature set; every signature they name must be in it
+    PayloadRules withSignatures(SignatureMatcher replacement) {
+        return new PayloadRules(replacement, allow, protocols, ports, signatureNames);
+    }
+
+    private static boolean isAny(String field) {
+        String f = field.trim();
+        return f.equalsIgnoreCase(ANY) || f.equals("*");
+    }
+
+    // True if some rule covers the protocol and port, i.e. the payload needs a scan
+    boolean inspects(String protocol, int port) {
+        for (int i = 0; i < allow.length; i++) {
+            if ((protocols[i] == null || protocols[i].equals(protocol)) && (ports[i] < 0 || ports[i] == port)) return true;
+        }
+        return false;
+    }
+
+    // Scratch bit set for match, owned by the calling thread and reused across packets;
+    // it only grows, when a larger signature set comes in
+    long[] scratch() {
+        long[] seen = SCRATCH.get();
+        int words = (signatures.size() + 63) >>> 6;
+        if (seen.length < words) {
+            seen = new long[words];
+            SCRATCH.set(seen);
+        }
+        return seen;
+    }
+
+    int match(String protocol, int port, ByteBuffer payload, long[] seen) {
+        return match(protocol, port, payload, payload.position(), payload.limit(), seen);
+    }
+
+    // First rule that applies to payload bytes buf[from, to), NO_MATCH if none; seen then
+    // holds the signatures found
+    int match(String protocol, int port, ByteBuffer buf, int from, int to, long[] seen) {
+        if (from >= to || !inspects(protocol, port)) return NO_MATCH;
+        Arrays.fill(seen, 0);
+        signatures.collect(buf, from, to, seen);
+        boolean any = false;
+        for (long w : seen) any |= w != 0;
+        if (!any) return NO_MATCH;
+        for (int i = 0; i < allow.length; i++) {
+            if (protocols[i] != null && !protocols[i].equals(protocol) || ports[i] >= 0 && ports[i] != port) continue;
+            int id = signatureIds[i];
+            if (id == NO_MATCH || (seen[id >>> 6] & 1L << id) != 0) {
+                hits.incrementAndGet(i);
+                return i;
+            }
+        }
+        return NO_MATCH;
+    }
+
+    // The signature behind a match: the rule's own, or the first one found for an ANY rule
+    String matchedSignature(int rule, long[] seen) {
+        int id = signatureIds[rule];
+        if (id == NO_MATCH) {
+            for (int w = 0; w < seen.length; w++) {
+                if (seen[w] != 0) {
+                    id = w << 6 | Long.numberOfTrailingZeros(seen[w]);
+                    break;
+                }
+            }
+        }
+        return id == NO_MATCH ? ANY : signatures.name(id);
+    }
+
+    boolean allows(int rule) {
+        return allow[rule];
+    }
+
+    int size() {
+        return allow.length;
+    }
+
+    long hits(int rule) {
+        return hits.get(rule);
+    }
+
+    SignatureMatcher signatures() {
+        return signatures;
+    }
+
+    String describe(int rule) {
+        return (allow[rule] ? "ALLOW " : "BLOCK ") + (protocols[rule] == null ? ANY : protocols[rule]) + " "
+                + (ports[rule] < 0 ? ANY : String.valueOf(ports[rule])) + " " + signatureNames[rule];
+    }
+}
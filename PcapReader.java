@@ -0,0 +1,350 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Replays libpcap / pcapng captures through the firewall. The capture is mapped
+// in fixed-size windows and headers are read straight out of the mapping, so
+// heap use stays flat no matter how large the file is.
+class PcapReader implements Closeable {
+    static final long WINDOW = 64L << 20;
+    static final int MAX_FRAME = 256 * 1024;
+
+    static final int LINKTYPE_ETHERNET = 1;
+    static final int LINKTYPE_RAW = 101;
+
+    private static final int PCAPNG_SHB = 0x0A0D0D0A;
+    private static final int PCAPNG_IDB = 0x00000001;
+    private static final int PCAPNG_SPB = 0x00000003;
+    private static final int PCAPNG_EPB = 0x00000006;
+
+    private final FileChannel channel;
+    private final long size;
+    private final boolean pcapng;
+    private final ByteOrder order;
+    private final int linkType;
+
+    // Counters shared by every region worker
+    final Counters stats = new Counters();
+
+    // Decoded header fields, overwritten frame after frame by replayFrames
+    static final class Frame {
+        int source, dest;      // IPv4 addresses
+        String protocol;       // one of the constant service names
+        int port;
+        ByteBuffer buffer;     // the mapping the frame was decoded from
+        int payloadOffset, payloadLength;   // transport payload within buffer
+    }
+
+    PcapReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        size = channel.size();
+        if (size < 24) {
+            channel.close();
+            throw new IOException("Not a capture file: " + path);
+        }
+        ByteBuffer head = ByteBuffer.allocate(24);
+        channel.read(head, 0);
+        int magic = head.getInt(0);
+        switch (magic) {
+            case 0xa1b2c3d4, 0xa1b23c4d -> { pcapng = false; order = ByteOrder.BIG_ENDIAN; }
+            case 0xd4c3b2a1, 0x4d3cb2a1 -> { pcapng = false; order = ByteOrder.LITTLE_ENDIAN; }
+            case PCAPNG_SHB -> { pcapng = true; order = ByteOrder.BIG_ENDIAN; }
+            default -> {
+                channel.close();
+                throw new IOException("Unknown capture magic 0x" + Integer.toHexString(magic));
+            }
+        }
+        head.order(order);
+        linkType = pcapng ? -1 : head.getInt(20) & 0xffff;
+    }
+
+    boolean isPcapng() {
+        return pcapng;
+    }
+
+    // Feeds every decodable frame to the sink. With workers > 1 a classic pcap file
+    // is split into regions on record boundaries and decoded in parallel; the sink
+    // must then be thread-safe. pcapng is always read sequentially because its
+    // interface and byte-order state is carried from block to block.
+    void replay(Consumer<Packet> sink, int workers) throws IOException {
+        if (pcapng) {
+            readPcapng(sink);
+            return;
+        }
+        if (workers <= 1) {
+            readPcap(24, size, sink);
+            return;
+        }
+        long[] cuts = splitPoints(workers);
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> parts = new ArrayList<>();
+            for (int i = 0; i + 1 < cuts.length; i++) {
+                long from = cuts[i], to = cuts[i + 1];
+                parts.add(pool.submit(() -> {
+                    readPcap(from, to, sink);
+                    return null;
+                }));
+            }
+            for (Future<?> f : parts) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException io) throw io;
+                    throw new IOException(cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Replay interrupted");
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Sequential replay that decodes every frame into the same Frame and allocates
+    // nothing per frame; the sink must not keep the Frame beyond the call
+    void replayFrames(Consumer<Frame> sink) throws IOException {
+        Frame frame = new Frame();
+        FrameSink frames = (buf, off, len, link) -> {
+            stats.frames.increment();
+            if (decode(buf, off, len, link, frame)) sink.accept(frame);
+            else stats.skipped.increment();
+        };
+        if (pcapng) readPcapng(frames);
+        else readPcap(24, size, frames);
+    }
+
+    private interface FrameSink {
+        void frame(ByteBuffer buf, int off, int len, int link);
+    }
+
+    // Walks only the 16-byte record headers to find record-aligned region starts
+    private long[] splitPoints(int parts) throws IOException {
+        long[] cuts = new long[parts + 1];
+        int n = 1;
+        cuts[0] = 24;
+        long step = Math.max(1, (size - 24) / parts);
+        long next = 24 + step;
+        Window w = new Window();
+        long pos = 24;
+        while (pos + 16 <= size && n < parts) {
+            int o = w.at(pos, 16);
+            int incl = w.buf.getInt(o + 8);
+            if (incl < 0 || incl > MAX_FRAME) throw new IOException("Corrupt record at offset " + pos);
+            pos += 16 + incl;
+            if (pos >= next) {
+                cuts[n++] = pos;
+                next = pos + step;
+            }
+        }
+        cuts[n] = size;
+        return Arrays.copyOf(cuts, n + 1);
+    }
+
+    private void readPcap(long from, long to, Consumer<Packet> sink) throws IOException {
+        readPcap(from, to, (buf, off, len, link) -> deliver(buf, off, len, link, sink));
+    }
+
+    private void readPcap(long from, long to, FrameSink sink) throws IOException {
+        Window w = new Window();
+        long pos = from;
+        while (pos + 16 <= to) {
+            int o = w.at(pos, 16);
+            int incl = w.buf.getInt(o + 8);
+            if (incl < 0 || incl > MAX_FRAME) throw new IOException("Corrupt record at offset " + pos);
+            if (pos + 16 + incl > size) {
+                stats.truncated.increment();
+                break;
+            }
+            int d = w.at(pos + 16, incl);
+            sink.frame(w.buf, d, incl, linkType);
+            pos += 16 + incl;
+        }
+    }
+
+    private void readPcapng(Consumer<Packet> sink) throws IOException {
+        readPcapng((buf, off, len, link) -> deliver(buf, off, len, link, sink));
+    }
+
+    private void readPcapng(FrameSink sink) throws IOException {
+        Window w = new Window();
+        List<Integer> interfaces = new ArrayList<>();
+        long pos = 0;
+        while (pos + 12 <= size) {
+            int o = w.at(pos, 12);
+            int type = w.buf.getInt(o);
+            if (type == PCAPNG_SHB) {
+                // The byte-order magic decides how the rest of the section is read
+                boolean big = w.buf.get(o + 8) == 0x1A;
+                w.order(big ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+                interfaces.clear();
+            }
+            int len = w.buf.getInt(o + 4);
+            if (len < 12 || (len & 3) != 0 || len > MAX_FRAME + 64) {
+                throw new IOException("Corrupt pcapng block at offset " + pos);
+            }
+            if (pos + len > size) {
+                stats.truncated.increment();
+                break;
+            }
+            int b = w.at(pos, len);
+            switch (type) {
+                case PCAPNG_IDB -> interfaces.add(w.buf.getShort(b + 8) & 0xffff);
+                case PCAPNG_EPB -> {
+                    int iface = w.buf.getInt(b + 8);
+                    int cap = Math.min(w.buf.getInt(b + 20), len - 32);
+                    int link = iface >= 0 && iface < interfaces.size() ? interfaces.get(iface) : LINKTYPE_ETHERNET;
+                    sink.frame(w.buf, b + 28, cap, link);
+                }
+                case PCAPNG_SPB -> {
+                    int cap = Math.min(w.buf.getInt(b + 8), len - 16);
+                    int link = interfaces.isEmpty() ? LINKTYPE_ETHERNET : interfaces.get(0);
+                    sink.frame(w.buf, b + 12, cap, link);
+                }
+                default -> { } // options, statistics, name resolution...
+            }
+            pos += len;
+        }
+    }
+
+    private void deliver(ByteBuffer buf, int off, int len, int link, Consumer<Packet> sink) {
+        stats.frames.increment();
+        Packet p = decode(buf, off, len, link);
+        if (p == null) {
+            stats.skipped.increment();
+        } else {
+            sink.accept(p);
+        }
+    }
+
+    // Decodes Ethernet / raw IPv4 with TCP, UDP or ICMP on top. Returns null for
+    // anything else (ARP, IPv6, non-first fragments, short snaplen...).
+    static Packet decode(ByteBuffer b, int off, int len, int link) {
+        Frame f = new Frame();
+        if (!decode(b, off, len, link, f)) return null;
+        // a view of the mapping: windows are never unmapped while a slice still refers to them
+        ByteBuffer payload = f.payloadLength > 0 ? b.slice(f.payloadOffset, f.payloadLength) : null;
+        return new Packet(IPv4.format(f.source), IPv4.format(f.dest), f.protocol, f.port, payload);
+    }
+
+    // The same, into a reusable Frame; false for frames decode would return null for
+    static boolean decode(ByteBuffer b, int off, int len, int link, Frame f) {
+        int p = off, end = off + len;
+        if (link == LINKTYPE_ETHERNET) {
+            if (len < 14) return false;
+            int etherType = u16(b, p + 12);
+            p += 14;
+            while ((etherType == 0x8100 || etherType == 0x88a8) && p + 4 <= end) {
+                etherType = u16(b, p + 2);
+                p += 4;
+            }
+            if (etherType != 0x0800) return false;
+        } else if (link != LINKTYPE_RAW) {
+            return false;
+        }
+        if (p + 20 > end || (b.get(p) & 0xf0) != 0x40) return false;
+        int ihl = (b.get(p) & 0x0f) * 4;
+        if (ihl < 20 || p + ihl > end) return false;
+        if ((u16(b, p + 6) & 0x1fff) != 0) return false;
+        int proto = b.get(p + 9) & 0xff;
+        int src = b.getInt(p + 12), dst = b.getInt(p + 16);
+        if (b.order() == ByteOrder.LITTLE_ENDIAN) {
+            src = Integer.reverseBytes(src);
+            dst = Integer.reverseBytes(dst);
+        }
+        int l4 = p + ihl;
+        int total = u16(b, p + 2);
+        int ipEnd = total >= ihl ? Math.min(end, p + total) : end;     // Ethernet padding is not payload
+        String name;
+        int port, data;
+        if (proto == 6 || proto == 17) {
+            if (l4 + 4 > end) return false;
+            int sport = u16(b, l4), dport = u16(b, l4 + 2);
+            name = serviceName(dport);
+            if (name == null) name = serviceName(sport);
+            if (name == null) name = proto == 6 ? "TCP" : "UDP";
+            port = dport;
+            data = proto == 17 ? l4 + 8 : l4 + 13 <= end ? l4 + ((b.get(l4 + 12) >>> 4) & 0x0f) * 4 : ipEnd;
+        } else if (proto == 1) {
+            name = "ICMP";
+            port = 0;
+            data = l4 + 8;
+        } else {
+            return false;
+        }
+        f.buffer = b;
+        f.payloadOffset = Math.min(data, ipEnd);
+        f.payloadLength = Math.max(0, ipEnd - data);
+        f.source = src;
+        f.dest = dst;
+        f.protocol = name;
+        f.port = port;
+        return true;
+    }
+
+    static String serviceName(int port) {
+        return switch (port) {
+            case 20, 21 -> "FTP";
+            case 22 -> "SSH";
+            case 23 -> "TELNET";
+            case 25, 587 -> "SMTP";
+            case 53 -> "DNS";
+            case 67, 68 -> "DHCP";
+            case 80, 8080 -> "HTTP";
+            case 110 -> "POP3";
+            case 123 -> "NTP";
+            case 143 -> "IMAP";
+            case 161, 162 -> "SNMP";
+            case 443, 8443 -> "HTTPS";
+            case 445 -> "SMB";
+            case 3306 -> "MYSQL";
+            case 3389 -> "RDP";
+            default -> null;
+        };
+    }
+
+    private static int u16(ByteBuffer b, int i) {
+        return ((b.get(i) & 0xff) << 8) | (b.get(i + 1) & 0xff);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // A mapped view of the file that is slid forward whenever a read falls outside it
+    private final class Window {
+        MappedByteBuffer buf;
+        long base = -1;
+        ByteOrder windowOrder = order;
+
+        int at(long pos, int len) throws IOException {
+            if (buf == null || pos < base || pos + len > base + buf.capacity()) {
+                long span = Math.min(Math.max(WINDOW, len), size - pos);
+                if (span < len) throw new EOFException("Capture truncated at offset " + pos);
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, span);
+                buf.order(windowOrder);
+                base = pos;
+            }
+            return (int) (pos - base);
+        }
+
+        void order(ByteOrder o) {
+            windowOrder = o;
+            if (buf != null) buf.order(o);
+        }
+    }
+
+    static final class Counters {
+        final LongAdder frames = new LongAdder();
+        final LongAdder skipped = new LongAdder();
+        final LongAdder truncated = new LongAdder();
+    }
+}
@@ -0,0 +1,124 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Allow/block counts per destination port and per protocol. Every stripe is one
+// flat array with two slots per port (allowed, blocked); a thread always bumps
+// the stripe picked by its identity, so concurrent senders rarely touch the same
+// cache line and no lock is taken. Readers add the stripes up.
+final class PortCounters {
+    static final int PORTS = 65_536;
+    static final int MAX_PROTOCOLS = 256;   // later protocols share the last slot
+
+    static final class Row {
+        final String key;      // port number or protocol name
+        final long allowed, blocked;
+
+        Row(String key, long allowed, long blocked) {
+            this.key = key;
+            this.allowed = allowed;
+            this.blocked = blocked;
+        }
+
+        long total() {
+            return allowed + blocked;
+        }
+
+        double blockRate() {
+            return total() == 0 ? 0 : blocked * 100.0 / total();
+        }
+    }
+
+    private final AtomicLongArray[] ports, protocols;
+    private final int mask;
+    private final Map<String, Integer> protocolIds = new ConcurrentHashMap<>();
+    private final String[] protocolNames = new String[MAX_PROTOCOLS];
+
+    PortCounters() {
+        int stripes = Integer.highestOneBit(Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors())));
+        mask = stripes - 1;
+        ports = new AtomicLongArray[stripes];
+        protocols = new AtomicLongArray[stripes];
+        for (int s = 0; s < stripes; s++) {
+            ports[s] = new AtomicLongArray(PORTS * 2);
+            protocols[s] = new AtomicLongArray(MAX_PROTOCOLS * 2);
+        }
+    }
+
+    // Ports outside 0-65535 (unparseable input) only count towards their protocol
+    void record(String protocol, int port, boolean blocked) {
+        int stripe = Thread.currentThread().hashCode() & mask;
+        int verdict = blocked ? 1 : 0;
+        if (port >= 0 && port < PORTS) ports[stripe].getAndIncrement(port << 1 | verdict);
+        protocols[stripe].getAndIncrement(protocolId(protocol) << 1 | verdict);
+    }
+
+    private int protocolId(String protocol) {
+        Integer id = protocolIds.get(protocol);
+        return id != null ? id : intern(protocol);
+    }
+
+    private synchronized int intern(String protocol) {
+        Integer id = protocolIds.get(protocol);
+        if (id != null) return id;
+        int next = protocolIds.size();
+        if (next >= MAX_PROTOCOLS - 1) {
+            protocolNames[MAX_PROTOCOLS - 1] = "OTHER";
+            return MAX_PROTOCOLS - 1;
+        }
+        protocolNames[next] = protocol;
+        protocolIds.put(protocol, next);
+        return next;
+    }
+
+    private static long sum(AtomicLongArray[] stripes, int slot) {
+        long n = 0;
+        for (AtomicLongArray a : stripes) n += a.get(slot);
+        return n;
+    }
+
+    long allowed(int port) {
+        return sum(ports, port << 1);
+    }
+
+    long blocked(int port) {
+        return sum(ports, port << 1 | 1);
+    }
+
+    // Ports that saw traffic, busiest first, at most limit of them
+    List<Row> hotPorts(int limit) {
+        List<Row> rows = new ArrayList<>();
+        for (int port = 0; port < PORTS; port++) {
+            long allowed = allowed(port), blocked = blocked(port);
+            if (allowed + blocked > 0) rows.add(new Row(String.valueOf(port), allowed, blocked));
+        }
+        rows.sort((a, b) -> Long.compare(b.total(), a.total()));
+        return rows.size() > limit ? new ArrayList<>(rows.subList(0, limit)) : rows;
+    }
+
+    // Protocols that saw traffic, busiest first
+    List<Row> protocols() {
+        List<Row> rows = new ArrayList<>();
+        for (int id = 0; id < MAX_PROTOCOLS; id++) {
+            String name;
+            synchronized (this) {
+                name = protocolNames[id];
+            }
+            if (name == null) continue;
+            long allowed = sum(protocols, id << 1), blocked = sum(protocols, id << 1 | 1);
+            if (allowed + blocked > 0) rows.add(new Row(name, allowed, blocked));
+        }
+        rows.sort((a, b) -> Long.compare(b.total(), a.total()));
+        return rows;
+    }
+
+    // Not atomic with respect to concurrent senders; a packet in flight may survive it
+    void clear() {
+        for (AtomicLongArray a : ports) {
+            for (int i = 0; i < a.length(); i++) a.set(i, 0);
+        }
+        for (AtomicLongArray a : protocols) {
+            for (int i = 0; i < a.length(); i++) a.set(i, 0);
+        }
+    }
+}
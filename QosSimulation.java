@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+// Congestion model for the egress schedulers. Steady interactive, web and bulk flows
+// to every route, plus an optional attack, go through a throwaway copy of the firewall
+// and a Router whose queues run on a simulated clock: arrivals are Poisson per flow and
+// time jumps from one arrival to the next, so seconds of traffic take well under that.
+// A baseline phase and an attack phase are reported per route and class.
+//
+//   java QosSimulation [none|ddos|udp-flood|both] [seconds per phase]
+final class QosSimulation {
+    static final String[] ATTACKS = {"none", "ddos", "udp-flood", "both"};
+
+    private static final class Flow {
+        final String protocol;
+        final int port;
+        final String destination;       // address prefix, completed by address()
+        final String sources;           // same, for the senders
+        final int senders;
+        final double packetsPerSecond;
+        final ByteBuffer payload;       // shared, read only
+        long next;                      // simulated time of the next arrival
+
+        Flow(String protocol, int port, String destination, String sources, int senders, double packetsPerSecond, int bytes) {
+            this.protocol = protocol;
+            this.port = port;
+            this.destination = destination;
+            this.sources = sources;
+            this.senders = senders;
+            this.packetsPerSecond = packetsPerSecond;
+            payload = ByteBuffer.allocate(Math.max(0, bytes - 40)).asReadOnlyBuffer();
+        }
+    }
+
+    // Normal load: the uplink runs at about 85% of its 10 Mbit/s, the site link at about 10%
+    private static Flow[] baseline() {
+        return new Flow[]{
+                new Flow("SSH", 22, "198.51.100.", "192.168.1.", 20, 200, 128),
+                new Flow("HTTPS", 443, "198.51.100.", "192.168.1.", 200, 600, 1000),
+                new Flow("FTP", 21, "198.51.100.", "192.168.1.", 5, 300, 1500),
+                new Flow("DNS", 53, "10.0.0.", "192.168.1.", 50, 500, 100),
+                new Flow("HTTP", 80, "10.0.1.", "192.168.1.", 100, 800, 1000),
+                new Flow("SMB", 445, "fd00:0:0:7::", "fd00:1::", 20, 400, 1500),
+                new Flow("SSH", 22, "192.168.1.", "10.0.0.", 10, 100, 128),
+                new Flow("HTTP", 80, "192.168.1.", "10.0.0.", 50, 1000, 1000)
+        };
+    }
+
+    private static Flow[] attack(String kind) {
+        Flow ddos = new Flow("HTTP", 80, "198.51.100.", "100.64.", 60_000, 3000, 1000);           // 2.4x the uplink
+        Flow flood = new Flow("UDP", 9999, "10.0.2.", "2001:db8:bad::", 60_000, 20_000, 1500);    // 2.4x the site link
+        return switch (kind) {
+            case "ddos" -> new Flow[]{ddos};
+            case "udp-flood" -> new Flow[]{flood};
+            case "both" -> new Flow[]{ddos, flood};
+            default -> new Flow[0];
+        };
+    }
+
+    // Runs both phases against a copy of rulesFrom's rules (defaults if null) and the blocklist
+    static void run(Firewall rulesFrom, IpBlocklist blocklist, String attack, double seconds) throws IOException {
+        Path dir = Files.createTempDirectory("qos");
+        Firewall firewall = new Firewall(dir.resolve("firewall_log1.txt"));
+        try {
+            if (rulesFrom != null) {
+                firewall.install(rulesFrom.rules());
+                firewall.installChains(rulesFrom.chains());
+                PayloadRules dpi = rulesFrom.payloadRules();
+                firewall.installPayloadRules(dpi.withSignatures(dpi.signatures()));    // own hit counters
+            }
+            Router router = new Router(firewall, 0);
+            router.blocklist = blocklist;
+            Random rand = new Random(50);
+            long phase = (long) (seconds * 1e9);
+
+            System.out.printf("%n🚦 Baseline, %.1f s simulated%n", seconds);
+            long[] counts = drive(router, baseline(), new Flow[0], 0, phase, rand);
+            System.out.print(summary(counts) + router.egressReport(phase));
+            long[] delays = interactiveDelays(router);
+
+            for (EgressScheduler e : router.egress) e.resetStats(phase);
+            System.out.printf("%n🚦 Attack '%s', %.1f s simulated%n", attack, seconds);
+            counts = drive(router, baseline(), attack(attack), phase, 2 * phase, rand);
+            System.out.print(summary(counts) + router.egressReport(2 * phase));
+            long[] underAttack = interactiveDelays(router);
+            for (int r = 0; r < delays.length; r++) {
+                System.out.printf("   interactive delay via %s: %.2f ms -> %.2f ms%n",
+                        Router.ROUTE_NAMES[r], delays[r] / 1e6, underAttack[r] / 1e6);
+            }
+        } finally {
+            firewall.closeLog();
+            try (var files = Files.list(dir)) {
+                for (Path p : (Iterable<Path>) files::iterator) Files.deleteIfExists(p);
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    // Arrivals in time order over [from, to); returns counts per Router verdict
+    private static long[] drive(Router router, Flow[] normal, Flow[] attack, long from, long to, Random rand) {
+        Flow[] flows = new Flow[normal.length + attack.length];
+        System.arraycopy(normal, 0, flows, 0, normal.length);
+        System.arraycopy(attack, 0, flows, normal.length, attack.length);
+        for (Flow f : flows) f.next = from + gap(f, rand);
+        long[] counts = new long[Router.DROPPED + 1];
+        while (true) {
+            Flow f = flows[0];
+            for (Flow g : flows) if (g.next < f.next) f = g;
+            long now = f.next;
+            if (now >= to) break;
+            String source = address(f.sources, rand.nextInt(f.senders));
+            String dest = address(f.destination, rand.nextInt(16));
+            counts[router.forward(new Packet(source, dest, f.protocol, f.port, f.payload.duplicate()), now)]++;
+            f.next = now + gap(f, rand);
+        }
+        for (EgressScheduler e : router.egress) e.advance(to);
+        return counts;
+    }
+
+    // The prefix completed with host n: one octet after "a.b.c.", two after "a.b.", a hex group after ':'
+    private static String address(String prefix, int n) {
+        if (prefix.endsWith(":")) return prefix + Integer.toHexString(n + 1);
+        int dots = 0;
+        for (int i = 0; i < prefix.length(); i++) if (prefix.charAt(i) == '.') dots++;
+        return dots == 3 ? prefix + (n % 254 + 1) : prefix + (n >> 8 & 0xff) + "." + (n & 0xff);
+    }
+
+    // Exponential inter-arrival time in nanoseconds
+    private static long gap(Flow f, Random rand) {
+        return 1 + (long) (-Math.log(1 - rand.nextDouble()) / f.packetsPerSecond * 1e9);
+    }
+
+    private static long[] interactiveDelays(Router router) {
+        long[] delays = new long[router.egress.length];
+        for (int r = 0; r < delays.length; r++) delays[r] = router.egress[r].meanDelay(EgressScheduler.INTERACTIVE);
+        return delays;
+    }
+
+    private static String summary(long[] counts) {
+        return String.format("   %d packets: %d forwarded, %d dropped at egress, %d blocked, %d on the blocklist, %d invalid%n",
+                counts[Router.INVALID] + counts[Router.LISTED] + counts[Router.ALLOWED] + counts[Router.BLOCKED] + counts[Router.DROPPED],
+                counts[Router.ALLOWED], counts[Router.DROPPED], counts[Router.BLOCKED], counts[Router.LISTED], counts[Router.INVALID]);
+    }
+
+    public static void main(String[] args) throws IOException {
+        String attack = args.length > 0 ? args[0] : "ddos";
+        if (!java.util.Arrays.asList(ATTACKS).contains(attack)) {
+            System.out.println("Usage: java QosSimulation [none|ddos|udp-flood|both] [seconds per phase]");
+            System.exit(1);
+        }
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 4;
+        long start = System.nanoTime();
+        run(null, IpBlocklist.EMPTY, attack, seconds);
+        System.out.printf("%n⏱️ Simulated %.1f s in %.1f s%n", 2 * seconds, (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,95 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Watches a rules file (text or snapshot) and hot-swaps each new version into a
+// running engine. Parsing and compiling happen on the watcher thread; the engine
+// only sees a single reference swap, so packets in flight never wait on a reload.
+// A file that fails to parse is rejected and the previous rules stay in force.
+class RuleFileWatcher implements Closeable {
+    interface Listener {
+        void reloaded(Path file, RuleIndex rules, long nanos);
+
+        void rejected(Path file, String reason);
+    }
+
+    private static final long QUIET_MILLIS = 200;
+
+    private final Path file;
+    private final Consumer<RuleIndex> install;
+    private final Listener listener;
+    private final WatchService watcher;
+    private final Thread thread;
+
+    RuleFileWatcher(Path file, Consumer<RuleIndex> install, Listener listener) throws IOException {
+        this.file = file.toAbsolutePath().normalize();
+        this.install = install;
+        this.listener = listener;
+        Path dir = this.file.getParent();
+        watcher = dir.getFileSystem().newWatchService();
+        dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        thread = new Thread(this::run, "rule-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    Path file() {
+        return file;
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = touchesFile(key);
+                // Editors often write in several steps; wait until the file settles
+                while (changed) {
+                    WatchKey more = watcher.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                    if (more == null) break;
+                    touchesFile(more);
+                }
+                if (changed) reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    private boolean touchesFile(WatchKey key) {
+        boolean hit = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+            if (context instanceof Path p && p.equals(file.getFileName())) hit = true;
+        }
+        key.reset();
+        return hit;
+    }
+
+    void reload() {
+        long start = System.nanoTime();
+        RuleIndex rules;
+        try {
+            if (!Files.isRegularFile(file)) {
+                listener.rejected(file, "file is missing");
+                return;
+            }
+            rules = RuleText.load(file);
+        } catch (IOException | RuntimeException e) {
+            listener.rejected(file, e.getMessage());
+            return;
+        }
+        install.accept(rules);
+        listener.reloaded(file, rules, System.nanoTime() - start);
+    }
+
+    @Override
+    public void close() {
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            // nothing left to release
+        }
+        thread.interrupt();
+    }
+}
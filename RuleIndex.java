@@ -0,0 +1,398 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Compiled, immutable rule set: the ordered rules packed into ints plus an
+// open-addressing hash from (protocol, port) to the first matching rule. The
+// same layout is used on the heap and in snapshot files, so a snapshot can be
+// memory-mapped and queried directly without rebuilding anything.
+final class RuleIndex {
+    static final int NO_MATCH = -1;
+
+    private static final int MAGIC = 0x46575249; // "FWRI"
+    private static final int VERSION = 1;
+    private static final int HEADER = 20;
+
+    private final String[] protocols;
+    private final Map<String, Integer> protocolIds;
+    private final IntBuffer rules; // protocolId << 17 | allow << 16 | port
+    private final IntBuffer keys;  // (protocolId << 16 | port) + 1, 0 = empty
+    private final IntBuffer slots; // rule ordinal for the key
+    private final int mask;
+
+    private RuleIndex(String[] protocols, IntBuffer rules, IntBuffer keys, IntBuffer slots) {
+        this.protocols = protocols;
+        this.rules = rules;
+        this.keys = keys;
+        this.slots = slots;
+        this.mask = keys.capacity() - 1;
+        protocolIds = new HashMap<>(protocols.length * 2);
+        for (int i = 0; i < protocols.length; i++) protocolIds.put(protocols[i], i);
+    }
+
+    static RuleIndex empty() {
+        return new Builder().build();
+    }
+
+    int size() {
+        return rules.capacity();
+    }
+
+    String protocol(int rule) {
+        return protocols[rules.get(rule) >>> 17];
+    }
+
+    int port(int rule) {
+        return rules.get(rule) & 0xffff;
+    }
+
+    boolean allows(int rule) {
+        return (rules.get(rule) & 0x10000) != 0;
+    }
+
+    int protocolId(String protocol) {
+        Integer id = protocolIds.get(protocol);
+        if (id == null) id = protocolIds.get(protocol.toUpperCase());
+        return id == null ? -1 : id;
+    }
+
+    // Ordinal of the first rule for this protocol and port, or NO_MATCH
+    int match(String protocol, int port) {
+        return match(protocolId(protocol), port);
+    }
+
+    int match(int protocolId, int port) {
+        if (protocolId < 0 || port < 0 || port > 0xffff) return NO_MATCH;
+        int key = (protocolId << 16 | port) + 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = keys.get(i);
+            if (k == key) return slots.get(i);
+            if (k == 0) return NO_MATCH;
+        }
+    }
+
+    Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // Writes the compiled form, hash table included
+    void save(Path path) throws IOException {
+        byte[][] names = new byte[protocols.length][];
+        int namesBytes = 0;
+        for (int i = 0; i < protocols.length; i++) {
+            names[i] = protocols[i].getBytes(StandardCharsets.UTF_8);
+            namesBytes += 2 + names[i].length;
+        }
+        int namesPadded = (namesBytes + 3) & ~3;
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer head = ByteBuffer.allocate(HEADER + namesPadded);
+            head.putInt(MAGIC).putInt(VERSION).putInt(protocols.length).putInt(size()).putInt(keys.capacity());
+            for (byte[] n : names) head.putShort((short) n.length).put(n);
+            head.position(head.capacity()).flip();
+            writeFully(ch, head);
+            writeInts(ch, rules);
+            writeInts(ch, keys);
+            writeInts(ch, slots);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeInts(FileChannel ch, IntBuffer ints) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+        for (int i = 0; i < ints.capacity(); i++) {
+            if (!out.hasRemaining()) {
+                out.flip();
+                writeFully(ch, out);
+                out.clear();
+            }
+            out.putInt(ints.get(i));
+        }
+        out.flip();
+        writeFully(ch, out);
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) ch.write(b);
+    }
+
+    static boolean isSnapshot(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] m = in.readNBytes(4);
+            return m.length == 4 && ByteBuffer.wrap(m).getInt() == MAGIC;
+        }
+    }
+
+    // Maps a snapshot file; the rules and hash table stay in the mapping
+    static RuleIndex map(Path path) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER || ch.size() > Integer.MAX_VALUE) throw new IOException("Not a rule snapshot: " + path);
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        if (buf.getInt(0) != MAGIC) throw new IOException("Not a rule snapshot: " + path);
+        if (buf.getInt(4) != VERSION) throw new IOException("Unsupported snapshot version " + buf.getInt(4));
+        int protoCount = buf.getInt(8), ruleCount = buf.getInt(12), tableSize = buf.getInt(16);
+        if (protoCount < 0 || protoCount > 1 << 15 || ruleCount < 0 || tableSize < 1 || Integer.bitCount(tableSize) != 1) {
+            throw new IOException("Corrupt snapshot header: " + path);
+        }
+        String[] protocols = new String[protoCount];
+        int pos = HEADER;
+        try {
+            for (int i = 0; i < protoCount; i++) {
+                int len = buf.getShort(pos) & 0xffff;
+                byte[] name = new byte[len];
+                buf.get(pos + 2, name);
+                protocols[i] = new String(name, StandardCharsets.UTF_8);
+                pos += 2 + len;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt snapshot protocol table: " + path);
+        }
+        pos = (pos + 3) & ~3;
+        long expected = pos + 4L * ruleCount + 8L * tableSize;
+        if (expected != buf.capacity()) throw new IOException("Truncated or corrupt snapshot: " + path);
+        IntBuffer rules = buf.slice(pos, 4 * ruleCount).asIntBuffer();
+        pos += 4 * ruleCount;
+        IntBuffer keys = buf.slice(pos, 4 * tableSize).asIntBuffer();
+        pos += 4 * tableSize;
+        IntBuffer slots = buf.slice(pos, 4 * tableSize).asIntBuffer();
+        RuleIndex index = new RuleIndex(protocols, rules, keys, slots);
+        String problem = index.check();
+        if (problem != null) throw new IOException("Corrupt snapshot (" + problem + "): " + path);
+        return index;
+    }
+
+    // One pass over a mapped snapshot before anything is looked up in it: every rule names
+    // a known protocol, every used slot points at a rule with its key, the table has a free
+    // slot so probing stops, and each rule's key leads to the first rule for it. Null if sound.
+    private String check() {
+        if (protocolIds.size() != protocols.length) return "duplicate protocol names";
+        for (int r = 0; r < size(); r++) {
+            if (rules.get(r) >>> 17 >= protocols.length) return "rule " + (r + 1) + " has an unknown protocol";
+        }
+        int used = 0;
+        for (int i = 0; i < keys.capacity(); i++) {
+            int key = keys.get(i);
+            if (key == 0) continue;
+            used++;
+            int slot = slots.get(i);
+            if (slot < 0 || slot >= size()) return "hash slot " + i + " points outside the rules";
+            int rule = rules.get(slot);
+            if ((rule >>> 17 << 16 | rule & 0xffff) + 1 != key) return "hash slot " + i + " does not match its rule";
+        }
+        if (used == keys.capacity()) return "hash table has no free slot";
+        for (int r = 0; r < size(); r++) {
+            int m = match(rules.get(r) >>> 17, port(r));
+            if (m == NO_MATCH || m > r) return "rule " + (r + 1) + " is missing from the hash table";
+        }
+        return null;
+    }
+
+    // Collects rules in evaluation order and compiles them in one pass
+    static final class Builder {
+        private final List<String> protocols = new ArrayList<>();
+        private final Map<String, Integer> ids = new HashMap<>();
+        private int[] packed = new int[16];
+        private int count;
+
+        Builder() {
+        }
+
+        Builder(RuleIndex base) {
+            protocols.addAll(Arrays.asList(base.protocols));
+            ids.putAll(base.protocolIds);
+            packed = new int[Math.max(16, base.size() + 16)];
+            base.rules.get(0, packed, 0, base.size());
+            count = base.size();
+        }
+
+        Builder add(String protocol, int port, boolean allow) {
+            if (port < 0 || port > 0xffff) throw new IllegalArgumentException("Port out of range: " + port);
+            String name = protocol.trim().toUpperCase();
+            if (name.isEmpty()) throw new IllegalArgumentException("Protocol is empty");
+            append(id(name) << 17 | (allow ? 0x10000 : 0) | port);
+            return this;
+        }
+
+        private int id(String name) {
+            Integer id = ids.get(name);
+            if (id == null) {
+                if (protocols.size() >= 1 << 15) throw new IllegalArgumentException("Too many protocols");
+                id = protocols.size();
+                protocols.add(name);
+                ids.put(name, id);
+            }
+            return id;
+        }
+
+        private void append(int rule) {
+            if (count == packed.length) packed = Arrays.copyOf(packed, count * 2);
+            packed[count++] = rule;
+        }
+
+        // Removes every rule for this protocol and port; returns how many went
+        int remove(String protocol, int port) {
+            Integer id = ids.get(protocol.trim().toUpperCase());
+            if (id == null) return 0;
+            int target = id << 17 | port, kept = 0;
+            for (int i = 0; i < count; i++) {
+                if ((packed[i] & ~0x10000) != target) packed[kept++] = packed[i];
+            }
+            int removed = count - kept;
+            count = kept;
+            return removed;
+        }
+
+        // Removes the rule at an evaluation-order position
+        void removeAt(int index) {
+            System.arraycopy(packed, index + 1, packed, index, count - index - 1);
+            count--;
+        }
+
+        // Bulk edits. Each takes its rules from another builder and makes one pass over
+        // this one, looking keys up in a sorted copy of the batch: O((n + m) log m) for
+        // n rules and a batch of m, however many rules change.
+
+        // Appends the batch rules whose protocol and port no rule here or earlier in the
+        // batch has, in order; the others would be shadowed. Returns how many were appended.
+        int addAbsent(Builder batch) {
+            int[] existing = new int[count];
+            for (int i = 0; i < count; i++) existing[i] = packed[i] & ~0x10000;
+            Arrays.sort(existing);
+            long[] order = new long[batch.count];    // key << 32 | batch position
+            for (int i = 0; i < batch.count; i++) order[i] = (long) translate(batch, batch.packed[i]) << 32 | i;
+            Arrays.sort(order);
+            boolean[] take = new boolean[batch.count];
+            for (int i = 0; i < order.length; i++) {
+                int key = (int) (order[i] >>> 32);
+                if (i > 0 && order[i - 1] >>> 32 == key) continue;
+                if (Arrays.binarySearch(existing, key) < 0) take[(int) order[i]] = true;
+            }
+            int added = 0;
+            for (int i = 0; i < batch.count; i++) {
+                if (!take[i]) continue;
+                append(translate(batch, batch.packed[i]) | batch.packed[i] & 0x10000);
+                added++;
+            }
+            return added;
+        }
+
+        // Removes every rule whose protocol and port appear in the batch; returns how many went
+        int removeAll(Builder batch) {
+            int[] keys = keysOf(batch);
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                if (Arrays.binarySearch(keys, packed[i] & ~0x10000) < 0) packed[kept++] = packed[i];
+            }
+            int removed = count - kept;
+            count = kept;
+            return removed;
+        }
+
+        // Sets the action of the rules for each protocol and port of the batch where they
+        // are, and appends the batch rules that match nothing. Within the batch the last
+        // rule for a protocol and port wins. Returns how many existing rules changed action.
+        int replaceAll(Builder batch) {
+            long[] latest = new long[batch.count];   // key << 32 | batch position
+            for (int i = 0; i < batch.count; i++) latest[i] = (long) translate(batch, batch.packed[i]) << 32 | i;
+            Arrays.sort(latest);
+            int n = 0;
+            for (int i = 0; i < latest.length; i++) {
+                if (i + 1 < latest.length && latest[i + 1] >>> 32 == latest[i] >>> 32) continue;
+                latest[n++] = latest[i];
+            }
+            int[] keys = new int[n];
+            boolean[] allow = new boolean[n], used = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = (int) (latest[i] >>> 32);
+                allow[i] = (batch.packed[(int) latest[i]] & 0x10000) != 0;
+            }
+            int changed = 0;
+            for (int i = 0; i < count; i++) {
+                int k = Arrays.binarySearch(keys, packed[i] & ~0x10000);
+                if (k < 0) continue;
+                used[k] = true;
+                int updated = keys[k] | (allow[k] ? 0x10000 : 0);
+                if (updated != packed[i]) {
+                    packed[i] = updated;
+                    changed++;
+                }
+            }
+            for (int i = 0; i < batch.count; i++) {
+                int k = Arrays.binarySearch(keys, translate(batch, batch.packed[i]));
+                if (used[k]) continue;
+                used[k] = true;
+                append(keys[k] | (allow[k] ? 0x10000 : 0));
+            }
+            return changed;
+        }
+
+        // Drops rules shadowed by an earlier rule for the same protocol and port, which
+        // never match anyway; returns how many went. Sorts (key, position) pairs once.
+        int dedupe() {
+            long[] order = new long[count];
+            for (int i = 0; i < count; i++) order[i] = (long) (packed[i] & ~0x10000) << 32 | i;
+            Arrays.sort(order);
+            boolean[] shadowed = new boolean[count];
+            for (int i = 1; i < count; i++) {
+                if (order[i] >>> 32 == order[i - 1] >>> 32) shadowed[(int) order[i]] = true;
+            }
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                if (!shadowed[i]) packed[kept++] = packed[i];
+            }
+            int removed = count - kept;
+            count = kept;
+            return removed;
+        }
+
+        // Sorted protocolId << 17 | port keys of the batch in this builder's protocol ids;
+        // protocols unknown here are left out since no rule can match them
+        private int[] keysOf(Builder batch) {
+            int[] keys = new int[batch.count];
+            int n = 0;
+            for (int i = 0; i < batch.count; i++) {
+                if (ids.containsKey(batch.protocols.get(batch.packed[i] >>> 17))) keys[n++] = translate(batch, batch.packed[i]);
+            }
+            keys = Arrays.copyOf(keys, n);
+            Arrays.sort(keys);
+            return keys;
+        }
+
+        // A batch rule's key in this builder's protocol ids, registering new protocols
+        private int translate(Builder batch, int rule) {
+            return id(batch.protocols.get(rule >>> 17)) << 17 | rule & 0xffff;
+        }
+
+        int size() {
+            return count;
+        }
+
+        RuleIndex build() {
+            int tableSize = Integer.highestOneBit(Math.max(4, count * 2 - 1)) << 1;
+            int[] keys = new int[tableSize], slots = new int[tableSize];
+            int mask = tableSize - 1;
+            for (int r = 0; r < count; r++) {
+                int key = (packed[r] >>> 17 << 16 | packed[r] & 0xffff) + 1;
+                int i = hash(key) & mask;
+                while (keys[i] != 0 && keys[i] != key) i = (i + 1) & mask;
+                if (keys[i] == 0) { // first rule wins, later duplicates are shadowed
+                    keys[i] = key;
+                    slots[i] = r;
+                }
+            }
+            return new RuleIndex(protocols.toArray(new String[0]),
+                    IntBuffer.wrap(Arrays.copyOf(packed, count)), IntBuffer.wrap(keys), IntBuffer.wrap(slots));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+// Human-readable rule files, one rule per line in evaluation order:
+//
+//   # comment
+//   BLOCK SSH 22
+//   ALLOW HTTP 80
+//
+// Parsing streams line by line straight into a RuleIndex.Builder.
+final class RuleText {
+    private RuleText() {
+    }
+
+    static RuleIndex read(Path path) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return read(in, path.getFileName().toString()).build();
+        }
+    }
+
+    static RuleIndex.Builder read(BufferedReader in, String source) throws IOException {
+        RuleIndex.Builder builder = new RuleIndex.Builder();
+        String line;
+        int lineNo = 0;
+        while ((line = in.readLine()) != null) {
+            lineNo++;
+            String[] parts = fields(line);
+            if (parts == null) continue;
+            if (parts.length != 3) throw error(source, lineNo, "expected 'ALLOW|BLOCK PROTOCOL PORT'");
+            Boolean allow = parseAction(parts[0]);
+            if (allow == null) throw error(source, lineNo, "unknown action '" + parts[0] + "'");
+            int port;
+            try {
+                port = Integer.parseInt(parts[2]);
+            } catch (NumberFormatException e) {
+                throw error(source, lineNo, "invalid port '" + parts[2] + "'");
+            }
+            if (port < 0 || port > 65535) throw error(source, lineNo, "port must be between 0 and 65535");
+            builder.add(parts[1], port, allow);
+        }
+        return builder;
+    }
+
+    // Splits a non-blank, non-comment line into whitespace-separated fields
+    static String[] fields(String line) {
+        int hash = line.indexOf('#');
+        String body = (hash >= 0 ? line.substring(0, hash) : line).trim();
+        return body.isEmpty() ? null : body.split("\\s+");
+    }
+
+    static Boolean parseAction(String action) {
+        switch (action.toUpperCase()) {
+            case "ALLOW", "ALLOWED", "ACCEPT", "A":
+                return Boolean.TRUE;
+            case "BLOCK", "BLOCKED", "DENY", "DROP", "REJECT", "B":
+                return Boolean.FALSE;
+            default:
+                return null;
+        }
+    }
+
+    static void write(RuleIndex rules, Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            write(rules, out);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static void write(RuleIndex rules, Writer out) throws IOException {
+        out.write("# Firewall rules, first match wins: ALLOW|BLOCK PROTOCOL PORT\n");
+        for (int i = 0; i < rules.size(); i++) {
+            out.write(rules.allows(i) ? "ALLOW " : "BLOCK ");
+            out.write(rules.protocol(i));
+            out.write(' ');
+            out.write(Integer.toString(rules.port(i)));
+            out.write('\n');
+        }
+    }
+
+    private static IOException error(String source, int line, String message) {
+        return new IOException(source + ":" + line + ": " + message);
+    }
+
+    // Loads either format: snapshots are memory-mapped, anything else is parsed as text
+    static RuleIndex load(Path path) throws IOException {
+        return RuleIndex.isSnapshot(path) ? RuleIndex.map(path) : read(path);
+    }
+}
@@ -0,0 +1,204 @@
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Runs a candidate rule set next to the live one without touching live verdicts.
+// The live path only copies a sampled packet into a bounded queue; a daemon thread
+// evaluates the candidate and counts the packets whose verdicts differ, grouped by
+// the live and candidate rule that decided them. When the queue backs up or more
+// than maxPerSecond samples arrive in a second the sampling rate halves, and it
+// doubles again once traffic calms down, so under load the live path does little
+// more than draw a random number.
+final class ShadowEvaluator implements Closeable {
+    static final int MAX_SAMPLE_EVERY = 1 << 16;
+    static final int FLOWS_PER_RULE = 5;
+
+    private static final class Sample {
+        final String source, dest, protocol;
+        final int port;
+        final RuleIndex live;  // null when a chain policy decided
+        final String liveLabel;
+        final boolean liveAllowed;
+        final int weight;      // packets this sample stands for
+
+        Sample(Packet p, RuleIndex live, String liveLabel, boolean liveAllowed, int weight) {
+            source = p.sourceIP;
+            dest = p.destIP;
+            protocol = p.protocol;
+            port = p.port;
+            this.live = live;
+            this.liveLabel = liveLabel;
+            this.liveAllowed = liveAllowed;
+            this.weight = weight;
+        }
+    }
+
+    // Packets where the live rule and the candidate rule disagree
+    static final class Divergence {
+        final String liveRule, candidateRule;
+        final boolean liveAllowed;
+        long samples, packets;
+        final Map<String, Long> flows = new LinkedHashMap<>();
+        long otherFlows;
+
+        Divergence(String liveRule, String candidateRule, boolean liveAllowed) {
+            this.liveRule = liveRule;
+            this.candidateRule = candidateRule;
+            this.liveAllowed = liveAllowed;
+        }
+    }
+
+    private final RuleIndex candidate;
+    private final String name;
+    private final ArrayBlockingQueue<Sample> queue;
+    private final int capacity;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private final int maxPerSecond;
+    private volatile int sampleEvery = 1;
+    private long secondStart = System.nanoTime(), secondSamples;
+
+    private final LongAdder seen = new LongAdder(), queued = new LongAdder(), dropped = new LongAdder();
+    private long evaluated, diverged, estimated;
+    private final Map<String, Divergence> divergences = new HashMap<>();
+
+    ShadowEvaluator(RuleIndex candidate, String name, int capacity, int maxPerSecond) {
+        this.candidate = candidate;
+        this.name = name;
+        this.capacity = capacity;
+        this.maxPerSecond = maxPerSecond;
+        queue = new ArrayBlockingQueue<>(capacity);
+        thread = new Thread(this::run, "shadow-evaluator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    String name() {
+        return name;
+    }
+
+    // Called on the live path after the live verdict is known; never blocks
+    void offer(Packet packet, RuleIndex live, boolean liveAllowed) {
+        offer(packet, live, null, liveAllowed);
+    }
+
+    // The same for a verdict from a chain policy, reported under the label it names
+    void offer(Packet packet, String liveLabel, boolean liveAllowed) {
+        offer(packet, null, liveLabel, liveAllowed);
+    }
+
+    private void offer(Packet packet, RuleIndex live, String liveLabel, boolean liveAllowed) {
+        seen.increment();
+        int every = sampleEvery;
+        if (every > 1 && ThreadLocalRandom.current().nextInt(every) != 0) return;
+        if (queue.offer(new Sample(packet, live, liveLabel, liveAllowed, every))) queued.increment();
+        else dropped.increment();
+    }
+
+    private void run() {
+        List<Sample> batch = new ArrayList<>(1024);
+        while (running) {
+            Sample first;
+            try {
+                first = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (first == null) {
+                adapt(0, 0);
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, 1023);
+            synchronized (this) {
+                for (Sample s : batch) evaluate(s);
+            }
+            adapt(batch.size(), queue.size());
+            batch.clear();
+        }
+    }
+
+    // A backlog over a quarter of the queue or a second over budget halves the sample
+    // rate; an empty queue after a second under half the budget doubles it
+    private void adapt(int samples, int backlog) {
+        int every = sampleEvery;
+        secondSamples += samples;
+        long now = System.nanoTime();
+        boolean secondOver = now - secondStart >= 1_000_000_000L;
+        boolean overBudget = secondSamples > maxPerSecond;
+        if ((backlog > capacity / 4 || overBudget) && every < MAX_SAMPLE_EVERY) {
+            sampleEvery = every * 2;
+            secondStart = now;
+            secondSamples = 0;
+        } else if (secondOver) {
+            if (backlog == 0 && secondSamples < maxPerSecond / 2 && every > 1) sampleEvery = every / 2;
+            secondStart = now;
+            secondSamples = 0;
+        }
+    }
+
+    private void evaluate(Sample s) {
+        evaluated++;
+        int rule = candidate.match(s.protocol, s.port);
+        boolean allowed = rule == RuleIndex.NO_MATCH || candidate.allows(rule);
+        if (allowed == s.liveAllowed) return;
+        diverged++;
+        estimated += s.weight;
+        String liveName = s.live == null ? s.liveLabel : describe(s.live, s.live.match(s.protocol, s.port));
+        String candidateName = describe(candidate, rule);
+        Divergence d = divergences.computeIfAbsent(liveName + '\0' + candidateName,
+                k -> new Divergence(liveName, candidateName, s.liveAllowed));
+        d.samples++;
+        d.packets += s.weight;
+        String flow = s.source + " → " + s.dest + " " + s.protocol + ":" + s.port;
+        Long n = d.flows.get(flow);
+        if (n != null) d.flows.put(flow, n + s.weight);
+        else if (d.flows.size() < FLOWS_PER_RULE) d.flows.put(flow, (long) s.weight);
+        else d.otherFlows += s.weight;
+    }
+
+    private static String describe(RuleIndex rules, int rule) {
+        if (rule == RuleIndex.NO_MATCH) return "default ALLOW";
+        return "#" + (rule + 1) + " " + new FirewallRule(rules.protocol(rule), rules.port(rule), rules.allows(rule));
+    }
+
+    // Divergences with the most packets first
+    synchronized List<Divergence> divergences() {
+        List<Divergence> list = new ArrayList<>(divergences.values());
+        list.sort((a, b) -> Long.compare(b.packets, a.packets));
+        return list;
+    }
+
+    synchronized String summary() {
+        return String.format("🕵️ Shadow '%s': %,d packets seen, %,d sampled (1 in %d now, %,d dropped), %,d evaluated, %,d diverged (~%,d packets)",
+                name, seen.sum(), queued.sum(), sampleEvery, dropped.sum(), evaluated, diverged, estimated);
+    }
+
+    synchronized String report(int limit) {
+        StringBuilder sb = new StringBuilder(summary()).append('\n');
+        List<Divergence> list = divergences();
+        if (list.isEmpty()) sb.append("   ✅ No diverging flows\n");
+        for (Divergence d : list.subList(0, Math.min(limit, list.size()))) {
+            sb.append(String.format("   ⚖️ live %s (%s) vs candidate %s (%s): %,d samples, ~%,d packets%n",
+                    d.liveRule, d.liveAllowed ? "ALLOWED" : "BLOCKED", d.candidateRule,
+                    d.liveAllowed ? "BLOCKED" : "ALLOWED", d.samples, d.packets));
+            d.flows.forEach((flow, n) -> sb.append(String.format("      ➤ %s ~%,d%n", flow, n)));
+            if (d.otherFlows > 0) sb.append(String.format("      ➤ other flows ~%,d%n", d.otherFlows));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
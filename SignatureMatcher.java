@@ -0,0 +1,283 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+// Aho-Corasick automaton over byte signatures, compiled into one flat transition table.
+// Bytes that occur in no signature share class 0 and the rest get a class each (upper
+// and lower case letters share one when case is ignored), so a row is only as wide as
+// the signatures' alphabet. Every state has a transition for every class, failure links
+// already folded in, and the target is stored pre-multiplied by the row width and
+// negated when a signature ends there: scanning is one table read per byte whatever the
+// number of signatures, and the buffer is read in place with absolute gets.
+//
+// Signature files hold one "name: content" per line; |hex bytes| in the content are
+// taken literally, as in Snort rules:
+//
+//   sql-union: UNION SELECT
+//   nop-sled: |90 90 90 90 90 90 90 90|
+//   traversal: ../..|2f|
+final class SignatureMatcher {
+    static final int NO_MATCH = -1;
+
+    private final String[] names;
+    private final int[] classOf = new int[256];
+    private final int width;            // classes per row
+    private final int[] next;           // row * width + class -> row of the target, ~row if a signature ends there
+    private final int[] first;          // per state: lowest signature id ending here, own or via a suffix
+    private final int[] own;            // per state: signature id ending exactly here
+    private final int[] outLink;        // per state: nearest proper suffix state that ends a signature, or 0
+    private final int[] canonical;      // per signature: the first one with the same content
+    private final int states;
+
+    interface Hit {
+        void at(int signature, int end);
+    }
+
+    static final class Builder {
+        private final boolean ignoreCase;
+        private final List<String> names = new ArrayList<>();
+        private final List<byte[]> patterns = new ArrayList<>();
+        private final Map<String, Integer> byName = new HashMap<>();
+
+        Builder(boolean ignoreCase) {
+            this.ignoreCase = ignoreCase;
+        }
+
+        Builder add(String name, byte[] pattern) {
+            if (pattern.length == 0) throw new IllegalArgumentException("Signature '" + name + "' is empty");
+            if (byName.putIfAbsent(name, names.size()) != null) throw new IllegalArgumentException("Duplicate signature '" + name + "'");
+            names.add(name);
+            patterns.add(pattern.clone());
+            return this;
+        }
+
+        Builder add(String name, String content) {
+            return add(name, content(content));
+        }
+
+        int size() {
+            return names.size();
+        }
+
+        SignatureMatcher build() {
+            return new SignatureMatcher(this);
+        }
+    }
+
+    private SignatureMatcher(Builder b) {
+        names = b.names.toArray(new String[0]);
+        int classes = 1;
+        for (byte[] p : b.patterns) {
+            for (byte x : p) {
+                int v = fold(x & 0xff, b.ignoreCase);
+                if (classOf[v] == 0) classOf[v] = classes++;
+            }
+        }
+        if (b.ignoreCase) {
+            for (int c = 'A'; c <= 'Z'; c++) classOf[c] = classOf[c + 32];
+        }
+        width = classes;
+
+        // trie; -1 marks a missing edge until the failure pass fills it
+        int total = 1;
+        for (byte[] p : b.patterns) total += p.length;
+        int[] go = new int[total * width];
+        Arrays.fill(go, -1);
+        int[] ownIds = new int[total];
+        Arrays.fill(ownIds, NO_MATCH);
+        int count = 1;
+        canonical = new int[names.length];
+        for (int id = 0; id < names.length; id++) {
+            int s = 0;
+            for (byte x : b.patterns.get(id)) {
+                int c = classOf[x & 0xff];
+                if (go[s * width + c] < 0) go[s * width + c] = count++;
+                s = go[s * width + c];
+            }
+            if (ownIds[s] == NO_MATCH) ownIds[s] = id;      // identical contents: the first name reports
+            canonical[id] = ownIds[s];
+        }
+        states = count;
+
+        // breadth first, so a state's failure target has its row complete before the state itself
+        int[] fail = new int[count], firstIds = new int[count], links = new int[count];
+        firstIds[0] = NO_MATCH;
+        int[] queue = new int[count];
+        int head = 0, tail = 0;
+        for (int c = 0; c < width; c++) {
+            int t = go[c];
+            if (t < 0) {
+                go[c] = 0;
+            } else {
+                fail[t] = 0;
+                queue[tail++] = t;
+            }
+        }
+        while (head < tail) {
+            int s = queue[head++];
+            int f = fail[s];
+            firstIds[s] = ownIds[s] == NO_MATCH ? firstIds[f] : firstIds[f] == NO_MATCH ? ownIds[s] : Math.min(ownIds[s], firstIds[f]);
+            links[s] = ownIds[f] != NO_MATCH ? f : links[f];
+            for (int c = 0; c < width; c++) {
+                int t = go[s * width + c];
+                if (t < 0) {
+                    go[s * width + c] = go[f * width + c];
+                } else {
+                    fail[t] = go[f * width + c];
+                    queue[tail++] = t;
+                }
+            }
+        }
+        for (int i = 0; i < count * width; i++) {
+            int t = go[i];
+            go[i] = firstIds[t] == NO_MATCH ? t * width : ~(t * width);
+        }
+        next = go.length == count * width ? go : Arrays.copyOf(go, count * width);
+        first = Arrays.copyOf(firstIds, count);
+        own = Arrays.copyOf(ownIds, count);
+        outLink = links;
+    }
+
+    private static int fold(int v, boolean ignoreCase) {
+        return ignoreCase && v >= 'A' && v <= 'Z' ? v + 32 : v;
+    }
+
+    // Lowest-numbered signature ending at the first position where any signature ends,
+    // NO_MATCH if none does within buf[from, to)
+    int firstMatch(ByteBuffer buf, int from, int to) {
+        int row = 0;
+        for (int i = from; i < to; i++) {
+            int t = next[row + classOf[buf.get(i) & 0xff]];
+            if (t < 0) return first[~t / width];
+            row = t;
+        }
+        return NO_MATCH;
+    }
+
+    // Every occurrence of every signature, reported with the index just past its last byte
+    void forEachMatch(ByteBuffer buf, int from, int to, Hit hit) {
+        int row = 0;
+        for (int i = from; i < to; i++) {
+            int t = next[row + classOf[buf.get(i) & 0xff]];
+            if (t < 0) {
+                t = ~t;
+                for (int s = t / width; s != 0; s = outLink[s]) {
+                    if (own[s] != NO_MATCH) hit.at(own[s], i + 1);
+                }
+            }
+            row = t;
+        }
+    }
+
+    // Sets bit id in seen for every signature that occurs in buf[from, to)
+    void collect(ByteBuffer buf, int from, int to, long[] seen) {
+        int row = 0;
+        for (int i = from; i < to; i++) {
+            int t = next[row + classOf[buf.get(i) & 0xff]];
+            if (t < 0) {
+                t = ~t;
+                for (int s = t / width; s != 0; s = outLink[s]) {
+                    int id = own[s];
+                    if (id != NO_MATCH) seen[id >>> 6] |= 1L << id;
+                }
+            }
+            row = t;
+        }
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    String name(int signature) {
+        return names[signature];
+    }
+
+    // Id reported for the named signature, NO_MATCH if there is none
+    int id(String name) {
+        for (int i = 0; i < names.length; i++) if (names[i].equals(name)) return canonical[i];
+        return NO_MATCH;
+    }
+
+    int states() {
+        return states;
+    }
+
+    int classes() {
+        return width;
+    }
+
+    long tableBytes() {
+        return 4L * (next.length + first.length + own.length + outLink.length);
+    }
+
+    // Content with |hex| runs decoded; text outside them is taken byte for byte as UTF-8
+    static byte[] content(String text) {
+        java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c != '|') {
+                int end = text.indexOf('|', i);
+                if (end < 0) end = text.length();
+                out.writeBytes(text.substring(i, end).getBytes(StandardCharsets.UTF_8));
+                i = end;
+                continue;
+            }
+            int close = text.indexOf('|', i + 1);
+            if (close < 0) throw new IllegalArgumentException("Unclosed |hex| run in '" + text + "'");
+            for (String pair : text.substring(i + 1, close).trim().split("\\s+")) {
+                if (pair.isEmpty()) continue;
+                if (pair.length() != 2) throw new IllegalArgumentException("Bad hex byte '" + pair + "' in '" + text + "'");
+                out.write(Integer.parseInt(pair, 16));
+            }
+            i = close + 1;
+        }
+        return out.toByteArray();
+    }
+
+    static SignatureMatcher load(Path path) throws IOException {
+        Builder builder = new Builder(true);
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNo = 0;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                String trimmed = line.strip();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+                int colon = trimmed.indexOf(':');
+                if (colon <= 0) throw new IOException(path + ":" + lineNo + ": expected 'name: content'");
+                String content = trimmed.substring(colon + 1).strip();
+                try {
+                    builder.add(trimmed.substring(0, colon).strip(), content);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(path + ":" + lineNo + ": " + e.getMessage());
+                }
+            }
+        }
+        if (builder.size() == 0) throw new IOException(path + ": no signatures");
+        return builder.build();
+    }
+
+    // A small built-in set of well-known attack strings, case ignored
+    static SignatureMatcher defaults() {
+        return new Builder(true)
+                .add("sql-union", "UNION SELECT")
+                .add("sql-tautology", "' OR '1'='1")
+                .add("sql-comment", "'--")
+                .add("xss-script", "<script")
+                .add("xss-onerror", "onerror=")
+                .add("path-traversal", "../../")
+                .add("etc-passwd", "/etc/passwd")
+                .add("cmd-exe", "cmd.exe")
+                .add("shell-exec", "/bin/sh")
+                .add("log4shell", "${jndi:")
+                .add("php-eval", "eval(base64_decode(")
+                .add("nop-sled", "|90 90 90 90 90 90 90 90 90 90 90 90 90 90 90 90|")
+                .build();
+    }
+}
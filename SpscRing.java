@@ -0,0 +1,61 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded single-producer / single-consumer queue. Each side caches the other's
+// index and only re-reads it when the ring looks full (or empty), so in steady
+// state offer/poll touch no shared cache line except the slot itself.
+final class SpscRing<E> {
+    private final Object[] slots;
+    private final int mask;
+
+    private final PaddedLong head = new PaddedLong(); // next slot to poll, written by consumer
+    private final PaddedLong tail = new PaddedLong(); // next slot to fill, written by producer
+    private long headCache; // producer's view of head
+    private long tailCache; // consumer's view of tail
+
+    SpscRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new Object[size];
+        mask = size - 1;
+    }
+
+    // Producer side only
+    boolean offer(E e) {
+        long t = tail.get();
+        if (t - headCache >= slots.length) {
+            headCache = head.get();
+            if (t - headCache >= slots.length) return false;
+        }
+        slots[(int) t & mask] = e;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    // Consumer side only
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long h = head.get();
+        if (h >= tailCache) {
+            tailCache = tail.get();
+            if (h >= tailCache) return null;
+        }
+        int i = (int) h & mask;
+        E e = (E) slots[i];
+        slots[i] = null;
+        head.lazySet(h + 1);
+        return e;
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    // Keeps head and tail on separate cache lines
+    @SuppressWarnings({"unused", "serial"})
+    static final class PaddedLong extends AtomicLong {
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
@@ -0,0 +1,225 @@
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+// Disruptor-style version of Router.forwardPacket. One preallocated ring of mutable
+// slots is shared by four stage threads (parse → filter → route → log); each stage
+// chases the sequence of the stage before it and the producer waits on the last
+// one. A slow log stage therefore only deepens its own queue instead of stalling
+// validation and filtering, and it writes a whole batch with one file append.
+class StagedPipeline implements Closeable {
+    enum WaitStrategy { BUSY_SPIN, YIELD, SLEEP }
+
+    static final String[] STAGE_NAMES = {"parse", "filter", "route", "log"};
+
+    // Reused for every packet that passes through its position in the ring
+    static final class Slot {
+        final Packet packet = new Packet("", "", "", 0);
+        boolean valid;
+        boolean listed;
+        boolean banned;
+        boolean allowed;
+        String route;
+    }
+
+    private final Router router;
+    private final Firewall firewall;
+    private final Slot[] ring;
+    private final int mask;
+    private final int maxBatch;
+    private final WaitStrategy waitStrategy;
+
+    private final SpscRing.PaddedLong cursor = new SpscRing.PaddedLong(); // last published sequence
+    private final Stage[] stages = new Stage[STAGE_NAMES.length];
+
+    StagedPipeline(Router router, int ringSize, int maxBatch, WaitStrategy waitStrategy) {
+        this.router = router;
+        this.firewall = router.firewall;
+        int size = Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1;
+        ring = new Slot[size];
+        for (int i = 0; i < size; i++) ring[i] = new Slot();
+        mask = size - 1;
+        this.maxBatch = maxBatch;
+        this.waitStrategy = waitStrategy;
+        cursor.set(-1);
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new Stage(i, i == 0 ? cursor : stages[i - 1].sequence);
+        }
+        for (Stage s : stages) {
+            s.thread = new Thread(s, "stage-" + STAGE_NAMES[s.index]);
+            s.thread.setDaemon(true);
+            s.thread.start();
+        }
+    }
+
+    // Single producer: copies the packet's fields into the next free slot
+    void publish(String sourceIP, String destIP, String protocol, int port) {
+        publish(sourceIP, destIP, protocol, port, null);
+    }
+
+    void publish(Packet packet) {
+        publish(packet.sourceIP, packet.destIP, packet.protocol, packet.port, packet.payload);
+    }
+
+    // The payload is shared by reference, as Packet's is
+    private void publish(String sourceIP, String destIP, String protocol, int port, ByteBuffer payload) {
+        long next = cursor.get() + 1;
+        Stage last = stages[stages.length - 1];
+        int spins = 0;
+        while (next - ring.length > last.sequence.get()) {
+            spins = idle(spins);
+        }
+        Slot slot = ring[(int) next & mask];
+        Packet p = slot.packet;
+        p.sourceIP = sourceIP;
+        p.destIP = destIP;
+        p.protocol = protocol.toUpperCase();
+        p.port = port;
+        p.payload = payload;
+        p.signature = null;
+        slot.valid = false;
+        slot.listed = false;
+        slot.banned = false;
+        slot.allowed = false;
+        slot.route = null;
+        cursor.lazySet(next);
+    }
+
+    // Blocks until the log stage has caught up with everything published
+    void drain() {
+        long target = cursor.get();
+        while (stages[stages.length - 1].sequence.get() < target) {
+            LockSupport.parkNanos(50_000);
+        }
+    }
+
+    long processed() {
+        return stages[stages.length - 1].sequence.get() + 1;
+    }
+
+    long allowed() {
+        return stages[1].allowedCount;
+    }
+
+    long invalid() {
+        return stages[0].invalidCount;
+    }
+
+    // Current number of slots waiting in front of the stage
+    int queueDepth(int stage) {
+        return (int) (stages[stage].barrier.get() - stages[stage].sequence.get());
+    }
+
+    String metrics() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage s : stages) {
+            long batches = Math.max(1, s.batches);
+            sb.append(String.format("   %-7s depth %-6d max depth %-6d avg batch %.1f%n",
+                    STAGE_NAMES[s.index], queueDepth(s.index), s.maxDepth, (double) s.events / batches));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        for (Stage s : stages) s.running = false;
+        for (Stage s : stages) {
+            LockSupport.unpark(s.thread);
+            try {
+                s.thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private int idle(int spins) {
+        switch (waitStrategy) {
+            case BUSY_SPIN -> Thread.onSpinWait();
+            case YIELD -> {
+                if (spins < 100) Thread.onSpinWait();
+                else Thread.yield();
+            }
+            case SLEEP -> {
+                if (spins < 100) Thread.onSpinWait();
+                else if (spins < 200) Thread.yield();
+                else LockSupport.parkNanos(100_000);
+            }
+        }
+        return spins + 1;
+    }
+
+    private final class Stage implements Runnable {
+        final int index;
+        final SpscRing.PaddedLong barrier;   // sequence of the upstream stage (or producer)
+        final SpscRing.PaddedLong sequence = new SpscRing.PaddedLong();
+        Thread thread;
+        volatile boolean running = true;
+
+        // Written by this stage's thread only; read racily for metrics
+        volatile long maxDepth;
+        long batches, events, allowedCount, invalidCount;
+        private final StringBuilder logBatch = new StringBuilder();
+
+        Stage(int index, SpscRing.PaddedLong barrier) {
+            this.index = index;
+            this.barrier = barrier;
+            sequence.set(-1);
+        }
+
+        @Override
+        public void run() {
+            int spins = 0;
+            while (running) {
+                long done = sequence.get();
+                long available = barrier.get();
+                if (available <= done) {
+                    spins = idle(spins);
+                    continue;
+                }
+                spins = 0;
+                long depth = available - done;
+                if (depth > maxDepth) maxDepth = depth;
+                long end = Math.min(available, done + maxBatch);
+                for (long seq = done + 1; seq <= end; seq++) {
+                    handle(ring[(int) seq & mask]);
+                }
+                if (index == STAGE_NAMES.length - 1 && logBatch.length() > 0) {
+                    firewall.appendLog(logBatch);
+                    logBatch.setLength(0);
+                }
+                batches++;
+                events += end - done;
+                sequence.lazySet(end);
+            }
+        }
+
+        private void handle(Slot slot) {
+            Packet p = slot.packet;
+            switch (index) {
+                case 0 -> {
+                    slot.valid = router.isValidIP(p.sourceIP) && router.isValidIP(p.destIP);
+                    if (!slot.valid) invalidCount++;
+                    else slot.listed = router.blocklist.contains(p.sourceIP);
+                }
+                case 1 -> {
+                    if (!slot.valid || slot.listed) return;
+                    slot.banned = firewall.bans.isBanned(p.sourceIP);
+                    if (slot.banned) return;
+                    slot.allowed = firewall.evaluate(p);
+                    firewall.detectThreat(p, slot.allowed);
+                    if (slot.allowed) allowedCount++;
+                }
+                case 2 -> {
+                    if (slot.valid && slot.allowed) slot.route = router.getRoute(p.destIP);
+                }
+                default -> {
+                    if (slot.valid && !slot.banned && !firewall.coalescer.add(p, slot.allowed)) {
+                        logBatch.append(Firewall.logEntry(p, slot.allowed)).append('\n');
+                    }
+                }
+            }
+        }
+    }
+}
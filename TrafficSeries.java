@@ -0,0 +1,91 @@
+import java.util.*;
+
+// Per-second packet counts for the last few minutes, kept in a fixed ring.
+// Each packet bumps the counters of its second; a slot is reset the first time
+// a new second lands on it, so the ring never has to be swept or resized.
+final class TrafficSeries {
+    static final int MAX_PROTOCOLS = 16;   // later protocols share the last slot
+
+    private final int seconds;
+    private final long[] second;           // which second each slot currently holds
+    private final long[] total, blocked;
+    private final long[][] perProtocol;
+    private final List<String> protocols = new ArrayList<>();
+
+    TrafficSeries(int seconds) {
+        this.seconds = seconds;
+        second = new long[seconds];
+        Arrays.fill(second, Long.MIN_VALUE);
+        total = new long[seconds];
+        blocked = new long[seconds];
+        perProtocol = new long[MAX_PROTOCOLS][seconds];
+    }
+
+    int seconds() {
+        return seconds;
+    }
+
+    synchronized void record(long millis, String protocol, boolean isBlocked) {
+        long sec = Math.floorDiv(millis, 1000L);
+        int slot = (int) Math.floorMod(sec, (long) seconds);
+        if (second[slot] != sec) {
+            second[slot] = sec;
+            total[slot] = 0;
+            blocked[slot] = 0;
+            for (long[] p : perProtocol) p[slot] = 0;
+        }
+        total[slot]++;
+        if (isBlocked) blocked[slot]++;
+        perProtocol[protocolId(protocol)][slot]++;
+    }
+
+    // Forgets every second and protocol seen so far
+    synchronized void clear() {
+        Arrays.fill(second, Long.MIN_VALUE);
+        Arrays.fill(total, 0);
+        Arrays.fill(blocked, 0);
+        for (long[] p : perProtocol) Arrays.fill(p, 0);
+        protocols.clear();
+    }
+
+    private int protocolId(String protocol) {
+        int id = protocols.indexOf(protocol);
+        if (id >= 0) return id;
+        if (protocols.size() == MAX_PROTOCOLS - 1) protocols.add("OTHER");
+        if (protocols.size() == MAX_PROTOCOLS) return MAX_PROTOCOLS - 1;
+        protocols.add(protocol);
+        return protocols.size() - 1;
+    }
+
+    // Copies the last n seconds up to nowMillis, oldest first, into the arrays
+    synchronized void snapshot(long nowMillis, long[] totals, long[] blocks) {
+        long now = Math.floorDiv(nowMillis, 1000L);
+        int n = Math.min(totals.length, seconds);
+        for (int i = 0; i < n; i++) {
+            long sec = now - (n - 1 - i);
+            int slot = (int) Math.floorMod(sec, (long) seconds);
+            boolean live = second[slot] == sec;
+            totals[i] = live ? total[slot] : 0;
+            blocks[i] = live ? blocked[slot] : 0;
+        }
+    }
+
+    // Packets per protocol over the last n seconds, busiest first
+    synchronized Map<String, Long> protocolTotals(long nowMillis, int n) {
+        long now = Math.floorDiv(nowMillis, 1000L);
+        Map<String, Long> result = new LinkedHashMap<>();
+        List<Map.Entry<String, Long>> entries = new ArrayList<>();
+        for (int id = 0; id < protocols.size(); id++) {
+            long sum = 0;
+            for (int i = 0; i < Math.min(n, seconds); i++) {
+                long sec = now - i;
+                int slot = (int) Math.floorMod(sec, (long) seconds);
+                if (second[slot] == sec) sum += perProtocol[id][slot];
+            }
+            if (sum > 0) entries.add(Map.entry(protocols.get(id), sum));
+        }
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        for (Map.Entry<String, Long> e : entries) result.put(e.getKey(), e.getValue());
+        return result;
+    }
+}
@@ -0,0 +1,172 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Column-oriented packet history. Each packet takes 20 bytes: a timestamp, two
+// IPv4 addresses as ints, the port as a short and one byte each for the
+// protocol and the status, both ids into small dictionaries. Columns grow in
+// fixed chunks of 16K rows (320 KB), so appending never copies old rows and a
+// short history stays small. Aggregations are tight loops over one or two
+// primitive arrays. IPv6 addresses are kept as two longs
+// in a side table keyed by row, so IPv4 traffic keeps its 20 bytes a row.
+final class TrafficStore {
+    static final int CHUNK_BITS = 14;
+    static final int CHUNK = 1 << CHUNK_BITS;   // rows per chunk
+    static final int BYTES_PER_ROW = 8 + 4 + 4 + 2 + 1 + 1;
+    static final String OTHER = "OTHER";
+    private static final int OTHER_ID = 255;
+
+    private static final class Chunk {
+        final long[] time = new long[CHUNK];
+        final int[] source = new int[CHUNK];
+        final int[] dest = new int[CHUNK];
+        final short[] port = new short[CHUNK];
+        final byte[] protocol = new byte[CHUNK];
+        final byte[] status = new byte[CHUNK];
+    }
+
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final List<String> protocols = new ArrayList<>();
+    private final Map<String, Integer> protocolIds = new HashMap<>();
+    private final List<String> statuses = new ArrayList<>();
+    private final Map<String, Integer> statusIds = new HashMap<>();
+    private final Map<Integer, long[]> sources6 = new ConcurrentHashMap<>();
+    private final Map<Integer, long[]> dests6 = new ConcurrentHashMap<>();
+    private volatile int size;
+
+    // Returns the row number; addresses that are neither IPv4 nor IPv6 are stored as 0.0.0.0
+    synchronized int append(long time, String protocol, String source, String dest, int port, String status) {
+        int row = size;
+        if ((row & (CHUNK - 1)) == 0 && row >> CHUNK_BITS == chunks.size()) chunks.add(new Chunk());
+        Chunk c = chunks.get(row >> CHUNK_BITS);
+        int i = row & (CHUNK - 1);
+        c.time[i] = time;
+        c.source[i] = address(source, row, sources6);
+        c.dest[i] = address(dest, row, dests6);
+        c.port[i] = (short) (port >= 0 && port <= 0xffff ? port : 0);
+        c.protocol[i] = (byte) intern(protocol, protocols, protocolIds);
+        c.status[i] = (byte) intern(status, statuses, statusIds);
+        size = row + 1; // publishes the row to readers
+        return row;
+    }
+
+    private static int address(String ip, int row, Map<Integer, long[]> wide) {
+        long v4 = IPv4.parse(ip);
+        if (v4 != IPv4.INVALID) return (int) v4;
+        long[] v6 = new long[2];
+        if (IPv6.parse(ip, v6)) wide.put(row, v6);
+        return 0;
+    }
+
+    private static String format(int ip, int row, Map<Integer, long[]> wide) {
+        long[] v6 = ip == 0 ? wide.get(row) : null;
+        return v6 != null ? IPv6.format(v6[0], v6[1]) : IPv4.format(ip);
+    }
+
+    // Values past the first 255 share the last id, reported as OTHER
+    private static int intern(String value, List<String> names, Map<String, Integer> ids) {
+        Integer id = ids.get(value);
+        if (id != null) return id;
+        if (names.size() >= OTHER_ID) {
+            if (names.size() == OTHER_ID) names.add(OTHER);
+            return OTHER_ID;
+        }
+        names.add(value);
+        ids.put(value, names.size() - 1);
+        return names.size() - 1;
+    }
+
+    synchronized void clear() {
+        chunks.clear();
+        sources6.clear();
+        dests6.clear();
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long memoryBytes() {
+        return (long) chunks.size() * CHUNK * BYTES_PER_ROW + 64L * (sources6.size() + dests6.size());
+    }
+
+    private Chunk chunk(int row) {
+        if (row < 0 || row >= size) throw new IndexOutOfBoundsException("row " + row + " of " + size);
+        return chunks.get(row >> CHUNK_BITS);
+    }
+
+    long time(int row) {
+        return chunk(row).time[row & (CHUNK - 1)];
+    }
+
+    String source(int row) {
+        return format(chunk(row).source[row & (CHUNK - 1)], row, sources6);
+    }
+
+    String dest(int row) {
+        return format(chunk(row).dest[row & (CHUNK - 1)], row, dests6);
+    }
+
+    int port(int row) {
+        return chunk(row).port[row & (CHUNK - 1)] & 0xffff;
+    }
+
+    synchronized String protocol(int row) {
+        return protocols.get(chunk(row).protocol[row & (CHUNK - 1)] & 0xff);
+    }
+
+    synchronized String status(int row) {
+        return statuses.get(chunk(row).status[row & (CHUNK - 1)] & 0xff);
+    }
+
+    // Rows per status, in one pass over the status column
+    Map<String, Long> countByStatus() {
+        return histogram(false);
+    }
+
+    // Rows per protocol, in one pass over the protocol column
+    Map<String, Long> countByProtocol() {
+        return histogram(true);
+    }
+
+    private Map<String, Long> histogram(boolean byProtocol) {
+        int n = size;
+        long[] counts = new long[256];
+        for (int c = 0; c * CHUNK < n; c++) {
+            Chunk chunk = chunks.get(c);
+            byte[] column = byProtocol ? chunk.protocol : chunk.status;
+            int rows = Math.min(CHUNK, n - c * CHUNK);
+            for (int i = 0; i < rows; i++) counts[column[i] & 0xff]++;
+        }
+        List<String> names;
+        synchronized (this) {
+            names = new ArrayList<>(byProtocol ? protocols : statuses);
+        }
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int id = 0; id < names.size(); id++) {
+            if (counts[id] > 0) result.put(names.get(id), counts[id]);
+        }
+        return result;
+    }
+
+    // Rows with the given status since a point in time
+    long countSince(long fromMillis, String status) {
+        Integer id;
+        synchronized (this) {
+            id = statusIds.get(status);
+        }
+        if (id == null) return 0;
+        byte code = (byte) (int) id;
+        int n = size;
+        long count = 0;
+        for (int c = 0; c * CHUNK < n; c++) {
+            Chunk chunk = chunks.get(c);
+            int rows = Math.min(CHUNK, n - c * CHUNK);
+            if (rows > 0 && chunk.time[rows - 1] < fromMillis) continue; // rows are appended in time order
+            for (int i = 0; i < rows; i++) {
+                count += (chunk.time[i] >= fromMillis & chunk.status[i] == code) ? 1 : 0;
+            }
+        }
+        return count;
+    }
+}
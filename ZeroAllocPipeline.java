@@ -0,0 +1,216 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Single-threaded engine mode that allocates nothing per packet once warmed up.
+// Frames arrive as one reused PcapReader.Frame, sources stay IPv4 ints apart from
+// a small cache of their String form for the ban list, timestamps come from a
+// CoarseClock and log lines are formatted into a LogBuffer that is written and
+// indexed in bulk. Threat counts live in a primitive open-addressing table. Payloads are
+// scanned in place in the capture mapping, into a bit set kept for the next packet.
+//
+// No event coalescing and no shadow evaluation in this mode: both keep per-event objects.
+//
+//   java ZeroAllocPipeline   measures bytes allocated per packet and fails if it is not zero
+class ZeroAllocPipeline implements Closeable {
+    private static final int SOURCE_CACHE = 1 << 16;   // String forms of source addresses kept for the ban list
+    private static final int PAYLOAD_BYTES = 32;
+    private static final int FRAME_BYTES = 14 + 20 + 20 + PAYLOAD_BYTES;
+    private static final int[] PORTS = {80, 443, 22, 53, 8080};
+
+    private final Router router;
+    private final Firewall firewall;
+    private final CoarseClock clock = new CoarseClock(1);
+    private final LogBuffer log = new LogBuffer(1 << 20);
+    private final LogAnalytics.IntCounter threats = new LogAnalytics.IntCounter();
+    private final int[] cachedSources = new int[SOURCE_CACHE];
+    private final String[] sourceNames = new String[SOURCE_CACHE];
+    private int cachedNames;
+    private long[] seen = new long[1];
+
+    long allowed, blocked, listed, banned, alerts;
+    long inspected;     // packets a payload rule decided
+
+    ZeroAllocPipeline(Router router) {
+        this.router = router;
+        this.firewall = router.firewall;
+    }
+
+    // Same order of checks as Router.decide and Firewall.isAllowed
+    void process(PcapReader.Frame f) {
+        if (router.blocklist.contains(f.source)) {
+            listed++;
+            write(f, false);
+            return;
+        }
+        String source = sourceName(f.source);
+        if (firewall.bans.isBanned(source)) {
+            banned++;
+            return;
+        }
+        boolean ok;
+        ChainPolicy chains = firewall.chains();
+        PayloadRules dpi = firewall.payloadRules();
+        int payloadRule = PayloadRules.NO_MATCH;
+        if (f.payloadLength > 0 && dpi.inspects(f.protocol, f.port)) {
+            if (seen.length * 64 < dpi.signatures().size()) seen = dpi.scratch();
+            payloadRule = dpi.match(f.protocol, f.port, f.buffer, f.payloadOffset, f.payloadOffset + f.payloadLength, seen);
+        }
+        if (payloadRule != PayloadRules.NO_MATCH) {
+            ok = dpi.allows(payloadRule);
+            inspected++;
+        } else if (chains != null) {
+            ok = chains.allows(ChainPolicy.direction(f.source, f.dest), f.protocol, f.port);
+        } else {
+            RuleIndex rules = firewall.rules();
+            int rule = rules.match(f.protocol, f.port);
+            ok = rule == RuleIndex.NO_MATCH || rules.allows(rule);   // default allow
+        }
+        write(f, ok);
+        if (ok) {
+            allowed++;
+            return;
+        }
+        blocked++;
+        long n = threats.addAndGet(f.source & 0xffffffffL, 1);
+        if (n >= Firewall.THREAT_THRESHOLD) {
+            threats.add(f.source & 0xffffffffL, -n);
+            alerts++;
+            firewall.ban(source);
+        }
+    }
+
+    // Linear probing over a bounded table; once it is half full, new sources
+    // replace whatever sits in their home slot
+    private String sourceName(int ip) {
+        int h = ip * 0x9E3779B9;
+        int home = (h ^ (h >>> 16)) & (SOURCE_CACHE - 1);
+        for (int i = home; sourceNames[i] != null; i = (i + 1) & (SOURCE_CACHE - 1)) {
+            if (cachedSources[i] == ip) return sourceNames[i];
+        }
+        String name = IPv4.format(ip);
+        int slot = home;
+        if (cachedNames < SOURCE_CACHE / 2) {
+            while (sourceNames[slot] != null) slot = (slot + 1) & (SOURCE_CACHE - 1);
+            cachedNames++;
+        }
+        sourceNames[slot] = name;
+        cachedSources[slot] = ip;
+        return name;
+    }
+
+    private void write(PcapReader.Frame f, boolean ok) {
+        log.add(clock.now(), f.protocol, f.port, f.source, f.dest, ok);
+        if (!log.hasRoom()) firewall.appendLog(log);
+    }
+
+    // Writes out buffered log lines
+    void flush() {
+        firewall.appendLog(log);
+    }
+
+    long processed() {
+        return allowed + blocked + listed + banned;
+    }
+
+    String stats() {
+        return String.format("   Allowed:   %d%n   Blocked:   %d (%d on IP blocklist, %d from banned sources) | Alerts: %d"
+                        + " | Payload rule verdicts: %d%n",
+                allowed, blocked + listed + banned, listed, banned, alerts, inspected);
+    }
+
+    @Override
+    public void close() {
+        flush();
+        clock.close();
+    }
+
+    // Allocation self-check: replays synthetic frames through a throwaway firewall and
+    // compares this thread's allocated bytes before and after the measured run. Nothing
+    // in the traffic is blocked: the same 1,024 sources repeat, so any block would soon
+    // ban them and the run would measure the ban check instead of the whole path. Attack
+    // payloads are let through by an ALLOW payload rule, so the scan still finds them.
+    // The warmup is long because the loop indexing a log flush runs only once per 1 MB
+    // of log; until the JIT has finished with it, entering compiled code allocates.
+    public static void main(String[] args) throws IOException {
+        int warmup = 1_000_000, measured = 200_000;
+        Path dir = Files.createTempDirectory("zeroalloc");
+        Path logFile = dir.resolve("firewall_log1.txt");
+        Firewall firewall = new Firewall(logFile);
+        firewall.install(RuleIndex.empty().toBuilder().add("TELNET", 23, false).add("SSH", 22, true).add("HTTP", 80, true).build());
+        firewall.installPayloadRules(firewall.payloadRules().add("ALLOW", "ANY", "ANY", "ANY"));
+        firewall.bans.ban("198.51.100.1", "self-check");     // so every packet probes a non-empty ban list
+        Router router = new Router(firewall);
+
+        ByteBuffer frames = syntheticFrames(4096);
+        PcapReader.Frame frame = new PcapReader.Frame();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        long bytes, shortcut;
+        try (ZeroAllocPipeline pipeline = new ZeroAllocPipeline(router)) {
+            run(pipeline, frames, frame, warmup);
+            long skipped = pipeline.banned + pipeline.listed;
+            long before = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            run(pipeline, frames, frame, measured);
+            double nanos = System.nanoTime() - start;
+            bytes = threads.getThreadAllocatedBytes(thread) - before;
+            shortcut = pipeline.banned + pipeline.listed - skipped;
+            System.out.printf("📏 %d packets: %d bytes allocated (%.3f bytes/packet), %.0f ns/packet%n",
+                    measured, bytes, (double) bytes / measured, nanos / measured);
+            System.out.print(pipeline.stats());
+        } finally {
+            firewall.closeLog();
+            try (var files = Files.list(dir)) {
+                for (Path p : (Iterable<Path>) files::iterator) Files.deleteIfExists(p);
+            }
+            Files.deleteIfExists(dir);
+        }
+        if (shortcut > 0) {
+            System.out.println("❌ " + shortcut + " measured packets skipped rule evaluation");
+            System.exit(1);
+        }
+        if (bytes > 0) {
+            System.out.println("❌ Hot path allocates");
+            System.exit(1);
+        }
+        System.out.println("✅ Zero bytes allocated per packet in steady state");
+    }
+
+    private static void run(ZeroAllocPipeline pipeline, ByteBuffer frames, PcapReader.Frame frame, int packets) {
+        int count = frames.capacity() / FRAME_BYTES;
+        for (int i = 0; i < packets; i++) {
+            PcapReader.decode(frames, (i % count) * FRAME_BYTES, FRAME_BYTES, PcapReader.LINKTYPE_ETHERNET, frame);
+            pipeline.process(frame);
+        }
+    }
+
+    // Ethernet / IPv4 / TCP from 1,024 sources to a handful of services; one payload in 64
+    // carries an attack string
+    private static ByteBuffer syntheticFrames(int count) {
+        ByteBuffer b = ByteBuffer.allocate(count * FRAME_BYTES).order(ByteOrder.BIG_ENDIAN);
+        byte[] benign = "GET /index.html HTTP/1.1\r\nHost: ".getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+        byte[] attack = "GET /?id=1 UNION SELECT pass FROM".getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+        int dest = (int) IPv4.parse("10.0.0.5");
+        for (int i = 0; i < count; i++) {
+            int p = i * FRAME_BYTES;
+            b.putShort(p + 12, (short) 0x0800);
+            b.put(p + 14, (byte) 0x45);
+            b.putShort(p + 16, (short) (40 + PAYLOAD_BYTES));
+            b.put(p + 22, (byte) 64);
+            b.put(p + 23, (byte) 6);
+            b.putInt(p + 26, (int) IPv4.parse("203.0.113.0") + (i % 1024));
+            b.putInt(p + 30, dest);
+            b.putShort(p + 34, (short) (40000 + i % 1000));
+            b.putShort(p + 36, (short) PORTS[i % PORTS.length]);
+            b.put(p + 46, (byte) 0x50);     // TCP header length 20
+            b.put(p + 54, i % 64 == 63 ? attack : benign, 0, PAYLOAD_BYTES);
+        }
+        return b;
+    }
+}